@@ -1,5 +1,11 @@
 package bigdatacourse.hw2;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 public interface HW2API {
 
 	// connects to AstraDB
@@ -23,9 +29,51 @@ public interface HW2API {
 	// returns the item's details. the categories should be ordered 
 	public String item(String asin);
 
+	// returns the details of several items, in the order of the given asins (missing items are reported as not exists)
+	public default List<String> items(Collection<String> asins) {
+		List<String> itemsReprs = new ArrayList<>(asins.size());
+		for (String asin : asins)
+			itemsReprs.add(item(asin));
+		return itemsReprs;
+	}
+
 	// returns the user's reviews, ordered by review time (desc) and then by the asin
 	public Iterable<String> userReviews(String reviewerID);
 	
 	// returns the items's reviews, ordered by review time (desc) and then by the reviewerID
 	public Iterable<String> itemReviews(String asin);
+	
+	// returns the aggregate of the item's reviews (count, average rating, rating histogram, first and last review time)
+	public String itemReviewStats(String asin);
+	
+	// returns the aggregate of the user's reviews (count, average rating, rating histogram, first and last review time)
+	public String userReviewStats(String reviewerID);
+	
+	// returns the user's reviews with the given rating (1-5) written between fromTime and toTime (epoch seconds, inclusive),
+	// ordered by review time (desc) and then by the asin
+	public Iterable<String> userReviews(String reviewerID, int rating, long fromTime, long toTime);
+	
+	// returns the items's reviews with the given rating (1-5) written between fromTime and toTime (epoch seconds, inclusive),
+	// ordered by review time (desc) and then by the reviewerID
+	public Iterable<String> itemReviews(String asin, int rating, long fromTime, long toTime);
+	
+	// returns up to limit reviews whose summary or text match the words of the query, best matches first
+	public Iterable<String> searchReviews(String query, int limit);
+	
+	// returns up to pageSize asins of the items in the category, in asin order, after afterAsin (null for the first page)
+	public List<String> categoryItems(String category, String afterAsin, int pageSize);
+	
+	// returns the number of items in every category, ordered by category
+	public Map<String, Integer> categoryCounts();
+	
+	// writes the item's details (same text as item) into out
+	public default void item(String asin, Appendable out) throws IOException {
+		out.append(item(asin));
+	}
+	
+	// writes the user's reviews into out, preceded by the "total reviews" line (same text userReviews prints)
+	public void userReviews(String reviewerID, Appendable out) throws IOException;
+	
+	// writes the items's reviews into out, preceded by the "total reviews" line (same text itemReviews prints)
+	public void itemReviews(String asin, Appendable out) throws IOException;
 }
@@ -0,0 +1,16 @@
+package bigdatacourse.hw2;
+
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+
+public interface HW2AsyncAPI {
+
+	// returns (asynchronously) the item's details. the categories should be ordered
+	public CompletionStage<String> itemAsync(String asin);
+
+	// returns (asynchronously) the user's reviews, ordered by review time (desc) and then by the asin
+	public CompletionStage<List<String>> userReviewsAsync(String reviewerID);
+
+	// returns (asynchronously) the items's reviews, ordered by review time (desc) and then by the reviewerID
+	public CompletionStage<List<String>> itemReviewsAsync(String asin);
+}
@@ -2,9 +2,17 @@ package bigdatacourse.hw2;
 
 import java.io.File;
 import java.io.FileReader;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
 import org.json.JSONObject;
 import org.json.JSONTokener;
+import bigdatacourse.hw2.studentcode.HW2InMemoryAnswer;
+import bigdatacourse.hw2.studentcode.HW2LsmAnswer;
+import bigdatacourse.hw2.studentcode.HW2OffHeapAnswer;
+import bigdatacourse.hw2.studentcode.HW2SnapshotAnswer;
 import bigdatacourse.hw2.studentcode.HW2StudentAnswer;
 
 
@@ -22,6 +30,20 @@ public class HW2CLI {
 
 	private static final String				FILE_SEPARATOR			=	System.getProperty("file.separator");
 	
+	// backends, chosen with -Dhw2.backend=<name> (cassandra by default)
+	private static final String				PROPERTY_BACKEND		=	"hw2.backend";
+	private static final String				BACKEND_CASSANDRA		=	"cassandra";
+	private static final String				BACKEND_MEMORY			=	"memory";
+	private static final String				BACKEND_LSM				=	"lsm";
+	private static final String				BACKEND_SNAPSHOT		=	"snapshot";
+	private static final String				BACKEND_OFF_HEAP		=	"offheap";
+
+	// number of reviews printed by searchReviews
+	private static final int					SEARCH_LIMIT			=	20;
+	
+	// number of asins read per categoryItems page
+	private static final int					CATEGORY_PAGE_SIZE		=	100;
+	
 	
 	public static void main(String[] args) throws Exception {
 		HW2CLI hw2CLI = new HW2CLI();		// creating the object
@@ -32,13 +54,31 @@ public class HW2CLI {
 	}
 	
 	
-	private String 		pathAstraDBFolder;		// with the "Secure Connect Bundle" and GeneratedToken.csv
+	private String 		pathAstraDBFolder;		// with the "Secure Connect Bundle" and GeneratedToken.csv (local data for local backends)
 	private String 		pathDatasetFolder;		// the dataset folder
+	private String		backend;				// which HW2API implementation is used
 	private HW2API		hw2API;					// will contain student answers
 	
 	
 	public HW2CLI() {
-		this.hw2API	=	new HW2StudentAnswer();
+		this(System.getProperty(PROPERTY_BACKEND, BACKEND_CASSANDRA));
+	}
+	
+	public HW2CLI(String backend) {
+		this.backend	=	backend;
+		this.hw2API		=	createBackend(backend);
+	}
+	
+	
+	private static HW2API createBackend(String backend) {
+		switch (backend) {
+			case BACKEND_CASSANDRA:		return new HW2StudentAnswer();
+			case BACKEND_MEMORY:		return new HW2InMemoryAnswer();
+			case BACKEND_LSM:			return new HW2LsmAnswer();
+			case BACKEND_SNAPSHOT:		return new HW2SnapshotAnswer();
+			case BACKEND_OFF_HEAP:		return new HW2OffHeapAnswer();
+			default:					throw new IllegalArgumentException("ERROR - unknown backend " + backend);
+		}
 	}
 
 
@@ -61,35 +101,52 @@ public class HW2CLI {
 			try {
 				switch (input) {
 					case "connect": {			
-						hw2API.connect(
-							pathAstraDBFolder + FILE_ASTRA_DB, 
-							getUsername(pathAstraDBFolder + FILE_LOGIN_TOKEN), 
-							getPasswrod(pathAstraDBFolder + FILE_LOGIN_TOKEN),
-							HW2_KEYSPACE
-						);
+						if (isCassandra())
+							hw2API.connect(
+								pathAstraDBFolder + FILE_ASTRA_DB, 
+								getUsername(pathAstraDBFolder + FILE_LOGIN_TOKEN), 
+								getPasswrod(pathAstraDBFolder + FILE_LOGIN_TOKEN),
+								HW2_KEYSPACE
+							);
+						else
+							hw2API.connect(pathAstraDBFolder, null, null, HW2_KEYSPACE);
 						break;
 					}							
 					case "createTables":		hw2API.createTables();			break;
 					case "initialize":			hw2API.initialize();			break;
 					case "loadItems":			hw2API.loadItems(pathDatasetFolder + FILE_DATASET_ITEMS);		break;
 					case "loadReviews":			hw2API.loadReviews(pathDatasetFolder + FILE_DATASET_REVIEWS);	break;
-					case "item": {			
-						String itemReper = hw2API.item(tokens[1]);											
-						System.out.print(itemReper);
+					case "item":				hw2API.item(tokens[1], System.out);			break;
+					case "items": {
+						List<String> itemsReprs = hw2API.items(Arrays.asList(tokens).subList(1, tokens.length));
+						for (String itemRepr : itemsReprs)
+							System.out.print(itemRepr);
 						break;
 					}
-					case "userReviews": {
-						Iterable<String> reviewsRepr = hw2API.userReviews(tokens[1]);
-						for (String reviewRepr : reviewsRepr)
-							System.out.print(reviewRepr);
+					case "userReviews":			hw2API.userReviews(tokens[1], System.out);	break;
+					case "itemReviews":			hw2API.itemReviews(tokens[1], System.out);	break;
+					case "userReviewsByRating":	printAll(hw2API.userReviews(tokens[1], Integer.parseInt(tokens[2]),
+													timeArg(tokens, 3, Long.MIN_VALUE), timeArg(tokens, 4, Long.MAX_VALUE)));	break;
+					case "itemReviewsByRating":	printAll(hw2API.itemReviews(tokens[1], Integer.parseInt(tokens[2]),
+													timeArg(tokens, 3, Long.MIN_VALUE), timeArg(tokens, 4, Long.MAX_VALUE)));	break;
+					case "searchReviews":		printAll(hw2API.searchReviews(line.substring(input.length()), SEARCH_LIMIT));	break;
+					case "categoryItems": {
+						// the category is the rest of the line, it may hold spaces
+						String category = line.substring(input.length()).trim();
+						List<String> page = hw2API.categoryItems(category, null, CATEGORY_PAGE_SIZE);
+						while (!page.isEmpty()) {
+							for (String asin : page)
+								System.out.println(asin);
+							page = hw2API.categoryItems(category, page.get(page.size() - 1), CATEGORY_PAGE_SIZE);
+						}
 						break;
 					}
-					case "itemReviews": {
-						Iterable<String> reviewsReper = hw2API.itemReviews(tokens[1]);	
-						for (String reviewRepr : reviewsReper)
-							System.out.print(reviewRepr);
+					case "categories":
+						for (Map.Entry<String, Integer> count : hw2API.categoryCounts().entrySet())
+							System.out.println(count.getKey() + ": " + count.getValue());
 						break;
-					}
+					case "itemStats":			System.out.print(hw2API.itemReviewStats(tokens[1]));	break;
+					case "userStats":			System.out.print(hw2API.userReviewStats(tokens[1]));	break;
 
 					case "help":				printHelp();					break;
 					case "exit":				isRunning = false;
@@ -114,6 +171,16 @@ public class HW2CLI {
 		
 		
 	
+	private static void printAll(Iterable<String> reprs) {
+		for (String repr : reprs)
+			System.out.print(repr);
+	}
+	
+	// optional time argument, e.g. 2013-01-01T00:00:00Z, as epoch seconds
+	private static long timeArg(String[] tokens, int index, long missing) {
+		return tokens.length > index ? Instant.parse(tokens[index]).getEpochSecond() : missing;
+	}
+	
 	private void printHelp() {
 		System.out.println("-------------------- HW2 options ----------------------------");
 		System.out.println("connect \t\t connect to the DB");
@@ -122,8 +189,16 @@ public class HW2CLI {
 		System.out.println("loadItems\t\t prase and lode the items");
 		System.out.println("loadReviews\t\t prase and lode the reviews");
 		System.out.println("item * \t\t \t print the info for item *");
+		System.out.println("items * * ...\t\t print the info for several items");
 		System.out.println("userReviews *\t\t print the reviews for user *");
 		System.out.println("itemReviews *\t\t print the reviews for item *");
+		System.out.println("userReviewsByRating * r [from] [to]\t print the reviews of user * rated r, from/to are ISO instants");
+		System.out.println("itemReviewsByRating * r [from] [to]\t print the reviews of item * rated r, from/to are ISO instants");
+		System.out.println("searchReviews * * ...\t print the reviews best matching the words");
+		System.out.println("categoryItems *\t\t print the asins of the items in category *");
+		System.out.println("categories\t\t print the number of items in every category");
+		System.out.println("itemStats *\t\t print the reviews summary of item *");
+		System.out.println("userStats *\t\t print the reviews summary of user *");
 		System.out.println("help    \t\t print available commands");
 		System.out.println("exit    \t\t exit the CLI");
 		System.out.println("-------------------------------------------------------------");
@@ -134,15 +209,17 @@ public class HW2CLI {
 	
 	private void parsePassedFolders(String[] args) throws Exception {
 		if (args.length != 2)
-			throw new Exception("ERROR - 2 folder paths are required to be passed: first astradb and then dataset folders");
+			throw new Exception("ERROR - 2 folder paths are required to be passed: first astradb (or local data) and then dataset folders");
 		
 		String pathAstraDBFolder 	= 	args[0] + FILE_SEPARATOR;
 		String pathDatasetFolder	=	args[1] + FILE_SEPARATOR;
 
 		
 		// validating files for astradb
-		validateFileExists(pathAstraDBFolder, FILE_ASTRA_DB);
-		validateFileExists(pathAstraDBFolder, FILE_LOGIN_TOKEN);
+		if (isCassandra()) {
+			validateFileExists(pathAstraDBFolder, FILE_ASTRA_DB);
+			validateFileExists(pathAstraDBFolder, FILE_LOGIN_TOKEN);
+		}
 		
 		// validating files for dataset
 		validateFileExists(pathDatasetFolder, FILE_DATASET_ITEMS);
@@ -154,6 +231,10 @@ public class HW2CLI {
 	}
 	
 	
+	private boolean isCassandra() {
+		return BACKEND_CASSANDRA.equals(backend);
+	}
+	
 	private static void validateFileExists(String path, String filename) throws Exception {
 		if (new File(path + filename).exists() == false)
 			throw new Exception("ERROR - can not find file " + path + filename);
@@ -0,0 +1,142 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local category -> asins index, filled while loading items from any number of threads.
+ * The asins of a category are kept sorted so a page is a range read after the last asin of the previous page,
+ * and every category keeps its count so the summary does not walk the asins.
+ * The categories of every asin are kept as well, so an item added again with other categories leaves the ones it no longer lists.
+ * The index can be saved into a file and loaded back.
+ */
+public class CategoryIndex {
+
+    private static final class Category {
+        final ConcurrentSkipListSet<String> asins = new ConcurrentSkipListSet<>();
+        final AtomicInteger items = new AtomicInteger();
+    }
+
+    private final ConcurrentSkipListMap<String, Category> categories = new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, Set<String>> itemCategories = new ConcurrentHashMap<>();
+
+    /**
+     * Adds the item to each of its categories, an item added again is counted once
+     * and is removed from the categories of its previous add that it no longer lists
+     */
+    public void add(String asin, Set<String> categoriesOfItem) {
+        Set<String> added = new HashSet<>(categoriesOfItem);
+        // One add of an asin at a time, so the categories it leaves are those of the add before it
+        itemCategories.compute(asin, (key, previous) -> {
+            for (String category : added) {
+                Category entry = categories.computeIfAbsent(category, name -> new Category());
+                if (entry.asins.add(asin)) {
+                    entry.items.incrementAndGet();
+                }
+            }
+            if (previous != null) {
+                for (String category : previous) {
+                    Category entry = categories.get(category);
+                    if (!added.contains(category) && entry != null && entry.asins.remove(asin)) {
+                        entry.items.decrementAndGet();
+                    }
+                }
+            }
+            return added;
+        });
+    }
+
+    /**
+     * @param afterAsin Last asin of the previous page, null for the first page
+     * @return Up to pageSize asins of the category, in asin order
+     */
+    public List<String> page(String category, String afterAsin, int pageSize) {
+        Category entry = categories.get(category);
+        if (entry == null) {
+            return Collections.emptyList();
+        }
+        Iterator<String> asins = (afterAsin == null ? entry.asins : entry.asins.tailSet(afterAsin, false)).iterator();
+        List<String> page = new ArrayList<>(Math.min(pageSize, 1024));
+        while (page.size() < pageSize && asins.hasNext()) {
+            page.add(asins.next());
+        }
+        return page;
+    }
+
+    /**
+     * Writes every category with its asins into a temporary file and renames it in place
+     */
+    public void save(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            // Copied first, so the count written matches the asins written while loaders keep adding
+            Map<String, List<String>> snapshot = new TreeMap<>();
+            for (Map.Entry<String, Category> entry : categories.entrySet()) {
+                snapshot.put(entry.getKey(), new ArrayList<>(entry.getValue().asins));
+            }
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, List<String>> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().size());
+                for (String asin : entry.getValue()) {
+                    out.writeUTF(asin);
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads back an index written by save, more items can then be added to it
+     */
+    public static CategoryIndex load(Path path) throws IOException {
+        CategoryIndex index = new CategoryIndex();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            for (int categories = in.readInt(); categories > 0; categories--) {
+                String category = in.readUTF();
+                Category entry = new Category();
+                index.categories.put(category, entry);
+                for (int asins = in.readInt(); asins > 0; asins--) {
+                    String asin = in.readUTF();
+                    entry.asins.add(asin);
+                    index.itemCategories.computeIfAbsent(asin, key -> new HashSet<>()).add(category);
+                }
+                entry.items.set(entry.asins.size());
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return The number of items of every category, by category; categories whose items all left are not listed
+     */
+    public Map<String, Integer> counts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Map.Entry<String, Category> entry : categories.entrySet()) {
+            int items = entry.getValue().items.get();
+            if (items > 0) {
+                counts.put(entry.getKey(), items);
+            }
+        }
+        return counts;
+    }
+}
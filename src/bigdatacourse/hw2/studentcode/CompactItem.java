@@ -0,0 +1,30 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.util.Set;
+
+import bigdatacourse.hw2.studentcode.compress.CompressedTextStore;
+
+/**
+ * An item as held by HW2InMemoryAnswer: the description is a reference into a CompressedTextStore,
+ * and is only inflated (toRecord) when the item is formatted.
+ */
+final class CompactItem {
+
+    final String asin;
+    final String title;
+    final String image;
+    final Set<String> categories;
+    final long description;
+
+    CompactItem(ItemRecord item, CompressedTextStore descriptions) {
+        this.asin = item.getAsin();
+        this.title = item.getTitle();
+        this.image = item.getImage();
+        this.categories = item.getCategories();
+        this.description = descriptions.add(item.getDescription());
+    }
+
+    ItemRecord toRecord(CompressedTextStore descriptions) {
+        return new ItemRecord(asin, title, image, categories, descriptions.get(description));
+    }
+}
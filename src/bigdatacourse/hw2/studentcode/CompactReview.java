@@ -0,0 +1,51 @@
+package bigdatacourse.hw2.studentcode;
+
+import bigdatacourse.hw2.studentcode.compress.CompressedTextStore;
+
+/**
+ * A review as held by HW2InMemoryAnswer: reviewerID and asin are ids of the shared IdDictionary,
+ * the review text is a reference into a CompressedTextStore, and both are only translated back
+ * to strings (toRecord) when the review is formatted.
+ */
+final class CompactReview {
+
+    final int reviewerId;
+    final int asinId;
+    final String reviewerName;
+    final float overall;
+    final long reviewText;
+    final String summary;
+    final long unixReviewTime;
+
+    CompactReview(ReviewRecord review, IdDictionary ids, CompressedTextStore texts) {
+        this.reviewerId = ids.id(review.getReviewerID());
+        this.asinId = ids.id(review.getAsin());
+        this.reviewerName = review.getReviewerName();
+        this.overall = review.getOverall();
+        this.reviewText = texts.add(review.getReviewText());
+        this.summary = review.getSummary();
+        this.unixReviewTime = review.getUnixReviewTime();
+    }
+
+    /**
+     * A bound of a clustering range: sorts before every review of its time (see HW2InMemoryAnswer)
+     */
+    CompactReview(long unixReviewTime) {
+        this.reviewerId = HW2InMemoryAnswer.RANGE_BOUND;
+        this.asinId = HW2InMemoryAnswer.RANGE_BOUND;
+        this.reviewerName = null;
+        this.overall = ReviewRecord.NO_RATING;
+        this.reviewText = CompressedTextStore.NO_TEXT;
+        this.summary = null;
+        this.unixReviewTime = unixReviewTime;
+    }
+
+    /**
+     * @param texts Reader of the scan, the review text is only read from it when the record is formatted
+     */
+    ReviewRecord toRecord(IdDictionary ids, CompressedTextStore.Reader texts) {
+        long text = reviewText;
+        return new ReviewRecord(ids.key(reviewerId), ids.key(asinId), reviewerName, overall,
+                () -> texts.get(text), () -> summary, unixReviewTime);
+    }
+}
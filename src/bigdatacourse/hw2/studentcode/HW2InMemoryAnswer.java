@@ -0,0 +1,249 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import bigdatacourse.hw2.studentcode.compress.CompressedTextStore;
+import bigdatacourse.hw2.studentcode.snapshot.SnapshotWriter;
+
+/**
+ * HW2API backend that keeps the three tables in the heap of the current process.
+ * Each review partition is a concurrent skip list sorted by the clustering order of its CQL table,
+ * so reads walk a partition in order and loading can run on many threads without locking.
+ * Reviews are held as CompactReview, with reviewerID and asin replaced by their dictionary ids.
+ * Review texts and item descriptions, the bulk of the data, are kept deflated in blocks with a dictionary
+ * trained on the first texts loaded (see CompressedTextStore), and are only inflated when formatted.
+ * Rated reviews are also indexed by (reviewerID or asin, rating) in partitions of the same clustering order,
+ * so queries filtered on rating and time only walk the matching range.
+ * The review summaries of every reviewer and item are kept up to date as reviews are stored.
+ */
+public class HW2InMemoryAnswer extends HW2LocalAnswer {
+
+    // Separate stores, descriptions and reviews don't share much vocabulary
+    private final CompressedTextStore descriptions = new CompressedTextStore();
+    private final CompressedTextStore reviewTexts = new CompressedTextStore();
+
+    // items: asin -> item
+    private final ConcurrentHashMap<String, CompactItem> items = new ConcurrentHashMap<>();
+
+    // Id of the clustering column of range bounds, it sorts before every key
+    static final int RANGE_BOUND = -1;
+
+    // Clustering orders, the clustering column is compared as a string through the dictionary
+    private final Comparator<CompactReview> userReviewsOrder =
+            Comparator.<CompactReview>comparingLong(review -> review.unixReviewTime).reversed()
+                    .thenComparing(review -> clusteringKey(review.asinId));
+    private final Comparator<CompactReview> itemReviewsOrder =
+            Comparator.<CompactReview>comparingLong(review -> review.unixReviewTime).reversed()
+                    .thenComparing(review -> clusteringKey(review.reviewerId));
+
+    // user_reviews: reviewerID id -> reviews sorted by (unixReviewTime DESC, asin ASC)
+    private final ConcurrentHashMap<Integer, ConcurrentSkipListMap<CompactReview, CompactReview>> userReviews =
+            new ConcurrentHashMap<>();
+
+    // item_reviews: asin id -> reviews sorted by (unixReviewTime DESC, reviewerID ASC)
+    private final ConcurrentHashMap<Integer, ConcurrentSkipListMap<CompactReview, CompactReview>> itemReviews =
+            new ConcurrentHashMap<>();
+
+    // Rating indexes: (id, rating) bucket -> rated reviews in the clustering order of the table
+    private final ConcurrentHashMap<Long, ConcurrentSkipListMap<CompactReview, CompactReview>> userReviewsByRating =
+            new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, ConcurrentSkipListMap<CompactReview, CompactReview>> itemReviewsByRating =
+            new ConcurrentHashMap<>();
+
+    // Review summaries: reviewerID or asin id -> aggregate of the partition
+    private final ConcurrentHashMap<Integer, ReviewStats> userReviewStats = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, ReviewStats> itemReviewStats = new ConcurrentHashMap<>();
+
+    @Override
+    protected void putItem(ItemRecord item) {
+        items.put(item.getAsin(), new CompactItem(item, descriptions));
+    }
+
+    @Override
+    protected void putReview(ReviewRecord review) {
+        // Both views share the same record, a review with the same primary key replaces the previous one
+        CompactReview compact = new CompactReview(review, ids, reviewTexts);
+        CompactReview previous = userReviews.computeIfAbsent(compact.reviewerId,
+                key -> new ConcurrentSkipListMap<>(userReviewsOrder)).put(compact, compact);
+        itemReviews.computeIfAbsent(compact.asinId,
+                key -> new ConcurrentSkipListMap<>(itemReviewsOrder)).put(compact, compact);
+
+        // A replaced review leaves the bucket of its old rating
+        if (previous != null && (int) previous.overall != (int) compact.overall) {
+            index(userReviewsByRating, previous.reviewerId, previous, userReviewsOrder, false);
+            index(itemReviewsByRating, previous.asinId, previous, itemReviewsOrder, false);
+        }
+        index(userReviewsByRating, compact.reviewerId, compact, userReviewsOrder, true);
+        index(itemReviewsByRating, compact.asinId, compact, itemReviewsOrder, true);
+
+        // Only the thread whose put found no previous review counts it
+        ReviewStats userStats = userReviewStats.computeIfAbsent(compact.reviewerId, key -> new ReviewStats());
+        ReviewStats itemStats = itemReviewStats.computeIfAbsent(compact.asinId, key -> new ReviewStats());
+        if (previous == null) {
+            userStats.add(compact.overall, compact.unixReviewTime);
+            itemStats.add(compact.overall, compact.unixReviewTime);
+        } else {
+            userStats.replace(previous.overall, compact.overall);
+            itemStats.replace(previous.overall, compact.overall);
+        }
+    }
+
+    private static void index(Map<Long, ConcurrentSkipListMap<CompactReview, CompactReview>> table, int id,
+                              CompactReview review, Comparator<CompactReview> order, boolean add) {
+        int rating = (int) review.overall;
+        if (!ReviewStats.isRating(rating)) {
+            return;
+        }
+        if (add) {
+            table.computeIfAbsent(bucket(id, rating), key -> new ConcurrentSkipListMap<>(order)).put(review, review);
+        } else {
+            ConcurrentSkipListMap<CompactReview, CompactReview> reviews = table.get(bucket(id, rating));
+            if (reviews != null) {
+                reviews.remove(review);
+            }
+        }
+    }
+
+    private static long bucket(int id, int rating) {
+        return ((long) id << 3) | rating;
+    }
+
+    private String clusteringKey(int id) {
+        return id == RANGE_BOUND ? "" : ids.key(id);
+    }
+
+    @Override
+    protected ItemRecord getItem(String asin) {
+        CompactItem item = items.get(asin);
+        return item == null ? null : item.toRecord(descriptions);
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getUserReviews(String reviewerID) {
+        return partition(userReviews, ids.find(reviewerID));
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getItemReviews(String asin) {
+        return partition(itemReviews, ids.find(asin));
+    }
+
+    @Override
+    protected ReviewStats getUserReviewStats(String reviewerID) {
+        int id = ids.find(reviewerID);
+        return id < 0 ? null : userReviewStats.get(id);
+    }
+
+    @Override
+    protected ReviewStats getItemReviewStats(String asin) {
+        int id = ids.find(asin);
+        return id < 0 ? null : itemReviewStats.get(id);
+    }
+
+    @Override
+    protected int countUserReviews(String reviewerID) {
+        return count(userReviews, ids.find(reviewerID));
+    }
+
+    @Override
+    protected int countItemReviews(String asin) {
+        return count(itemReviews, ids.find(asin));
+    }
+
+    private static int count(Map<Integer, ConcurrentSkipListMap<CompactReview, CompactReview>> table, int id) {
+        ConcurrentSkipListMap<CompactReview, CompactReview> reviews = id < 0 ? null : table.get(id);
+        return reviews == null ? 0 : reviews.size();
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getUserReviews(String reviewerID, int rating, long fromTime, long toTime) {
+        return range(userReviewsByRating, ids.find(reviewerID), rating, fromTime, toTime);
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getItemReviews(String asin, int rating, long fromTime, long toTime) {
+        return range(itemReviewsByRating, ids.find(asin), rating, fromTime, toTime);
+    }
+
+    /**
+     * @return The reviews of the partition, translated back to strings while iterating
+     */
+    private Iterable<ReviewRecord> partition(Map<Integer, ConcurrentSkipListMap<CompactReview, CompactReview>> table, int id) {
+        ConcurrentSkipListMap<CompactReview, CompactReview> reviews = id < 0 ? null : table.get(id);
+        return reviews == null ? Collections.emptyList() : records(reviews);
+    }
+
+    /**
+     * @return The reviews of a rating bucket written between fromTime and toTime, newest first
+     */
+    private Iterable<ReviewRecord> range(Map<Long, ConcurrentSkipListMap<CompactReview, CompactReview>> table, int id,
+                                         int rating, long fromTime, long toTime) {
+        ConcurrentSkipListMap<CompactReview, CompactReview> reviews = id < 0 ? null : table.get(bucket(id, rating));
+        if (reviews == null || fromTime > toTime) {
+            return Collections.emptyList();
+        }
+        // From the first review at toTime to the last review at fromTime, bounds sort before the reviews of their time
+        NavigableMap<CompactReview, CompactReview> range = reviews.tailMap(new CompactReview(toTime), true);
+        if (fromTime != Long.MIN_VALUE) {
+            range = range.headMap(new CompactReview(fromTime - 1), false);
+        }
+        return records(range);
+    }
+
+    /**
+     * @return The reviews, translated back to strings when iterated; a review text is only inflated when the review
+     * is formatted, through a reader that keeps the blocks the scan inflated
+     */
+    private Iterable<ReviewRecord> records(NavigableMap<CompactReview, CompactReview> reviews) {
+        return () -> {
+            CompressedTextStore.Reader texts = reviewTexts.reader();
+            return reviews.values().stream().map(review -> review.toRecord(ids, texts)).iterator();
+        };
+    }
+
+    /**
+     * Exports the items into a read-only snapshot file (see SnapshotWriter)
+     */
+    public void writeItemsSnapshot(Path path) throws IOException {
+        List<ItemRecord> records = new ArrayList<>(items.size());
+        for (CompactItem item : items.values()) {
+            records.add(item.toRecord(descriptions));
+        }
+        SnapshotWriter.writeItems(path, records);
+    }
+
+    /**
+     * Exports user_reviews and item_reviews into a read-only snapshot file (see SnapshotWriter)
+     */
+    public void writeReviewsSnapshot(Path path) throws IOException {
+        // Every review is in exactly one user_reviews partition
+        List<ReviewRecord> reviews = new ArrayList<>();
+        for (ConcurrentSkipListMap<CompactReview, CompactReview> partition : userReviews.values()) {
+            for (ReviewRecord review : records(partition)) {
+                reviews.add(review);
+            }
+        }
+        SnapshotWriter.writeReviews(path, reviews);
+    }
+
+    @Override
+    public void close() {
+        items.clear();
+        userReviews.clear();
+        itemReviews.clear();
+        userReviewsByRating.clear();
+        itemReviewsByRating.clear();
+        userReviewStats.clear();
+        itemReviewStats.clear();
+        super.close();
+    }
+}
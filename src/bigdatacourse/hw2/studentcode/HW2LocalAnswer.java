@@ -0,0 +1,487 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.StreamSupport;
+
+import org.json.JSONObject;
+import org.json.UTF8Tokener;
+
+import bigdatacourse.hw2.HW2API;
+import bigdatacourse.hw2.studentcode.search.InvertedIndex;
+
+/**
+ * Base class of the HW2API backends that keep the three tables in the local process instead of Cassandra.
+ * It handles parsing, loading and formatting, so every local backend prints exactly the same text as
+ * HW2StudentAnswer; subclasses only provide the storage of items and reviews.
+ */
+public abstract class HW2LocalAnswer implements HW2API {
+
+    private static final String IDS_FILE = "ids.dict";
+
+    // Time after which a search ranks what it has scored so far
+    private static final long SEARCH_TIME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    // Dictionary of the reviewerID and asin strings, for the backends that store ids instead of strings
+    protected final IdDictionary ids = new IdDictionary();
+
+    // Where the dictionary is saved (folder/keyspace/ids.dict), null when connect got no data folder
+    private Path idsPath;
+
+    // Full-text index of the summaries and texts of the reviews, built while loading;
+    // the durable backends save it or rebuild it from their storage when they connect
+    private volatile InvertedIndex<ReviewKey> reviewIndex = new InvertedIndex<>();
+
+    // Category browse index of the items, built while loading;
+    // the durable backends save it or rebuild it from their storage when they connect
+    private volatile CategoryIndex categoryIndex = new CategoryIndex();
+
+    /**
+     * Stores (or replaces) an item
+     */
+    protected abstract void putItem(ItemRecord item);
+
+    /**
+     * Stores (or replaces) a review in both the by-reviewer and the by-item views
+     */
+    protected abstract void putReview(ReviewRecord review);
+
+    /**
+     * @return The item or null if it does not exist
+     */
+    protected abstract ItemRecord getItem(String asin);
+
+    /**
+     * @return The reviewer's reviews in user_reviews clustering order (unixReviewTime DESC, asin ASC)
+     */
+    protected abstract Iterable<ReviewRecord> getUserReviews(String reviewerID);
+
+    /**
+     * @return The item's reviews in item_reviews clustering order (unixReviewTime DESC, reviewerID ASC)
+     */
+    protected abstract Iterable<ReviewRecord> getItemReviews(String asin);
+
+    /**
+     * @return The reviewer's reviews with the rating written between fromTime and toTime (inclusive), in user_reviews
+     * clustering order. Filters the whole partition; the in-memory, LSM and snapshot backends override it with a rating
+     * index, the off-heap backend has none
+     */
+    protected Iterable<ReviewRecord> getUserReviews(String reviewerID, int rating, long fromTime, long toTime) {
+        return filter(getUserReviews(reviewerID), rating, fromTime, toTime);
+    }
+
+    /**
+     * @return The item's reviews with the rating written between fromTime and toTime (inclusive), in item_reviews
+     * clustering order. Filters the whole partition; the in-memory, LSM and snapshot backends override it with a rating
+     * index, the off-heap backend has none
+     */
+    protected Iterable<ReviewRecord> getItemReviews(String asin, int rating, long fromTime, long toTime) {
+        return filter(getItemReviews(asin), rating, fromTime, toTime);
+    }
+
+    /**
+     * @return The number of reviews of the reviewer. Counts the partition, backends that can count it without
+     * decoding the reviews override it
+     */
+    protected int countUserReviews(String reviewerID) {
+        return count(getUserReviews(reviewerID));
+    }
+
+    /**
+     * @return The number of reviews of the item. Counts the partition, backends that can count it without
+     * decoding the reviews override it
+     */
+    protected int countItemReviews(String asin) {
+        return count(getItemReviews(asin));
+    }
+
+    private static int count(Iterable<ReviewRecord> reviews) {
+        int count = 0;
+        for (Iterator<ReviewRecord> iterator = reviews.iterator(); iterator.hasNext(); iterator.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    private static Iterable<ReviewRecord> filter(Iterable<ReviewRecord> reviews, int rating, long fromTime, long toTime) {
+        return () -> StreamSupport.stream(reviews.spliterator(), false)
+                .filter(review -> (int) review.getOverall() == rating
+                        && review.getUnixReviewTime() >= fromTime && review.getUnixReviewTime() <= toTime)
+                .iterator();
+    }
+
+    /**
+     * Local backends have nothing to connect to unless they override this, the data folder only keeps
+     * the dictionary so ids stay the same from one run to the next
+     */
+    @Override
+    public void connect(String pathDataFolder, String username, String password, String keyspace) {
+        System.out.println("Using local storage: " + getClass().getSimpleName());
+        if (pathDataFolder == null) {
+            return;
+        }
+
+        this.idsPath = Paths.get(pathDataFolder, keyspace, IDS_FILE);
+        if (Files.exists(idsPath) && ids.size() == 0) {
+            try {
+                ids.load(idsPath);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            System.out.println("Loaded ids: " + ids.size());
+        }
+    }
+
+    @Override
+    public void close() {
+        System.out.println("Closing local storage... Done");
+    }
+
+    /**
+     * Local tables are created on first use
+     */
+    @Override
+    public void createTables() {
+        System.out.println("created tables: items, user_reviews, item_reviews");
+    }
+
+    /**
+     * There are no statements to prepare locally
+     */
+    @Override
+    public void initialize() {
+        System.out.println("All function are initialized");
+    }
+
+    /**
+     * Loads items from JSON file using a thread pool sized to the available processors
+     */
+    @Override
+    public void loadItems(String pathItemsFile) throws Exception {
+        // related and salesRank are never read, so values are only parsed when asked for
+        int totalLines = loadLines(pathItemsFile, true, json -> {
+            ItemRecord item = ItemRecord.fromJSON(json);
+            putItem(item);
+            categoryIndex.add(item.getAsin(), item.getCategories());
+        });
+        System.out.println("Total lines inserted: " + totalLines);
+    }
+
+    /**
+     * Loads reviews from JSON file using a thread pool sized to the available processors
+     */
+    @Override
+    public void loadReviews(String pathReviewsFile) throws Exception {
+        int totalLines = loadLines(pathReviewsFile, false, json -> {
+            ReviewRecord review = ReviewRecord.fromJSON(json);
+            putReview(review);
+            // The key shares the dictionary's strings, the index does not keep a copy of them
+            reviewIndex.add(new ReviewKey(ids.key(ids.id(review.getReviewerID())), review.getUnixReviewTime(),
+                    ids.key(ids.id(review.getAsin()))), review.getSummary(), review.getReviewText());
+        });
+        System.out.println("Total lines inserted: " + totalLines);
+
+        if (idsPath != null && ids.size() > 0) {
+            ids.save(idsPath);
+        }
+    }
+
+    /**
+     * Replaces the review search index with one over the stored reviews, for the backends whose storage outlives the process
+     * @return The number of reviews indexed
+     */
+    protected int rebuildReviewIndex(Iterable<ReviewRecord> reviews) {
+        InvertedIndex<ReviewKey> rebuilt = new InvertedIndex<>();
+        for (ReviewRecord review : reviews) {
+            rebuilt.add(new ReviewKey(ids.key(ids.id(review.getReviewerID())), review.getUnixReviewTime(),
+                    ids.key(ids.id(review.getAsin()))), review.getSummary(), review.getReviewText());
+        }
+        this.reviewIndex = rebuilt;
+        return rebuilt.size();
+    }
+
+    /**
+     * Writes the review search index into a file, read back with loadReviewIndex
+     */
+    protected void saveReviewIndex(Path path) throws IOException {
+        reviewIndex.save(path, ReviewKey::write);
+    }
+
+    /**
+     * Replaces the review search index with one saved by saveReviewIndex
+     * @return The number of reviews indexed
+     */
+    protected int loadReviewIndex(Path path) throws IOException {
+        this.reviewIndex = InvertedIndex.load(path, ReviewKey::read);
+        return reviewIndex.size();
+    }
+
+    /**
+     * Takes over the review search index of another backend that loaded the same reviews
+     */
+    protected void adoptReviewIndex(HW2LocalAnswer loaded) {
+        this.reviewIndex = loaded.reviewIndex;
+    }
+
+    /**
+     * Replaces the category index with one over the stored items, for the backends whose storage outlives the process
+     * @return The number of items indexed
+     */
+    protected int rebuildCategoryIndex(Iterable<ItemRecord> items) {
+        CategoryIndex rebuilt = new CategoryIndex();
+        int indexed = 0;
+        for (ItemRecord item : items) {
+            rebuilt.add(item.getAsin(), item.getCategories());
+            indexed++;
+        }
+        this.categoryIndex = rebuilt;
+        return indexed;
+    }
+
+    /**
+     * Writes the category index into a file, read back with loadCategoryIndex
+     */
+    protected void saveCategoryIndex(Path path) throws IOException {
+        categoryIndex.save(path);
+    }
+
+    /**
+     * Replaces the category index with one saved by saveCategoryIndex
+     */
+    protected void loadCategoryIndex(Path path) throws IOException {
+        this.categoryIndex = CategoryIndex.load(path);
+    }
+
+    /**
+     * Takes over the category index of another backend that loaded the same items
+     */
+    protected void adoptCategoryIndex(HW2LocalAnswer loaded) {
+        this.categoryIndex = loaded.categoryIndex;
+    }
+
+    /**
+     * Hands every line of the file, parsed, to the loader on a pool of worker threads
+     * Loading is CPU bound here, so there is no point in more threads than processors
+     * Lines are parsed from their UTF-8 bytes, only the strings in them are decoded
+     * @param lazy Whether to leave the values of a line unparsed until the loader asks for them
+     * @return The number of lines read
+     */
+    protected int loadLines(String path, boolean lazy, Consumer<JSONObject> loader) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+        int totalLines = 0;
+
+        try (LineSplitter lines = new LineSplitter(path)) {
+            byte[] line;
+
+            while ((line = lines.next()) != null) {
+                final byte[] jsonLine = line;
+                executor.execute(() -> {
+                    try {
+                        loader.accept(new JSONObject(new UTF8Tokener(jsonLine), lazy));
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                });
+                totalLines++;
+            }
+        }
+
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+
+        return totalLines;
+    }
+
+    @Override
+    public String item(String asin) {
+        StringBuilder itemDesc = new StringBuilder();
+        try {
+            item(asin, itemDesc);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return itemDesc.toString();
+    }
+
+    @Override
+    public Iterable<String> userReviews(String reviewerID) {
+        ArrayList<String> reviewRepers = new ArrayList<>();
+        for (ReviewRecord review : getUserReviews(reviewerID)) {
+            reviewRepers.add(formatReview(review, review.getUserReviewsRating()));
+        }
+        System.out.println("total reviews: " + reviewRepers.size());
+        return reviewRepers;
+    }
+
+    @Override
+    public Iterable<String> itemReviews(String asin) {
+        ArrayList<String> reviewRepers = new ArrayList<>();
+        for (ReviewRecord review : getItemReviews(asin)) {
+            reviewRepers.add(formatReview(review, review.getItemReviewsRating()));
+        }
+        System.out.println("total reviews: " + reviewRepers.size());
+        return reviewRepers;
+    }
+
+    @Override
+    public Iterable<String> userReviews(String reviewerID, int rating, long fromTime, long toTime) {
+        ReviewStats.checkRating(rating);
+        ArrayList<String> reviewRepers = new ArrayList<>();
+        for (ReviewRecord review : getUserReviews(reviewerID, rating, fromTime, toTime)) {
+            reviewRepers.add(formatReview(review, review.getUserReviewsRating()));
+        }
+        System.out.println("total reviews: " + reviewRepers.size());
+        return reviewRepers;
+    }
+
+    @Override
+    public Iterable<String> itemReviews(String asin, int rating, long fromTime, long toTime) {
+        ReviewStats.checkRating(rating);
+        ArrayList<String> reviewRepers = new ArrayList<>();
+        for (ReviewRecord review : getItemReviews(asin, rating, fromTime, toTime)) {
+            reviewRepers.add(formatReview(review, review.getItemReviewsRating()));
+        }
+        System.out.println("total reviews: " + reviewRepers.size());
+        return reviewRepers;
+    }
+
+    @Override
+    public void item(String asin, Appendable out) throws IOException {
+        ItemRecord item = getItem(asin);
+        if (item != null) {
+            HW2StudentAnswer.formatItem(out, item.getAsin(), item.getTitle(), item.getImage(),
+                    item.getCategories(), item.getDescription());
+        } else {
+            out.append("not exists").append("\n");
+        }
+    }
+
+    @Override
+    public void userReviews(String reviewerID, Appendable out) throws IOException {
+        // The total is printed ahead of the rows, it is counted first so the rows can be streamed
+        out.append("total reviews: ").append(Integer.toString(countUserReviews(reviewerID))).append(System.lineSeparator());
+        for (ReviewRecord review : getUserReviews(reviewerID)) {
+            writeReview(out, review, review.getUserReviewsRating());
+        }
+    }
+
+    @Override
+    public void itemReviews(String asin, Appendable out) throws IOException {
+        // The total is printed ahead of the rows, it is counted first so the rows can be streamed
+        out.append("total reviews: ").append(Integer.toString(countItemReviews(asin))).append(System.lineSeparator());
+        for (ReviewRecord review : getItemReviews(asin)) {
+            writeReview(out, review, review.getItemReviewsRating());
+        }
+    }
+
+    /**
+     * Searches the stored reviews, every hit is read back from its user_reviews partition
+     */
+    @Override
+    public Iterable<String> searchReviews(String query, int limit) {
+        ArrayList<String> reviewRepers = new ArrayList<>();
+        for (InvertedIndex.Hit<ReviewKey> hit : reviewIndex.search(query, limit, SEARCH_TIME_BUDGET_NANOS)) {
+            ReviewRecord review = findReview(hit.getDoc());
+            if (review != null) {
+                reviewRepers.add(formatReview(review, review.getUserReviewsRating()));
+            }
+        }
+        System.out.println("total reviews: " + reviewRepers.size());
+        return reviewRepers;
+    }
+
+    private ReviewRecord findReview(ReviewKey key) {
+        for (ReviewRecord review : getUserReviews(key.getReviewerID())) {
+            // Newest first, past the review's time it is not there
+            if (review.getUnixReviewTime() < key.getUnixReviewTime()) {
+                break;
+            }
+            if (review.getUnixReviewTime() == key.getUnixReviewTime() && review.getAsin().equals(key.getAsin())) {
+                return review;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<String> categoryItems(String category, String afterAsin, int pageSize) {
+        return categoryIndex.page(category, afterAsin, pageSize);
+    }
+
+    @Override
+    public Map<String, Integer> categoryCounts() {
+        return categoryIndex.counts();
+    }
+
+    @Override
+    public String itemReviewStats(String asin) {
+        return reviewStats("asin", asin, getItemReviewStats(asin));
+    }
+
+    @Override
+    public String userReviewStats(String reviewerID) {
+        return reviewStats("reviewerID", reviewerID, getUserReviewStats(reviewerID));
+    }
+
+    /**
+     * @return The summary of the item's reviews, null or empty if it has none. Aggregates the partition,
+     * backends that keep the summaries up to date while loading override it
+     */
+    protected ReviewStats getItemReviewStats(String asin) {
+        return aggregate(getItemReviews(asin));
+    }
+
+    /**
+     * @return The summary of the reviewer's reviews, null or empty if there are none. Aggregates the partition,
+     * backends that keep the summaries up to date while loading override it
+     */
+    protected ReviewStats getUserReviewStats(String reviewerID) {
+        return aggregate(getUserReviews(reviewerID));
+    }
+
+    private static ReviewStats aggregate(Iterable<ReviewRecord> reviews) {
+        ReviewStats stats = new ReviewStats();
+        for (ReviewRecord review : reviews) {
+            stats.add(review.getOverall(), review.getUnixReviewTime());
+        }
+        return stats;
+    }
+
+    private static String reviewStats(String keyName, String key, ReviewStats stats) {
+        return stats == null || stats.getReviews() == 0 ? "not exists" + "\n" : stats.format(keyName, key);
+    }
+
+    protected static String formatReview(ReviewRecord review, int rating) {
+        StringBuilder reviewDesc = new StringBuilder();
+        try {
+            writeReview(reviewDesc, review, rating);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return reviewDesc.toString();
+    }
+
+    protected static void writeReview(Appendable out, ReviewRecord review, int rating) throws IOException {
+        HW2StudentAnswer.formatReview(out,
+                Instant.ofEpochSecond(review.getUnixReviewTime()),
+                review.getAsin(),
+                review.getReviewerID(),
+                review.getReviewerName(),
+                rating,
+                review.getSummary(),
+                review.getReviewText());
+    }
+}
@@ -0,0 +1,478 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.StreamSupport;
+
+import bigdatacourse.hw2.studentcode.lsm.CommitPolicy;
+import bigdatacourse.hw2.studentcode.lsm.LsmStore;
+
+/**
+ * HW2API backend that keeps the tables in log-structured stores on the local disk,
+ * one directory per table under the data folder passed to connect (folder/keyspace/table).
+ * Reviews refer to reviewerID and asin by their dictionary ids, in the keys as well as in the values:
+ * - items:                  asin 0x00
+ * - user_reviews:           reviewerID id 0x00, unixReviewTime (descending), asin id
+ * - item_reviews:           asin id 0x00, unixReviewTime (descending), reviewerID id
+ * - user_reviews_by_rating: reviewerID id 0x00, rating, unixReviewTime (descending), asin id
+ * - item_reviews_by_rating: asin id 0x00, rating, unixReviewTime (descending), reviewerID id
+ * so a review partition is a prefix scan and a query filtered on rating and time a range scan, both in time order;
+ * reviews of the same second are put back in clustering order (by the strings, not the ids) when they are read.
+ * A rated review that is written again with another rating leaves an empty value under its old rating.
+ * Both review stores also keep the dictionary itself, as 0x00 id -> string entries written before the id is
+ * handed out, so every record in a log is preceded by the ids it uses and the dictionary is rebuilt when the stores open.
+ * They also keep the review summary of every partition of the store, as 0x01 id -> ReviewStats entries: the reviews of a
+ * load are aggregated in memory (a review already stored only changes its rating) and merged into the stored summaries
+ * once the load is done.
+ * The write-ahead logs of the stores are forced to disk according to the CommitPolicy.
+ * The review search index and the category index are saved into the keyspace folder at the end of every load and
+ * read back when the stores open. A load first deletes the file of its index, so after a load that did not finish
+ * the index is rebuilt from user_reviews or items instead.
+ */
+public class HW2LsmAnswer extends HW2LocalAnswer {
+
+    // Partition of the dictionary entries in the review stores, sorts ahead of every review partition
+    private static final byte ID_PARTITION = 0;
+
+    // Partition of the review summaries in the review stores, after the dictionary and ahead of the reviews
+    private static final byte STATS_PARTITION = 1;
+
+    // Locks of the reviews being stored, by hash of the primary key, so a review is read and replaced by one thread at a time
+    private static final int REVIEW_LOCKS = 64;
+
+    // Value left in a rating index under the old rating of a review that changed rating
+    private static final byte[] SUPERSEDED = new byte[0];
+
+    // Bytes of an id in a partition key, 7 bits each
+    private static final int ID_KEY_BYTES = 5;
+
+    private static final String ITEMS_CATEGORIES = "items.categories";
+    private static final String REVIEWS_SEARCH = "reviews.search";
+
+    private final long memtableBytes;
+    private final CommitPolicy commitPolicy;
+
+    private Path keyspaceFolder;
+    private LsmStore items;
+    private LsmStore userReviews;
+    private LsmStore itemReviews;
+    private LsmStore userReviewsByRating;
+    private LsmStore itemReviewsByRating;
+
+    // Summaries of the reviews of the current load, by reviewerID or asin id
+    private final ConcurrentHashMap<Integer, ReviewStats> userStatsDeltas = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, ReviewStats> itemStatsDeltas = new ConcurrentHashMap<>();
+    private final Object[] reviewLocks = new Object[REVIEW_LOCKS];
+
+    public HW2LsmAnswer() {
+        this(LsmStore.DEFAULT_MEMTABLE_BYTES);
+    }
+
+    public HW2LsmAnswer(long memtableBytes) {
+        this(memtableBytes, CommitPolicy.DEFAULT);
+    }
+
+    public HW2LsmAnswer(long memtableBytes, CommitPolicy commitPolicy) {
+        this.memtableBytes = memtableBytes;
+        this.commitPolicy = commitPolicy;
+        for (int i = 0; i < reviewLocks.length; i++) {
+            reviewLocks[i] = new Object();
+        }
+        ids.setAssignListener(this::putId);
+    }
+
+    /**
+     * Opens the stores of the keyspace under the data folder
+     */
+    @Override
+    public void connect(String pathDataFolder, String username, String password, String keyspace) {
+        if (items != null) {
+            System.out.println("ERROR - local storage is already open");
+            return;
+        }
+
+        System.out.println("Opening local storage...");
+        Path keyspaceFolder = Paths.get(pathDataFolder, keyspace);
+        this.keyspaceFolder = keyspaceFolder;
+        try {
+            this.items = LsmStore.open(keyspaceFolder.resolve("items"), memtableBytes, commitPolicy);
+            this.userReviews = LsmStore.open(keyspaceFolder.resolve("user_reviews"), memtableBytes, commitPolicy);
+            this.itemReviews = LsmStore.open(keyspaceFolder.resolve("item_reviews"), memtableBytes, commitPolicy);
+            this.userReviewsByRating = LsmStore.open(keyspaceFolder.resolve("user_reviews_by_rating"), memtableBytes, commitPolicy);
+            this.itemReviewsByRating = LsmStore.open(keyspaceFolder.resolve("item_reviews_by_rating"), memtableBytes, commitPolicy);
+            restoreIds(userReviews);
+            restoreIds(itemReviews);
+            if (Files.exists(keyspaceFolder.resolve(REVIEWS_SEARCH))) {
+                System.out.println("Indexed reviews: " + loadReviewIndex(keyspaceFolder.resolve(REVIEWS_SEARCH)));
+            } else {
+                System.out.println("Indexed reviews: " + rebuildReviewIndex(allReviews()));
+            }
+            if (Files.exists(keyspaceFolder.resolve(ITEMS_CATEGORIES))) {
+                loadCategoryIndex(keyspaceFolder.resolve(ITEMS_CATEGORIES));
+            } else {
+                System.out.println("Indexed items: " + rebuildCategoryIndex(allItems()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("Opening local storage... Done");
+    }
+
+    /**
+     * Flushes and closes the stores
+     */
+    @Override
+    public void close() {
+        if (items == null) {
+            System.out.println("Local storage is already closed");
+            return;
+        }
+
+        System.out.println("Closing local storage...");
+        try {
+            items.close();
+            userReviews.close();
+            itemReviews.close();
+            userReviewsByRating.close();
+            itemReviewsByRating.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        items = userReviews = itemReviews = userReviewsByRating = itemReviewsByRating = null;
+        keyspaceFolder = null;
+        System.out.println("Closing local storage... Done");
+    }
+
+    /**
+     * Loads the items and forces the logs, so the items are on disk once the load reports done, then saves the category index
+     */
+    @Override
+    public void loadItems(String pathItemsFile) throws Exception {
+        Files.deleteIfExists(keyspaceFolder.resolve(ITEMS_CATEGORIES));
+        super.loadItems(pathItemsFile);
+        sync();
+        saveCategoryIndex(keyspaceFolder.resolve(ITEMS_CATEGORIES));
+    }
+
+    /**
+     * Loads the reviews, merges their summaries into the stored ones and forces the logs,
+     * so the reviews are on disk once the load reports done, then saves the search index
+     */
+    @Override
+    public void loadReviews(String pathReviewsFile) throws Exception {
+        Files.deleteIfExists(keyspaceFolder.resolve(REVIEWS_SEARCH));
+        super.loadReviews(pathReviewsFile);
+        mergeReviewStats(userReviews, userStatsDeltas);
+        mergeReviewStats(itemReviews, itemStatsDeltas);
+        sync();
+        saveReviewIndex(keyspaceFolder.resolve(REVIEWS_SEARCH));
+    }
+
+    /**
+     * Adds the summaries of the load to the stored summaries of their partitions
+     */
+    private static void mergeReviewStats(LsmStore store, Map<Integer, ReviewStats> deltas) throws IOException {
+        for (Map.Entry<Integer, ReviewStats> delta : deltas.entrySet()) {
+            byte[] key = statsKey(delta.getKey());
+            byte[] stored = store.get(key);
+            ReviewStats stats = stored == null ? delta.getValue() : ReviewStats.decode(ByteBuffer.wrap(stored)).merge(delta.getValue());
+            store.put(key, stats.encode());
+        }
+        deltas.clear();
+    }
+
+    private void sync() throws IOException {
+        items.sync();
+        userReviews.sync();
+        itemReviews.sync();
+        userReviewsByRating.sync();
+        itemReviewsByRating.sync();
+    }
+
+    @Override
+    protected void putItem(ItemRecord item) {
+        try {
+            items.put(partitionKey(item.getAsin()), RecordCodec.encodeItem(item));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected void putReview(ReviewRecord review) {
+        byte[] encoded = RecordCodec.encodeReview(review, ids);
+        int reviewerId = RecordCodec.encodedReviewerId(encoded);
+        int asinId = RecordCodec.encodedAsinId(encoded);
+        long time = review.getUnixReviewTime();
+        byte[] userKey = clusteringKey(reviewerId, time, asinId);
+        byte[] previous;
+        try {
+            synchronized (reviewLocks[Math.floorMod(Arrays.hashCode(userKey), REVIEW_LOCKS)]) {
+                previous = userReviews.get(userKey);
+                userReviews.put(userKey, encoded);
+                itemReviews.put(clusteringKey(asinId, time, reviewerId), encoded);
+
+                // The rating is part of the index keys, a review that changes rating leaves its old bucket
+                int rating = (int) review.getOverall();
+                int previousRating = previous == null ? rating : (int) RecordCodec.encodedOverall(previous);
+                if (previousRating != rating && ReviewStats.isRating(previousRating)) {
+                    userReviewsByRating.put(ratingKey(reviewerId, previousRating, time, asinId), SUPERSEDED);
+                    itemReviewsByRating.put(ratingKey(asinId, previousRating, time, reviewerId), SUPERSEDED);
+                }
+                if (ReviewStats.isRating(rating)) {
+                    userReviewsByRating.put(ratingKey(reviewerId, rating, time, asinId), encoded);
+                    itemReviewsByRating.put(ratingKey(asinId, rating, time, reviewerId), encoded);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        ReviewStats userStats = userStatsDeltas.computeIfAbsent(reviewerId, key -> new ReviewStats());
+        ReviewStats itemStats = itemStatsDeltas.computeIfAbsent(asinId, key -> new ReviewStats());
+        if (previous == null) {
+            userStats.add(review.getOverall(), review.getUnixReviewTime());
+            itemStats.add(review.getOverall(), review.getUnixReviewTime());
+        } else {
+            userStats.replace(RecordCodec.encodedOverall(previous), review.getOverall());
+            itemStats.replace(RecordCodec.encodedOverall(previous), review.getOverall());
+        }
+    }
+
+    /**
+     * Persists a new dictionary id in both review stores, called by the dictionary before it hands the id out
+     */
+    private void putId(String key, int id) {
+        byte[] idKey = ByteBuffer.allocate(1 + Integer.BYTES).put(ID_PARTITION).putInt(id).array();
+        byte[] value = key.getBytes(StandardCharsets.UTF_8);
+        try {
+            userReviews.put(idKey, value);
+            itemReviews.put(idKey, value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Reads back the dictionary entries of a review store
+     */
+    private void restoreIds(LsmStore store) {
+        Iterator<Map.Entry<byte[], byte[]>> entries = store.scanPrefix(new byte[] {ID_PARTITION});
+        while (entries.hasNext()) {
+            Map.Entry<byte[], byte[]> entry = entries.next();
+            ids.restore(ByteBuffer.wrap(entry.getKey()).getInt(1), new String(entry.getValue(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Override
+    protected ItemRecord getItem(String asin) {
+        try {
+            byte[] encoded = items.get(partitionKey(asin));
+            return encoded == null ? null : RecordCodec.decodeItem(encoded);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getUserReviews(String reviewerID) {
+        return reviews(userReviews, reviewerID, ReviewRecord.USER_REVIEWS_ORDER);
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getItemReviews(String asin) {
+        return reviews(itemReviews, asin, ReviewRecord.ITEM_REVIEWS_ORDER);
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getUserReviews(String reviewerID, int rating, long fromTime, long toTime) {
+        return reviews(userReviewsByRating, reviewerID, rating, fromTime, toTime, ReviewRecord.USER_REVIEWS_ORDER);
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getItemReviews(String asin, int rating, long fromTime, long toTime) {
+        return reviews(itemReviewsByRating, asin, rating, fromTime, toTime, ReviewRecord.ITEM_REVIEWS_ORDER);
+    }
+
+    @Override
+    protected ReviewStats getUserReviewStats(String reviewerID) {
+        return reviewStats(userReviews, reviewerID);
+    }
+
+    @Override
+    protected ReviewStats getItemReviewStats(String asin) {
+        return reviewStats(itemReviews, asin);
+    }
+
+    /**
+     * @return The stored summary of the partition, null if it has none
+     */
+    private ReviewStats reviewStats(LsmStore store, String partition) {
+        int id = ids.find(partition);
+        if (id < 0) {
+            return null;
+        }
+        try {
+            byte[] encoded = store.get(statsKey(id));
+            return encoded == null ? null : ReviewStats.decode(ByteBuffer.wrap(encoded));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected int countUserReviews(String reviewerID) {
+        return count(userReviews, reviewerID);
+    }
+
+    @Override
+    protected int countItemReviews(String asin) {
+        return count(itemReviews, asin);
+    }
+
+    /**
+     * @return The number of entries of the partition, counted without decoding them
+     */
+    private int count(LsmStore store, String partition) {
+        int id = ids.find(partition);
+        if (id < 0) {
+            return 0;
+        }
+        int count = 0;
+        for (Iterator<Map.Entry<byte[], byte[]>> entries = store.scanPrefix(partitionKey(id)); entries.hasNext(); entries.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * @return Every stored item, decoded while iterating, in asin order
+     */
+    private Iterable<ItemRecord> allItems() {
+        return () -> StreamSupport.stream(Spliterators.spliteratorUnknownSize(items.scanAll(), Spliterator.ORDERED), false)
+                .map(entry -> RecordCodec.decodeItem(entry.getValue()))
+                .iterator();
+    }
+
+    /**
+     * @return Every stored review (the entries whose partition key has the top bit set), decoded while iterating,
+     * in user_reviews key order
+     */
+    private Iterable<ReviewRecord> allReviews() {
+        return () -> StreamSupport.stream(Spliterators.spliteratorUnknownSize(userReviews.scanAll(), Spliterator.ORDERED), false)
+                .filter(entry -> (entry.getKey()[0] & 0x80) != 0)
+                .map(entry -> RecordCodec.decodeReview(entry.getValue(), ids))
+                .iterator();
+    }
+
+    /**
+     * @return The decoded reviews of the partition, in clustering order
+     */
+    private List<ReviewRecord> reviews(LsmStore store, String partition, Comparator<ReviewRecord> order) {
+        List<ReviewRecord> reviews = new ArrayList<>();
+        int id = ids.find(partition);
+        if (id < 0) {
+            return reviews;
+        }
+        Iterator<Map.Entry<byte[], byte[]>> entries = store.scanPrefix(partitionKey(id));
+        while (entries.hasNext()) {
+            reviews.add(RecordCodec.decodeReview(entries.next().getValue(), ids));
+        }
+        // Already in time order, the sort only reorders the reviews of the same second
+        reviews.sort(order);
+        return reviews;
+    }
+
+    /**
+     * @return The decoded reviews of a rating bucket written between fromTime and toTime, in clustering order
+     */
+    private List<ReviewRecord> reviews(LsmStore store, String partition, int rating, long fromTime, long toTime,
+                                       Comparator<ReviewRecord> order) {
+        List<ReviewRecord> reviews = new ArrayList<>();
+        int id = ids.find(partition);
+        if (id < 0 || fromTime > toTime) {
+            return reviews;
+        }
+        // Newest first: from the first key at toTime to the last key at fromTime
+        byte[] from = ratingKey(id, rating, toTime, 0);
+        byte[] to = fromTime == Long.MIN_VALUE ? Arrays.copyOf(ratingKey(id, rating + 1, 0, 0), ID_KEY_BYTES + 2)
+                : ratingKey(id, rating, fromTime - 1, 0);
+        Iterator<Map.Entry<byte[], byte[]>> entries = store.scanRange(from, to);
+        while (entries.hasNext()) {
+            byte[] encoded = entries.next().getValue();
+            if (encoded.length > 0) {
+                reviews.add(RecordCodec.decodeReview(encoded, ids));
+            }
+        }
+        reviews.sort(order);
+        return reviews;
+    }
+
+    /**
+     * @return The UTF-8 bytes of the partition key followed by the 0x00 separator
+     */
+    private static byte[] partitionKey(String partition) {
+        if (partition.indexOf('\0') >= 0) {
+            throw new IllegalArgumentException("keys can not contain \\0");
+        }
+        byte[] bytes = partition.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(bytes.length + 1).put(bytes).put((byte) 0).array();
+    }
+
+    /**
+     * @return The key of the summary of a review partition
+     */
+    private static byte[] statsKey(int id) {
+        return ByteBuffer.allocate(1 + Integer.BYTES).put(STATS_PARTITION).putInt(id).array();
+    }
+
+    /**
+     * @return The id in 7 bit groups with the top bit set, so the key has no 0x00 before its separator, then 0x00
+     */
+    private static byte[] partitionKey(int id) {
+        byte[] key = new byte[ID_KEY_BYTES + 1];
+        for (int i = 0; i < ID_KEY_BYTES; i++) {
+            key[i] = (byte) (0x80 | (id >>> (7 * (ID_KEY_BYTES - 1 - i))) & 0x7f);
+        }
+        return key;
+    }
+
+    /**
+     * @return Partition key, then the rating, then the review time inverted so it sorts descending, then the clustering column id
+     */
+    private static byte[] ratingKey(int partition, int rating, long unixReviewTime, int clustering) {
+        byte[] partitionBytes = partitionKey(partition);
+        return ByteBuffer.allocate(partitionBytes.length + 1 + Long.BYTES + Integer.BYTES)
+                .put(partitionBytes)
+                .put((byte) rating)
+                .putLong(~unixReviewTime ^ Long.MIN_VALUE)
+                .putInt(clustering)
+                .array();
+    }
+
+    /**
+     * @return Partition key, then the review time inverted so it sorts descending, then the clustering column id
+     */
+    private static byte[] clusteringKey(int partition, long unixReviewTime, int clustering) {
+        byte[] partitionBytes = partitionKey(partition);
+        return ByteBuffer.allocate(partitionBytes.length + Long.BYTES + Integer.BYTES)
+                .put(partitionBytes)
+                .putLong(~unixReviewTime ^ Long.MIN_VALUE)
+                .putInt(clustering)
+                .array();
+    }
+}
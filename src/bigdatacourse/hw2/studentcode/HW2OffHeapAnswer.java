@@ -0,0 +1,124 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import bigdatacourse.hw2.studentcode.offheap.OffHeapBytes;
+import bigdatacourse.hw2.studentcode.offheap.OffHeapLongArray;
+import bigdatacourse.hw2.studentcode.offheap.OffHeapReviewIndex;
+
+/**
+ * In-process HW2API backend that keeps the reviews outside the Java heap.
+ * Reviews are appended, encoded, to an off-heap data region; loading also stages one tuple of longs per review
+ * (partition hashes, packed clustering pairs, record offset) off-heap, and once the file is loaded the
+ * user_reviews and item_reviews indexes are built from the tuples. The heap only holds the items and the
+ * dictionary of the distinct reviewerID/asin strings, not an object per review: records and index entries
+ * refer to those strings by their dictionary ids.
+ * Review summaries are not kept, they are aggregated from the partition when asked for, and there is no rating index:
+ * queries filtered on rating and time decode the whole partition and filter it.
+ */
+public class HW2OffHeapAnswer extends HW2LocalAnswer {
+
+    // Staged tuple: user hash, item hash, user clustering, item clustering, record offset
+    private static final int TUPLE_LONGS = 5;
+    private static final int USER_HASH = 0;
+    private static final int ITEM_HASH = 1;
+    private static final int USER_CLUSTERING = 2;
+    private static final int ITEM_CLUSTERING = 3;
+    private static final int RECORD = 4;
+
+    private final ConcurrentHashMap<String, ItemRecord> items = new ConcurrentHashMap<>();
+
+    private final OffHeapBytes records = new OffHeapBytes();
+    private final OffHeapLongArray staging = new OffHeapLongArray();
+
+    private volatile OffHeapReviewIndex userIndex;
+    private volatile OffHeapReviewIndex itemIndex;
+
+    /**
+     * Loads the reviews and rebuilds both indexes over everything loaded so far
+     */
+    @Override
+    public void loadReviews(String pathReviewsFile) throws Exception {
+        super.loadReviews(pathReviewsFile);
+
+        System.out.println("Building review indexes...");
+        userIndex = OffHeapReviewIndex.build(staging, TUPLE_LONGS, USER_HASH, USER_CLUSTERING, RECORD);
+        itemIndex = OffHeapReviewIndex.build(staging, TUPLE_LONGS, ITEM_HASH, ITEM_CLUSTERING, RECORD);
+        System.out.println("Building review indexes... Done");
+    }
+
+    @Override
+    protected void putItem(ItemRecord item) {
+        items.put(item.getAsin(), item);
+    }
+
+    @Override
+    protected void putReview(ReviewRecord review) {
+        byte[] encoded = RecordCodec.encodeReview(review, ids);
+        long userHash = OffHeapReviewIndex.hash(review.getReviewerID());
+        long itemHash = OffHeapReviewIndex.hash(review.getAsin());
+        long userClustering = OffHeapReviewIndex.pack(review.getUnixReviewTime(), RecordCodec.encodedAsinId(encoded));
+        long itemClustering = OffHeapReviewIndex.pack(review.getUnixReviewTime(), RecordCodec.encodedReviewerId(encoded));
+
+        synchronized (staging) {
+            long offset = records.append(encoded);
+            staging.append(userHash);
+            staging.append(itemHash);
+            staging.append(userClustering);
+            staging.append(itemClustering);
+            staging.append(offset);
+        }
+    }
+
+    @Override
+    protected ItemRecord getItem(String asin) {
+        return items.get(asin);
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getUserReviews(String reviewerID) {
+        return partition(userIndex, reviewerID, true);
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getItemReviews(String asin) {
+        return partition(itemIndex, asin, false);
+    }
+
+    /**
+     * Decodes a partition. Entries come sorted by (time, key id) with the latest write of a key first;
+     * the ids do not follow the order of the strings, so reviews of the same second are put back in
+     * clustering order here, and older duplicates of a primary key are dropped.
+     */
+    private List<ReviewRecord> partition(OffHeapReviewIndex index, String key, boolean byReviewer) {
+        List<ReviewRecord> reviews = new ArrayList<>();
+        int id = ids.find(key);
+        if (index == null || id < 0) {
+            return reviews;
+        }
+
+        long hash = OffHeapReviewIndex.hash(key);
+        long first = index.first(hash);
+        long last = first + index.count(hash);
+        long previousClustering = 0;
+        for (long entry = first; first >= 0 && entry < last; entry++) {
+            long clustering = index.clustering(entry);
+            if (entry > first && clustering == previousClustering) {
+                continue;
+            }
+            previousClustering = clustering;
+
+            // Skip the reviews of another partition with the same hash, comparing ids before decoding
+            byte[] encoded = records.get(index.record(entry));
+            int partitionId = byReviewer ? RecordCodec.encodedReviewerId(encoded) : RecordCodec.encodedAsinId(encoded);
+            if (partitionId == id) {
+                reviews.add(RecordCodec.decodeReview(encoded, ids));
+            }
+        }
+
+        reviews.sort(byReviewer ? ReviewRecord.USER_REVIEWS_ORDER : ReviewRecord.ITEM_REVIEWS_ORDER);
+        return reviews;
+    }
+}
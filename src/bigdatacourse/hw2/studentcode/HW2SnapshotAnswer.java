@@ -0,0 +1,198 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+
+import bigdatacourse.hw2.studentcode.snapshot.ItemSnapshot;
+import bigdatacourse.hw2.studentcode.snapshot.ReviewSnapshot;
+
+/**
+ * Read-mostly HW2API backend serving from memory-mapped snapshot files (folder/keyspace/*.snapshot).
+ * connect only maps the existing snapshots, so a serving node is up in milliseconds and leaves caching
+ * to the OS page cache. Snapshots are immutable, so loading a file stages the current snapshot and the file in memory,
+ * where the file's rows replace those with the same primary key, and writes the result as the new snapshot;
+ * the review search index and the category index are saved next to their snapshots and read back by connect.
+ * Queries filtered on rating and time binary search the rating index of the snapshot.
+ */
+public class HW2SnapshotAnswer extends HW2LocalAnswer {
+
+    private static final String ITEMS_SNAPSHOT = "items.snapshot";
+    private static final String ITEMS_CATEGORIES = "items.categories";
+    private static final String REVIEWS_SNAPSHOT = "reviews.snapshot";
+    private static final String REVIEWS_SEARCH = "reviews.search";
+
+    private Path folder;
+    private volatile ItemSnapshot items;
+    private volatile ReviewSnapshot reviews;
+
+    /**
+     * Maps the snapshots found in the keyspace folder
+     */
+    @Override
+    public void connect(String pathDataFolder, String username, String password, String keyspace) {
+        if (folder != null) {
+            System.out.println("ERROR - snapshots are already open");
+            return;
+        }
+
+        this.folder = Paths.get(pathDataFolder, keyspace);
+        try {
+            if (Files.exists(folder.resolve(ITEMS_SNAPSHOT))) {
+                this.items = ItemSnapshot.open(folder.resolve(ITEMS_SNAPSHOT));
+            }
+            if (Files.exists(folder.resolve(ITEMS_CATEGORIES))) {
+                loadCategoryIndex(folder.resolve(ITEMS_CATEGORIES));
+            }
+            if (Files.exists(folder.resolve(REVIEWS_SNAPSHOT))) {
+                this.reviews = ReviewSnapshot.open(folder.resolve(REVIEWS_SNAPSHOT));
+            }
+            if (Files.exists(folder.resolve(REVIEWS_SEARCH))) {
+                loadReviewIndex(folder.resolve(REVIEWS_SEARCH));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("Opened snapshots: " +
+                (items == null ? 0 : items.size()) + " items, " +
+                (reviews == null ? 0 : reviews.size()) + " reviews");
+    }
+
+    @Override
+    public void close() {
+        try {
+            if (items != null) {
+                items.close();
+            }
+            if (reviews != null) {
+                reviews.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        items = null;
+        reviews = null;
+        folder = null;
+        super.close();
+    }
+
+    /**
+     * Loads the current items and the items file into memory, writes them as the new items snapshot
+     * (and its category index) and maps it
+     */
+    @Override
+    public void loadItems(String pathItemsFile) throws Exception {
+        HW2InMemoryAnswer staging = new HW2InMemoryAnswer();
+        ItemSnapshot current = items;
+        if (current != null) {
+            current.items().forEachRemaining(staging::putItem);
+        }
+        if (Files.exists(folder.resolve(ITEMS_CATEGORIES))) {
+            staging.loadCategoryIndex(folder.resolve(ITEMS_CATEGORIES));
+        }
+        staging.loadItems(pathItemsFile);
+        staging.saveCategoryIndex(folder.resolve(ITEMS_CATEGORIES));
+        staging.writeItemsSnapshot(folder.resolve(ITEMS_SNAPSHOT));
+        adoptCategoryIndex(staging);
+
+        ItemSnapshot previous = items;
+        items = ItemSnapshot.open(folder.resolve(ITEMS_SNAPSHOT));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    /**
+     * Loads the current reviews and the reviews file into memory, writes them as the new reviews snapshot
+     * (and its search index) and maps it
+     */
+    @Override
+    public void loadReviews(String pathReviewsFile) throws Exception {
+        HW2InMemoryAnswer staging = new HW2InMemoryAnswer();
+        ReviewSnapshot current = reviews;
+        if (current != null) {
+            current.reviews().forEachRemaining(staging::putReview);
+        }
+        if (Files.exists(folder.resolve(REVIEWS_SEARCH))) {
+            staging.loadReviewIndex(folder.resolve(REVIEWS_SEARCH));
+        }
+        staging.loadReviews(pathReviewsFile);
+        // Index first: if the snapshot is not replaced, searching the previous one only misses reviews
+        staging.saveReviewIndex(folder.resolve(REVIEWS_SEARCH));
+        staging.writeReviewsSnapshot(folder.resolve(REVIEWS_SNAPSHOT));
+        adoptReviewIndex(staging);
+
+        ReviewSnapshot previous = reviews;
+        reviews = ReviewSnapshot.open(folder.resolve(REVIEWS_SNAPSHOT));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+
+    @Override
+    protected void putItem(ItemRecord item) {
+        throw new UnsupportedOperationException("snapshots are read-only");
+    }
+
+    @Override
+    protected void putReview(ReviewRecord review) {
+        throw new UnsupportedOperationException("snapshots are read-only");
+    }
+
+    @Override
+    protected ItemRecord getItem(String asin) {
+        ItemSnapshot snapshot = items;
+        return snapshot == null ? null : snapshot.get(asin);
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getUserReviews(String reviewerID) {
+        ReviewSnapshot snapshot = reviews;
+        return snapshot == null ? Collections.emptyList() : () -> snapshot.userReviews(reviewerID);
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getItemReviews(String asin) {
+        ReviewSnapshot snapshot = reviews;
+        return snapshot == null ? Collections.emptyList() : () -> snapshot.itemReviews(asin);
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getUserReviews(String reviewerID, int rating, long fromTime, long toTime) {
+        ReviewSnapshot snapshot = reviews;
+        return snapshot == null ? Collections.emptyList() : () -> snapshot.userReviews(reviewerID, rating, fromTime, toTime);
+    }
+
+    @Override
+    protected Iterable<ReviewRecord> getItemReviews(String asin, int rating, long fromTime, long toTime) {
+        ReviewSnapshot snapshot = reviews;
+        return snapshot == null ? Collections.emptyList() : () -> snapshot.itemReviews(asin, rating, fromTime, toTime);
+    }
+
+    @Override
+    protected ReviewStats getUserReviewStats(String reviewerID) {
+        ReviewSnapshot snapshot = reviews;
+        return snapshot == null ? null : snapshot.userReviewStats(reviewerID);
+    }
+
+    @Override
+    protected ReviewStats getItemReviewStats(String asin) {
+        ReviewSnapshot snapshot = reviews;
+        return snapshot == null ? null : snapshot.itemReviewStats(asin);
+    }
+
+    @Override
+    protected int countUserReviews(String reviewerID) {
+        ReviewSnapshot snapshot = reviews;
+        return snapshot == null ? 0 : snapshot.countUserReviews(reviewerID);
+    }
+
+    @Override
+    protected int countItemReviews(String asin) {
+        ReviewSnapshot snapshot = reviews;
+        return snapshot == null ? 0 : snapshot.countItemReviews(asin);
+    }
+}
@@ -1,13 +1,25 @@
 package bigdatacourse.hw2.studentcode;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 import com.datastax.oss.driver.api.core.CqlSession;
@@ -18,11 +30,11 @@ import com.datastax.oss.driver.api.core.cql.ResultSet;
 import com.datastax.oss.driver.api.core.cql.Row;
 import org.json.JSONArray;
 import org.json.JSONObject;
-import java.io.File;
-import java.io.FileReader;
-import java.io.BufferedReader;
+import org.json.UTF8Tokener;
 
 import bigdatacourse.hw2.HW2API;
+import bigdatacourse.hw2.HW2AsyncAPI;
+import bigdatacourse.hw2.studentcode.search.InvertedIndex;
 
 /**
  * Implementation of HW2API for handling Amazon product data using Apache Cassandra.
@@ -30,16 +42,37 @@ import bigdatacourse.hw2.HW2API;
  * - items: Stores product information
  * - user_reviews: Stores reviews organized by reviewer
  * - item_reviews: Stores reviews organized by item
+ * user_reviews_by_rating and item_reviews_by_rating copy the rated reviews again, partitioned by (key, rating),
+ * for the queries filtered on rating and time.
+ * items_by_category and category_counts index the items by category for browsing.
+ * The review search index lives in memory and is saved next to the secure connect bundle (keyspace.reviews.search)
+ * at the end of every review load; initialize reads it back, and only rebuilds it from user_reviews when there is no file.
+ * The HW2AsyncAPI methods run the same queries without blocking the calling thread.
  */
-public class HW2StudentAnswer implements HW2API {
+public class HW2StudentAnswer implements HW2API, HW2AsyncAPI {
     
     // Constants for general use
     public static final String NOT_AVAILABLE_VALUE = "na";
 
+    // Maximum number of point reads in flight for a single items() call
+    private static final int MAX_CONCURRENT_ITEM_READS = 64;
+
+    // Time after which a review search ranks what it has scored so far
+    private static final long SEARCH_TIME_BUDGET_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    // File of the review search index, after the keyspace, next to the secure connect bundle
+    private static final String REVIEWS_SEARCH_SUFFIX = ".reviews.search";
+
     // Table names for Cassandra schema
     private static final String TABLE_BY_ITEM = "items";
     private static final String TABLE_BY_REVIEWR = "user_reviews";
     private static final String TABLE_BY_ITEMID = "item_reviews";
+    private static final String TABLE_ITEM_STATS = "item_review_stats";
+    private static final String TABLE_USER_STATS = "user_review_stats";
+    private static final String TABLE_USER_REVIEWS_BY_RATING = "user_reviews_by_rating";
+    private static final String TABLE_ITEM_REVIEWS_BY_RATING = "item_reviews_by_rating";
+    private static final String TABLE_ITEMS_BY_CATEGORY = "items_by_category";
+    private static final String TABLE_CATEGORY_COUNTS = "category_counts";
     
     // CQL statements for table creation
     private static final String CQL_CREATE_TABLE_FOR_ITEMS = 
@@ -80,6 +113,76 @@ public class HW2StudentAnswer implements HW2API {
             ") " +
             "WITH CLUSTERING ORDER BY (unixReviewTime DESC, reviewerID ASC)";
     
+    // Tables for the pre-aggregated review summaries, one row per item and per reviewer
+    private static final String CQL_CREATE_TABLE_FOR_ITEM_STATS = 
+            "CREATE TABLE " + TABLE_ITEM_STATS + "(" + 
+                "asin text," +
+                "reviews int," +
+                "sumOverall double," +
+                "ratings map<int, int>," +
+                "firstReviewTime bigint," +
+                "lastReviewTime bigint," +
+                "PRIMARY KEY (asin)" +
+            ")";
+    
+    private static final String CQL_CREATE_TABLE_FOR_USER_STATS = 
+            "CREATE TABLE " + TABLE_USER_STATS + "(" + 
+                "reviewerID text," +
+                "reviews int," +
+                "sumOverall double," +
+                "ratings map<int, int>," +
+                "firstReviewTime bigint," +
+                "lastReviewTime bigint," +
+                "PRIMARY KEY (reviewerID)" +
+            ")";
+    
+    // Secondary index tables: copies of the rated reviews partitioned by (key, rating), so a filtered query
+    // on rating and time is a single clustering range read
+    private static final String CQL_CREATE_TABLE_FOR_USER_REVIEWS_BY_RATING = 
+            "CREATE TABLE " + TABLE_USER_REVIEWS_BY_RATING + "(" + 
+                "reviewerID text," +
+                "rating int," +
+                "unixReviewTime bigint," +
+                "asin text," +
+                "reviewerName text," +
+                "overall float," +
+                "description text," +
+                "summary text," +
+                "PRIMARY KEY ((reviewerID, rating), unixReviewTime, asin)" +
+            ") " +
+            "WITH CLUSTERING ORDER BY (unixReviewTime DESC, asin ASC)";
+    
+    private static final String CQL_CREATE_TABLE_FOR_ITEM_REVIEWS_BY_RATING = 
+            "CREATE TABLE " + TABLE_ITEM_REVIEWS_BY_RATING + "(" + 
+                "asin text," +
+                "rating int," +
+                "unixReviewTime bigint," +
+                "reviewerID text," +
+                "reviewerName text," +
+                "overall float," +
+                "description text," +
+                "summary text," +
+                "PRIMARY KEY ((asin, rating), unixReviewTime, reviewerID)" +
+            ") " +
+            "WITH CLUSTERING ORDER BY (unixReviewTime DESC, reviewerID ASC)";
+    
+    // Category browse index: the asins of a category are a single partition, read a page at a time in asin order
+    private static final String CQL_CREATE_TABLE_FOR_ITEMS_BY_CATEGORY = 
+            "CREATE TABLE " + TABLE_ITEMS_BY_CATEGORY + "(" + 
+                "category text," +
+                "asin text," +
+                "PRIMARY KEY (category, asin)" +
+            ") " +
+            "WITH CLUSTERING ORDER BY (asin ASC)";
+    
+    // Counter of the items of every category, bumped as items_by_category gains or loses an asin
+    private static final String CQL_CREATE_TABLE_FOR_CATEGORY_COUNTS = 
+            "CREATE TABLE " + TABLE_CATEGORY_COUNTS + "(" + 
+                "category text," +
+                "items counter," +
+                "PRIMARY KEY (category)" +
+            ")";
+    
     // Cassandra session for database operations
     private CqlSession session;
     
@@ -95,6 +198,58 @@ public class HW2StudentAnswer implements HW2API {
             "INSERT INTO " + TABLE_BY_ITEMID + "(asin, unixReviewTime, reviewerID, reviewerName, overall, description, summary) " +
             "VALUES (?, ?, ?, ?, ?, ?, ?)";
     
+    private static final String CQL_INSERT_ITEM_STATS = 
+            "INSERT INTO " + TABLE_ITEM_STATS + "(asin, reviews, sumOverall, ratings, firstReviewTime, lastReviewTime) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
+    
+    private static final String CQL_INSERT_USER_STATS = 
+            "INSERT INTO " + TABLE_USER_STATS + "(reviewerID, reviews, sumOverall, ratings, firstReviewTime, lastReviewTime) " +
+            "VALUES (?, ?, ?, ?, ?, ?)";
+    
+    private static final String CQL_INSERT_USER_REVIEW_BY_RATING = 
+            "INSERT INTO " + TABLE_USER_REVIEWS_BY_RATING + "(reviewerID, rating, unixReviewTime, asin, reviewerName, overall, description, summary) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    
+    private static final String CQL_INSERT_ITEM_REVIEW_BY_RATING = 
+            "INSERT INTO " + TABLE_ITEM_REVIEWS_BY_RATING + "(asin, rating, unixReviewTime, reviewerID, reviewerName, overall, description, summary) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    
+    private static final String CQL_SELECT_USER_REVIEWS_BY_RATING = 
+            "SELECT * FROM " + TABLE_USER_REVIEWS_BY_RATING + 
+            " WHERE reviewerID = ? AND rating = ? AND unixReviewTime >= ? AND unixReviewTime <= ?";
+    
+    private static final String CQL_SELECT_ITEM_REVIEWS_BY_RATING = 
+            "SELECT * FROM " + TABLE_ITEM_REVIEWS_BY_RATING + 
+            " WHERE asin = ? AND rating = ? AND unixReviewTime >= ? AND unixReviewTime <= ?";
+    
+    // Lightweight transactions, so that only the load that actually adds or removes the asin moves the counter
+    private static final String CQL_INSERT_ITEM_BY_CATEGORY = 
+            "INSERT INTO " + TABLE_ITEMS_BY_CATEGORY + "(category, asin) VALUES (?, ?) IF NOT EXISTS";
+    
+    private static final String CQL_DELETE_ITEM_BY_CATEGORY = 
+            "DELETE FROM " + TABLE_ITEMS_BY_CATEGORY + " WHERE category = ? AND asin = ? IF EXISTS";
+    
+    private static final String CQL_UPDATE_CATEGORY_COUNT = 
+            "UPDATE " + TABLE_CATEGORY_COUNTS + " SET items = items + ? WHERE category = ?";
+    
+    private static final String CQL_SELECT_ITEM_CATEGORIES = 
+            "SELECT categories FROM " + TABLE_BY_ITEM + " WHERE asin = ?";
+    
+    private static final String CQL_SELECT_CATEGORY_FIRST_PAGE = 
+            "SELECT asin FROM " + TABLE_ITEMS_BY_CATEGORY + " WHERE category = ? LIMIT ?";
+    
+    private static final String CQL_SELECT_CATEGORY_NEXT_PAGE = 
+            "SELECT asin FROM " + TABLE_ITEMS_BY_CATEGORY + " WHERE category = ? AND asin > ? LIMIT ?";
+    
+    private static final String CQL_SELECT_CATEGORY_COUNTS = 
+            "SELECT * FROM " + TABLE_CATEGORY_COUNTS;
+    
+    private static final String CQL_SELECT_ITEM_STATS = 
+            "SELECT * FROM " + TABLE_ITEM_STATS + " WHERE asin = ?";
+    
+    private static final String CQL_SELECT_USER_STATS = 
+            "SELECT * FROM " + TABLE_USER_STATS + " WHERE reviewerID = ?";
+    
     private static final String CQL_ITEM_SELECT = 
             "SELECT * FROM " + TABLE_BY_ITEM + " WHERE asin = ?";
     
@@ -104,6 +259,26 @@ public class HW2StudentAnswer implements HW2API {
     private static final String CQL_SELECT_REVIEWS_BY_ITEM = 
             "SELECT * FROM " + TABLE_BY_ITEMID + " WHERE asin = ?";
     
+    private static final String CQL_SELECT_REVIEW = 
+            "SELECT * FROM " + TABLE_BY_REVIEWR + " WHERE reviewerID = ? AND unixReviewTime = ? AND asin = ?";
+    
+    private static final String CQL_SELECT_REVIEW_TEXTS = 
+            "SELECT reviewerID, unixReviewTime, asin, summary, description FROM " + TABLE_BY_REVIEWR;
+    
+    private static final String CQL_SELECT_USER_REVIEW_RATINGS = 
+            "SELECT overall, unixReviewTime FROM " + TABLE_BY_REVIEWR + " WHERE reviewerID = ?";
+    
+    private static final String CQL_SELECT_ITEM_REVIEW_RATINGS = 
+            "SELECT overall, unixReviewTime FROM " + TABLE_BY_ITEMID + " WHERE asin = ?";
+    
+    // Columns that may be projected, in the order they are formatted
+    private static final List<String> ITEM_COLUMNS = 
+            Arrays.asList("asin", "title", "image", "categories", "description");
+    private static final List<String> REVIEW_COLUMNS = 
+            Arrays.asList("unixReviewTime", "asin", "reviewerID", "reviewerName", "overall", "summary", "description");
+    private static final List<String> REVIEW_LABELS = 
+            Arrays.asList("time", "asin", "reviewerID", "reviewerName", "rating", "summary", "reviewText");
+    
     // Prepared statements for optimized query execution
     private PreparedStatement pstmtSelect;
     private PreparedStatement pstmtInsertItem;
@@ -111,6 +286,31 @@ public class HW2StudentAnswer implements HW2API {
     private PreparedStatement pstmtInsertItemReview;
     private PreparedStatement pstmtQueryByReviewer;
     private PreparedStatement pstmtQueryByItem;
+    private PreparedStatement pstmtInsertItemStats;
+    private PreparedStatement pstmtInsertUserStats;
+    private PreparedStatement pstmtSelectItemStats;
+    private PreparedStatement pstmtSelectUserStats;
+    private PreparedStatement pstmtSelectUserReviewRatings;
+    private PreparedStatement pstmtSelectItemReviewRatings;
+    private PreparedStatement pstmtInsertUserReviewByRating;
+    private PreparedStatement pstmtInsertItemReviewByRating;
+    private PreparedStatement pstmtQueryByReviewerRating;
+    private PreparedStatement pstmtQueryByItemRating;
+    private PreparedStatement pstmtSelectReview;
+    private PreparedStatement pstmtInsertItemByCategory;
+    private PreparedStatement pstmtDeleteItemByCategory;
+    private PreparedStatement pstmtUpdateCategoryCount;
+    private PreparedStatement pstmtSelectItemCategories;
+    private PreparedStatement pstmtSelectCategoryFirstPage;
+    private PreparedStatement pstmtSelectCategoryNextPage;
+    private PreparedStatement pstmtSelectCategoryCounts;
+    
+    // Full-text index of the summaries and texts of the reviews, read back or rebuilt by initialize
+    private volatile InvertedIndex<ReviewKey> reviewIndex = new InvertedIndex<>();
+    private Path reviewIndexPath;
+    
+    // Projected select statements, prepared on first use and keyed by their CQL (one per column set)
+    private final ConcurrentHashMap<String, PreparedStatement> projectedStatements = new ConcurrentHashMap<>();
     
     /**
      * Establishes connection to Cassandra database using provided credentials
@@ -129,6 +329,7 @@ public class HW2StudentAnswer implements HW2API {
                 .withAuthCredentials(username, password)
                 .withKeyspace(keyspace)
                 .build();
+        this.reviewIndexPath = Paths.get(pathAstraDBBundleFile).toAbsolutePath().resolveSibling(keyspace + REVIEWS_SEARCH_SUFFIX);
         
         System.out.println("Initializing connection to Cassandra... Done");
     }
@@ -159,6 +360,18 @@ public class HW2StudentAnswer implements HW2API {
         System.out.println("created table: " + TABLE_BY_REVIEWR);
         session.execute(CQL_CREATE_TABLE_FOR_ITEMS_REVIEWS);
         System.out.println("created table: " + TABLE_BY_ITEMID);
+        session.execute(CQL_CREATE_TABLE_FOR_ITEM_STATS);
+        System.out.println("created table: " + TABLE_ITEM_STATS);
+        session.execute(CQL_CREATE_TABLE_FOR_USER_STATS);
+        System.out.println("created table: " + TABLE_USER_STATS);
+        session.execute(CQL_CREATE_TABLE_FOR_USER_REVIEWS_BY_RATING);
+        System.out.println("created table: " + TABLE_USER_REVIEWS_BY_RATING);
+        session.execute(CQL_CREATE_TABLE_FOR_ITEM_REVIEWS_BY_RATING);
+        System.out.println("created table: " + TABLE_ITEM_REVIEWS_BY_RATING);
+        session.execute(CQL_CREATE_TABLE_FOR_ITEMS_BY_CATEGORY);
+        System.out.println("created table: " + TABLE_ITEMS_BY_CATEGORY);
+        session.execute(CQL_CREATE_TABLE_FOR_CATEGORY_COUNTS);
+        System.out.println("created table: " + TABLE_CATEGORY_COUNTS);
     }
 
     /**
@@ -172,12 +385,56 @@ public class HW2StudentAnswer implements HW2API {
         this.pstmtInsertItemReview = session.prepare(CQL_INSERT_ITEM_REVIEW);
         this.pstmtQueryByReviewer = session.prepare(CQL_SELECT_REVIEWS_BY_REVIEWER);
         this.pstmtQueryByItem = session.prepare(CQL_SELECT_REVIEWS_BY_ITEM);
+        this.pstmtInsertItemStats = session.prepare(CQL_INSERT_ITEM_STATS);
+        this.pstmtInsertUserStats = session.prepare(CQL_INSERT_USER_STATS);
+        this.pstmtSelectItemStats = session.prepare(CQL_SELECT_ITEM_STATS);
+        this.pstmtSelectUserStats = session.prepare(CQL_SELECT_USER_STATS);
+        this.pstmtSelectUserReviewRatings = session.prepare(CQL_SELECT_USER_REVIEW_RATINGS);
+        this.pstmtSelectItemReviewRatings = session.prepare(CQL_SELECT_ITEM_REVIEW_RATINGS);
+        this.pstmtInsertUserReviewByRating = session.prepare(CQL_INSERT_USER_REVIEW_BY_RATING);
+        this.pstmtInsertItemReviewByRating = session.prepare(CQL_INSERT_ITEM_REVIEW_BY_RATING);
+        this.pstmtQueryByReviewerRating = session.prepare(CQL_SELECT_USER_REVIEWS_BY_RATING);
+        this.pstmtQueryByItemRating = session.prepare(CQL_SELECT_ITEM_REVIEWS_BY_RATING);
+        this.pstmtSelectReview = session.prepare(CQL_SELECT_REVIEW);
+        this.pstmtInsertItemByCategory = session.prepare(CQL_INSERT_ITEM_BY_CATEGORY);
+        this.pstmtDeleteItemByCategory = session.prepare(CQL_DELETE_ITEM_BY_CATEGORY);
+        this.pstmtUpdateCategoryCount = session.prepare(CQL_UPDATE_CATEGORY_COUNT);
+        this.pstmtSelectItemCategories = session.prepare(CQL_SELECT_ITEM_CATEGORIES);
+        this.pstmtSelectCategoryFirstPage = session.prepare(CQL_SELECT_CATEGORY_FIRST_PAGE);
+        this.pstmtSelectCategoryNextPage = session.prepare(CQL_SELECT_CATEGORY_NEXT_PAGE);
+        this.pstmtSelectCategoryCounts = session.prepare(CQL_SELECT_CATEGORY_COUNTS);
+        try {
+            if (Files.exists(reviewIndexPath)) {
+                this.reviewIndex = InvertedIndex.load(reviewIndexPath, ReviewKey::read);
+            } else {
+                rebuildReviewIndex();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        System.out.println("Indexed reviews: " + reviewIndex.size());
         System.out.println("All function are initialized");
     }
 
+    /**
+     * Builds the search index again from the reviews already in user_reviews and saves it, so that a new process
+     * searches what earlier runs loaded. One paged scan of the table, reading only the key and text columns
+     */
+    private void rebuildReviewIndex() throws IOException {
+        InvertedIndex<ReviewKey> rebuilt = new InvertedIndex<>();
+        for (Row row : session.execute(CQL_SELECT_REVIEW_TEXTS)) {
+            rebuilt.add(new ReviewKey(row.getString("reviewerID"), row.getLong("unixReviewTime"), row.getString("asin")),
+                    row.getString("summary"), row.getString("description"));
+        }
+        this.reviewIndex = rebuilt;
+        rebuilt.save(reviewIndexPath, ReviewKey::write);
+    }
+
     /**
      * Loads items from JSON file into Cassandra using multi-threaded approach
      * Uses a thread pool to handle concurrent insertions
+     * Every item is added to items_by_category under each of its categories, and a reloaded item is removed from the
+     * categories it no longer lists; category_counts moves only when one of these writes is applied
      */
     @Override
     public void loadItems(String pathItemsFile) throws Exception {
@@ -185,16 +442,17 @@ public class HW2StudentAnswer implements HW2API {
         ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
 
         int totalLines = 0;
+        Set<String> loadedCategories = ConcurrentHashMap.newKeySet();
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(new File(pathItemsFile)))) {
-            String line;
+        try (LineSplitter lines = new LineSplitter(pathItemsFile)) {
+            byte[] line;
 
-            while ((line = reader.readLine()) != null) {
-                final String jsonLine = line;
+            while ((line = lines.next()) != null) {
+                final byte[] jsonLine = line;
                 executor.execute(() -> {
                     try {
-                        // Parse JSON and extract item data
-                        JSONObject item = new JSONObject(jsonLine);
+                        // Parse JSON and extract item data, parsing only the values that are read
+                        JSONObject item = new JSONObject(new UTF8Tokener(jsonLine), true);
                         String asin = item.getString("asin");
                         String title = item.optString("title", null);
                         String image = item.optString("imUrl", null);
@@ -219,8 +477,26 @@ public class HW2StudentAnswer implements HW2API {
                             bstmt = bstmt.setSet("categories", categories, String.class);
                         }
 
+                        // The categories of an earlier load of the item, read before they are overwritten
+                        Row previous = session.execute(pstmtSelectItemCategories.bind(asin)).one();
+                        Set<String> removedCategories = previous == null
+                                ? new HashSet<>() : new HashSet<>(previous.getSet("categories", String.class));
+                        removedCategories.removeAll(categories);
+
                         CompletableFuture<AsyncResultSet> future = session.executeAsync(bstmt).toCompletableFuture();
+
+                        // Index the item under each of its categories, and take it out of the ones it left
+                        List<CompletableFuture<AsyncResultSet>> categoryFutures = new ArrayList<>(categories.size() + removedCategories.size());
+                        for (String category : categories) {
+                            loadedCategories.add(category);
+                            categoryFutures.add(updateCategory(pstmtInsertItemByCategory, category, asin, 1));
+                        }
+                        for (String category : removedCategories) {
+                            loadedCategories.add(category);
+                            categoryFutures.add(updateCategory(pstmtDeleteItemByCategory, category, asin, -1));
+                        }
                         future.join();
+                        CompletableFuture.allOf(categoryFutures.toArray(new CompletableFuture<?>[0])).join();
 
                     } catch (Exception e) {
                         e.printStackTrace();
@@ -234,28 +510,48 @@ public class HW2StudentAnswer implements HW2API {
         executor.awaitTermination(1, TimeUnit.HOURS);
 
         System.out.println("Total lines inserted: " + totalLines);
+
+        System.out.println("Total categories updated: " + loadedCategories.size());
+    }
+
+    /**
+     * Adds the asin to or removes it from the category partition, then moves the category's counter by delta
+     * if the write was applied, so an item already listed (or already gone) is not counted again.
+     * Counter updates are not idempotent: a counter write that times out and is retried may count twice
+     */
+    private CompletableFuture<AsyncResultSet> updateCategory(PreparedStatement pstmtCategory, String category, String asin, long delta) {
+        return session.executeAsync(pstmtCategory.bind(category, asin))
+                .thenCompose(rs -> rs.wasApplied()
+                        ? session.executeAsync(pstmtUpdateCategoryCount.bind(delta, category))
+                        : CompletableFuture.completedFuture(rs))
+                .toCompletableFuture();
     }
 
     /**
      * Loads reviews from JSON file into Cassandra using multi-threaded approach
      * Inserts each review into both reviewer-based and item-based tables
+     * Once the file is loaded, the aggregates of every item and reviewer it touched are recomputed from their partitions
+     * and the search index is saved. Its file is deleted first, so after a load that did not finish it is rebuilt
      */
     @Override
     public void loadReviews(String pathReviewsFile) throws Exception {
+        Files.deleteIfExists(reviewIndexPath);
         int maxThreads = 240;
         ExecutorService executor = Executors.newFixedThreadPool(maxThreads);
 
         int totalLines = 0;
+        Set<String> reviewedItems = ConcurrentHashMap.newKeySet();
+        Set<String> reviewers = ConcurrentHashMap.newKeySet();
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(new File(pathReviewsFile)))) {
-            String line;
+        try (LineSplitter lines = new LineSplitter(pathReviewsFile)) {
+            byte[] line;
 
-            while ((line = reader.readLine()) != null) {
-                final String jsonLine = line;
+            while ((line = lines.next()) != null) {
+                final byte[] jsonLine = line;
                 executor.execute(() -> {
                     try {
                         // Parse JSON and extract review data
-                        JSONObject review = new JSONObject(jsonLine);
+                        JSONObject review = new JSONObject(new UTF8Tokener(jsonLine));
                         String reviewerID = review.getString("reviewerID");
                         String asin = review.getString("asin");
                         String reviewerName = review.optString("reviewerName", null);
@@ -264,6 +560,13 @@ public class HW2StudentAnswer implements HW2API {
                         String summary = review.optString("summary", null);
                         long unixReviewTime = review.getLong("unixReviewTime");
 
+                        // Index the texts for searchReviews
+                        reviewIndex.add(new ReviewKey(reviewerID, unixReviewTime, asin), summary, description);
+
+                        // Remember whose summaries have to be recomputed
+                        reviewedItems.add(asin);
+                        reviewers.add(reviewerID);
+
                         // Insert into reviewer-based table
                         BoundStatement bstmtReviewer = pstmtInsertReviewer.bind(reviewerID, unixReviewTime, asin);
                         if (reviewerName != null && !reviewerName.isEmpty()) bstmtReviewer = bstmtReviewer.setString("reviewerName", reviewerName);
@@ -282,7 +585,32 @@ public class HW2StudentAnswer implements HW2API {
                         CompletableFuture<AsyncResultSet> future1 = session.executeAsync(bstmtReviewer).toCompletableFuture();
                         CompletableFuture<AsyncResultSet> future2 = session.executeAsync(bstmtItemReview).toCompletableFuture();
 
-                        CompletableFuture.allOf(future1, future2).join();
+                        // Rated reviews are also copied into the rating index tables
+                        CompletableFuture<AsyncResultSet> future3 = CompletableFuture.completedFuture(null);
+                        CompletableFuture<AsyncResultSet> future4 = CompletableFuture.completedFuture(null);
+                        int rating = (int) overall;
+                        if (ReviewStats.isRating(rating)) {
+                            BoundStatement bstmtUserByRating = pstmtInsertUserReviewByRating.bind(reviewerID, rating, unixReviewTime, asin)
+                                    .setFloat("overall", overall);
+                            BoundStatement bstmtItemByRating = pstmtInsertItemReviewByRating.bind(asin, rating, unixReviewTime, reviewerID)
+                                    .setFloat("overall", overall);
+                            if (reviewerName != null && !reviewerName.isEmpty()) {
+                                bstmtUserByRating = bstmtUserByRating.setString("reviewerName", reviewerName);
+                                bstmtItemByRating = bstmtItemByRating.setString("reviewerName", reviewerName);
+                            }
+                            if (description != null && !description.isEmpty()) {
+                                bstmtUserByRating = bstmtUserByRating.setString("description", description);
+                                bstmtItemByRating = bstmtItemByRating.setString("description", description);
+                            }
+                            if (summary != null && !summary.isEmpty()) {
+                                bstmtUserByRating = bstmtUserByRating.setString("summary", summary);
+                                bstmtItemByRating = bstmtItemByRating.setString("summary", summary);
+                            }
+                            future3 = session.executeAsync(bstmtUserByRating).toCompletableFuture();
+                            future4 = session.executeAsync(bstmtItemByRating).toCompletableFuture();
+                        }
+
+                        CompletableFuture.allOf(future1, future2, future3, future4).join();
 
                     } catch (Exception e) {
                         e.printStackTrace();
@@ -296,6 +624,91 @@ public class HW2StudentAnswer implements HW2API {
         executor.awaitTermination(1, TimeUnit.HOURS);
 
         System.out.println("Total lines inserted: " + totalLines);
+
+        // One write per item and per reviewer
+        writeReviewStats(pstmtSelectItemReviewRatings, pstmtInsertItemStats, reviewedItems);
+        writeReviewStats(pstmtSelectUserReviewRatings, pstmtInsertUserStats, reviewers);
+        System.out.println("Total review summaries inserted: " + (reviewedItems.size() + reviewers.size()));
+        reviewIndex.save(reviewIndexPath, ReviewKey::write);
+    }
+
+    /**
+     * Recomputes the review summaries of the keys from their review partitions and writes them,
+     * keeping at most MAX_CONCURRENT_ITEM_READS partitions in flight.
+     * A partition holds every review loaded so far exactly once (reloaded reviews are upserted),
+     * so the summary covers the earlier loads and does not count a review twice.
+     * This reads the touched partitions a second time, in exchange the load needs no read before each review write
+     */
+    private void writeReviewStats(PreparedStatement pstmtSelect, PreparedStatement pstmtInsert, Set<String> keys) {
+        Semaphore permits = new Semaphore(MAX_CONCURRENT_ITEM_READS);
+        List<CompletableFuture<AsyncResultSet>> futures = new ArrayList<>(keys.size());
+        
+        for (String key : keys) {
+            permits.acquireUninterruptibly();
+            CompletableFuture<AsyncResultSet> future = aggregateReviews(session.executeAsync(pstmtSelect.bind(key)), new ReviewStats())
+                    .thenCompose(reviewStats -> session.executeAsync(pstmtInsert.bind(
+                            key,
+                            reviewStats.getReviews(),
+                            reviewStats.getSumOverall(),
+                            reviewStats.getRatings(),
+                            reviewStats.getFirstReviewTime(),
+                            reviewStats.getLastReviewTime())))
+                    .toCompletableFuture();
+            future.whenComplete((rs, error) -> permits.release());
+            futures.add(future);
+        }
+        
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).join();
+    }
+
+    /**
+     * Adds every review of the current page to stats and chains the fetch of the next page, if any
+     */
+    private CompletionStage<ReviewStats> aggregateReviews(CompletionStage<AsyncResultSet> stage, ReviewStats stats) {
+        return stage.thenCompose(rs -> {
+            for (Row row : rs.currentPage()) {
+                stats.add(row.getFloat("overall"), row.getLong("unixReviewTime"));
+            }
+            if (rs.hasMorePages()) {
+                return aggregateReviews(rs.fetchNextPage(), stats);
+            }
+            return CompletableFuture.completedFuture(stats);
+        });
+    }
+
+    /**
+     * Retrieves the summary of an item's reviews with a single point read
+     * @param asin The Amazon Standard Identification Number of the item
+     * @return Formatted summary or "not exists" if the item has no reviews
+     */
+    @Override
+    public String itemReviewStats(String asin) {
+        return reviewStats("asin", asin, session.execute(pstmtSelectItemStats.bind(asin)).one());
+    }
+
+    /**
+     * Retrieves the summary of a reviewer's reviews with a single point read
+     * @param reviewerID The unique identifier of the reviewer
+     * @return Formatted summary or "not exists" if the reviewer has no reviews
+     */
+    @Override
+    public String userReviewStats(String reviewerID) {
+        return reviewStats("reviewerID", reviewerID, session.execute(pstmtSelectUserStats.bind(reviewerID)).one());
+    }
+
+    /**
+     * Formats a row of either summary table
+     */
+    private String reviewStats(String keyName, String key, Row row) {
+        if (row == null) {
+            return "not exists" + "\n";
+        }
+        return ReviewStats.format(keyName, key,
+                row.getInt("reviews"),
+                row.getDouble("sumOverall"),
+                row.getMap("ratings", Integer.class, Integer.class),
+                row.getLong("firstReviewTime"),
+                row.getLong("lastReviewTime"));
     }
 
     /**
@@ -326,6 +739,33 @@ public class HW2StudentAnswer implements HW2API {
         }
     }
 
+    /**
+     * Retrieves the information of several items at once
+     * All point reads are issued asynchronously (capped at MAX_CONCURRENT_ITEM_READS in flight);
+     * the prepared statement binds the partition key, so the driver routes each read to a replica owning it
+     * @param asins The Amazon Standard Identification Numbers
+     * @return Formatted item information strings in the order of asins, "not exists" for missing items
+     */
+    @Override
+    public List<String> items(Collection<String> asins) {
+        Semaphore permits = new Semaphore(MAX_CONCURRENT_ITEM_READS);
+        List<CompletableFuture<String>> futures = new ArrayList<>(asins.size());
+        
+        for (String asin : asins) {
+            permits.acquireUninterruptibly();
+            CompletableFuture<String> future = itemAsync(asin).toCompletableFuture();
+            future.whenComplete((itemRepr, error) -> permits.release());
+            futures.add(future);
+        }
+        
+        // Collect in input order, the overall wait is bounded by the slowest read
+        List<String> itemsReprs = new ArrayList<>(futures.size());
+        for (CompletableFuture<String> future : futures) {
+            itemsReprs.add(future.join());
+        }
+        return itemsReprs;
+    }
+
     /**
      * Retrieves all reviews written by a specific reviewer
      * Results are ordered by review time (descending) and ASIN
@@ -409,6 +849,358 @@ public class HW2StudentAnswer implements HW2API {
         // Return the list of formatted reviews
         return reviewRepers;
     }
+
+    /**
+     * Retrieves a reviewer's reviews with the given rating written between fromTime and toTime,
+     * reading only the matching rows of the rating index table
+     * @param reviewerID The unique identifier of the reviewer
+     * @param rating Rating of the reviews, 1 to 5
+     * @param fromTime First review time (epoch seconds, inclusive)
+     * @param toTime Last review time (epoch seconds, inclusive)
+     * @return Formatted reviews ordered by review time (descending) and ASIN
+     */
+    @Override
+    public Iterable<String> userReviews(String reviewerID, int rating, long fromTime, long toTime) {
+        return filteredReviews(pstmtQueryByReviewerRating, reviewerID, rating, fromTime, toTime);
+    }
+
+    /**
+     * Retrieves an item's reviews with the given rating written between fromTime and toTime,
+     * reading only the matching rows of the rating index table
+     * @param asin The Amazon Standard Identification Number of the item
+     * @param rating Rating of the reviews, 1 to 5
+     * @param fromTime First review time (epoch seconds, inclusive)
+     * @param toTime Last review time (epoch seconds, inclusive)
+     * @return Formatted reviews ordered by review time (descending) and reviewer ID
+     */
+    @Override
+    public Iterable<String> itemReviews(String asin, int rating, long fromTime, long toTime) {
+        return filteredReviews(pstmtQueryByItemRating, asin, rating, fromTime, toTime);
+    }
+
+    private List<String> filteredReviews(PreparedStatement pstmt, String key, int rating, long fromTime, long toTime) {
+        ReviewStats.checkRating(rating);
+        ArrayList<String> reviewRepers = new ArrayList<>();
+        for (Row row : session.execute(pstmt.bind(key, rating, fromTime, toTime))) {
+            reviewRepers.add(formatReviewRow(row));
+        }
+        System.out.println("total reviews: " + reviewRepers.size());
+        return reviewRepers;
+    }
+
+    /**
+     * Searches the summaries and texts of the reviews, best matches first
+     * Every hit is read back from user_reviews by its primary key, the reads run concurrently
+     * @param query Words to search for
+     * @param limit Maximum number of reviews returned
+     * @return Formatted reviews, best match first
+     */
+    @Override
+    public Iterable<String> searchReviews(String query, int limit) {
+        List<CompletableFuture<AsyncResultSet>> futures = new ArrayList<>();
+        for (InvertedIndex.Hit<ReviewKey> hit : reviewIndex.search(query, limit, SEARCH_TIME_BUDGET_NANOS)) {
+            ReviewKey key = hit.getDoc();
+            futures.add(session.executeAsync(pstmtSelectReview.bind(
+                    key.getReviewerID(), key.getUnixReviewTime(), key.getAsin())).toCompletableFuture());
+        }
+
+        ArrayList<String> reviewRepers = new ArrayList<>();
+        for (CompletableFuture<AsyncResultSet> future : futures) {
+            Row row = future.join().one();
+            if (row != null) {
+                reviewRepers.add(formatReviewRow(row));
+            }
+        }
+        System.out.println("total reviews: " + reviewRepers.size());
+        return reviewRepers;
+    }
+
+    /**
+     * Reads one page of the category index
+     * @param category The category, as listed in the items' categories
+     * @param afterAsin Last asin of the previous page, null for the first page
+     * @param pageSize Maximum number of asins returned
+     * @return The asins of the category's items, in asin order
+     */
+    @Override
+    public List<String> categoryItems(String category, String afterAsin, int pageSize) {
+        BoundStatement bstmt = afterAsin == null
+                ? pstmtSelectCategoryFirstPage.bind(category, pageSize)
+                : pstmtSelectCategoryNextPage.bind(category, afterAsin, pageSize);
+        
+        List<String> asins = new ArrayList<>(pageSize);
+        for (Row row : session.execute(bstmt)) {
+            asins.add(row.getString("asin"));
+        }
+        return asins;
+    }
+
+    /**
+     * Reads the category summary table, which holds one counter per category
+     * @return The number of items of every category, by category; categories whose items all left are not listed
+     */
+    @Override
+    public Map<String, Integer> categoryCounts() {
+        Map<String, Integer> counts = new TreeMap<>();
+        for (Row row : session.execute(pstmtSelectCategoryCounts.bind())) {
+            long items = row.getLong("items");
+            if (items > 0) {
+                counts.put(row.getString("category"), (int) items);
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * Writes item information by ASIN straight into out, without building intermediate strings
+     * @param asin The Amazon Standard Identification Number
+     * @param out Destination of the formatted item (same text as item(asin))
+     */
+    @Override
+    public void item(String asin, Appendable out) throws IOException {
+        Row row = session.execute(pstmtSelect.bind(asin)).one();
+        
+        if (row != null) {
+            formatItem(out,
+                    row.getString("asin"),
+                    row.getString("title"),
+                    row.getString("image"),
+                    row.getSet("categories", String.class),
+                    row.getString("description")
+            );
+        } else {
+            out.append("not exists").append("\n");
+        }
+    }
+
+    /**
+     * Writes all reviews of a reviewer into out, after the total line
+     * @param reviewerID The unique identifier of the reviewer
+     * @param out Destination of the formatted reviews (total line and rows, same text as userReviews(reviewerID) prints)
+     */
+    @Override
+    public void userReviews(String reviewerID, Appendable out) throws IOException {
+        // The total is printed ahead of the rows, it is read from the summary row so the rows can be streamed
+        writeTotalReviews(session.execute(pstmtSelectUserStats.bind(reviewerID)).one(), out);
+        writeReviews(session.execute(pstmtQueryByReviewer.bind(reviewerID)), out);
+    }
+
+    /**
+     * Writes all reviews of an item into out, after the total line
+     * @param asin The Amazon Standard Identification Number of the item
+     * @param out Destination of the formatted reviews (total line and rows, same text as itemReviews(asin) prints)
+     */
+    @Override
+    public void itemReviews(String asin, Appendable out) throws IOException {
+        // The total is printed ahead of the rows, it is read from the summary row so the rows can be streamed
+        writeTotalReviews(session.execute(pstmtSelectItemStats.bind(asin)).one(), out);
+        writeReviews(session.execute(pstmtQueryByItem.bind(asin)), out);
+    }
+
+    /**
+     * Writes the total line of a review listing from the partition's summary row, which every load keeps
+     * equal to the number of rows of the partition (0 if it has no summary)
+     */
+    private static void writeTotalReviews(Row stats, Appendable out) throws IOException {
+        int totalReviews = stats == null ? 0 : stats.getInt("reviews");
+        out.append("total reviews: ").append(Integer.toString(totalReviews)).append(System.lineSeparator());
+    }
+
+    /**
+     * Formats every row of a review query into out, page by page as the driver fetches them
+     */
+    private void writeReviews(ResultSet rs, Appendable out) throws IOException {
+        for (Row row : rs) {
+            formatReview(out,
+                    Instant.ofEpochSecond(row.getLong("unixReviewTime")),
+                    row.getString("asin"),
+                    row.getString("reviewerID"),
+                    row.getString("reviewerName"),
+                    (int) row.getFloat("overall"),
+                    row.getString("summary"),
+                    row.getString("description")
+            );
+        }
+    }
+
+    /**
+     * Retrieves only the requested columns of an item
+     * @param asin The Amazon Standard Identification Number
+     * @param columns Columns of the items table to fetch (asin, title, image, categories, description)
+     * @return One "column: value" line per requested column or "not exists" if not found
+     */
+    public String item(String asin, Collection<String> columns) {
+        List<String> projection = projection(ITEM_COLUMNS, columns);
+        Row row = session.execute(projectedStatement(TABLE_BY_ITEM, "asin", projection).bind(asin)).one();
+        
+        if (row == null) {
+            return "not exists" + "\n";
+        }
+        
+        StringBuilder itemDesc = new StringBuilder();
+        for (String column : projection) {
+            Object value = column.equals("categories") ? row.getSet(column, String.class) : row.getString(column);
+            itemDesc.append(column).append(": ").append(value).append("\n");
+        }
+        return itemDesc.toString();
+    }
+
+    /**
+     * Retrieves only the requested columns of a reviewer's reviews, in clustering order
+     * @param reviewerID The unique identifier of the reviewer
+     * @param columns Columns of the review tables to fetch (unixReviewTime, asin, reviewerID, reviewerName, overall, summary, description)
+     * @return Iterable collection of formatted partial review strings
+     */
+    public Iterable<String> userReviews(String reviewerID, Collection<String> columns) {
+        return projectedReviews(TABLE_BY_REVIEWR, "reviewerID", reviewerID, columns);
+    }
+
+    /**
+     * Retrieves only the requested columns of an item's reviews, in clustering order
+     * @param asin The Amazon Standard Identification Number of the item
+     * @param columns Columns of the review tables to fetch (unixReviewTime, asin, reviewerID, reviewerName, overall, summary, description)
+     * @return Iterable collection of formatted partial review strings
+     */
+    public Iterable<String> itemReviews(String asin, Collection<String> columns) {
+        return projectedReviews(TABLE_BY_ITEMID, "asin", asin, columns);
+    }
+
+    /**
+     * Runs a projected review query and formats the requested fields with the labels used by formatReview
+     */
+    private List<String> projectedReviews(String table, String keyColumn, String key, Collection<String> columns) {
+        List<String> projection = projection(REVIEW_COLUMNS, columns);
+        ResultSet rs = session.execute(projectedStatement(table, keyColumn, projection).bind(key));
+        
+        ArrayList<String> reviewRepers = new ArrayList<>();
+        for (Row row : rs) {
+            StringBuilder reviewDesc = new StringBuilder();
+            for (String column : projection) {
+                Object value;
+                if (column.equals("unixReviewTime")) {
+                    value = Instant.ofEpochSecond(row.getLong(column));
+                } else if (column.equals("overall")) {
+                    value = (int) row.getFloat(column);
+                } else {
+                    value = row.getString(column);
+                }
+                if (reviewDesc.length() > 0) {
+                    reviewDesc.append(", ");
+                }
+                reviewDesc.append(REVIEW_LABELS.get(REVIEW_COLUMNS.indexOf(column))).append(": ").append(value);
+            }
+            reviewRepers.add(reviewDesc.append("\n").toString());
+        }
+        return reviewRepers;
+    }
+
+    /**
+     * Validates the requested columns and orders them canonically, so every column set maps to a single statement
+     */
+    private static List<String> projection(List<String> allowedColumns, Collection<String> columns) {
+        for (String column : columns) {
+            if (!allowedColumns.contains(column)) {
+                throw new IllegalArgumentException("unknown column: " + column);
+            }
+        }
+        
+        List<String> projection = new ArrayList<>();
+        for (String column : allowedColumns) {
+            if (columns.contains(column)) {
+                projection.add(column);
+            }
+        }
+        if (projection.isEmpty()) {
+            throw new IllegalArgumentException("at least one column is required");
+        }
+        return projection;
+    }
+
+    /**
+     * Returns the prepared select of the given columns, preparing it only the first time it is requested
+     */
+    private PreparedStatement projectedStatement(String table, String keyColumn, List<String> projection) {
+        String cql = "SELECT " + String.join(", ", projection) + " FROM " + table + " WHERE " + keyColumn + " = ?";
+        return projectedStatements.computeIfAbsent(cql, session::prepare);
+    }
+
+    /**
+     * Retrieves item information by ASIN without blocking the caller
+     * @param asin The Amazon Standard Identification Number
+     * @return Stage completing with the formatted item or "not exists" if not found
+     */
+    @Override
+    public CompletionStage<String> itemAsync(String asin) {
+        return session.executeAsync(pstmtSelect.bind(asin)).thenApply(rs -> {
+            Row row = rs.one();
+            return row != null ? formatItemRow(row) : "not exists" + "\n";
+        });
+    }
+
+    /**
+     * Retrieves all reviews written by a specific reviewer without blocking the caller
+     * Pages are fetched one after the other as the previous page completes
+     * @param reviewerID The unique identifier of the reviewer
+     * @return Stage completing with the formatted reviews, in clustering order
+     */
+    @Override
+    public CompletionStage<List<String>> userReviewsAsync(String reviewerID) {
+        return collectReviews(session.executeAsync(pstmtQueryByReviewer.bind(reviewerID)), new ArrayList<>());
+    }
+
+    /**
+     * Retrieves all reviews for a specific item without blocking the caller
+     * Pages are fetched one after the other as the previous page completes
+     * @param asin The Amazon Standard Identification Number of the item
+     * @return Stage completing with the formatted reviews, in clustering order
+     */
+    @Override
+    public CompletionStage<List<String>> itemReviewsAsync(String asin) {
+        return collectReviews(session.executeAsync(pstmtQueryByItem.bind(asin)), new ArrayList<>());
+    }
+
+    /**
+     * Appends the current page of reviews and chains the fetch of the next page, if any
+     */
+    private CompletionStage<List<String>> collectReviews(CompletionStage<AsyncResultSet> stage, List<String> reviewRepers) {
+        return stage.thenCompose(rs -> {
+            for (Row row : rs.currentPage()) {
+                reviewRepers.add(formatReviewRow(row));
+            }
+            if (rs.hasMorePages()) {
+                return collectReviews(rs.fetchNextPage(), reviewRepers);
+            }
+            return CompletableFuture.completedFuture(reviewRepers);
+        });
+    }
+
+    /**
+     * Formats a row of the items table
+     */
+    private String formatItemRow(Row row) {
+        return formatItem(
+                row.getString("asin"),
+                row.getString("title"),
+                row.getString("image"),
+                row.getSet("categories", String.class),
+                row.getString("description")
+        );
+    }
+
+    /**
+     * Formats a row of either review table (both hold the same columns)
+     */
+    private String formatReviewRow(Row row) {
+        return formatReview(
+                Instant.ofEpochSecond(row.getLong("unixReviewTime")),
+                row.getString("asin"),
+                row.getString("reviewerID"),
+                row.getString("reviewerName"),
+                (int) row.getFloat("overall"),
+                row.getString("summary"),
+                row.getString("description")
+        );
+    }
 	
 	// Formatting methods, do not change!
 	private String formatItem(String asin, String title, String imageUrl, Set<String> categories, String description) {
@@ -433,4 +1225,23 @@ public class HW2StudentAnswer implements HW2API {
 		return reviewDesc;
 	}
 
+	// Streaming versions of the formatting methods above, they write exactly the same text into out
+	public static void formatItem(Appendable out, String asin, String title, String imageUrl, Set<String> categories, String description) throws IOException {
+		out.append("asin: ").append(asin).append("\n");
+		out.append("title: ").append(title).append("\n");
+		out.append("image: ").append(imageUrl).append("\n");
+		out.append("categories: ").append(categories.toString()).append("\n");
+		out.append("description: ").append(description).append("\n");
+	}
+
+	public static void formatReview(Appendable out, Instant time, String asin, String reviewerId, String reviewerName, Integer rating, String summary, String reviewText) throws IOException {
+		out.append("time: ").append(String.valueOf(time))
+			.append(", asin: ").append(asin)
+			.append(", reviewerID: ").append(reviewerId)
+			.append(", reviewerName: ").append(reviewerName)
+			.append(", rating: ").append(String.valueOf(rating))
+			.append(", summary: ").append(summary)
+			.append(", reviewText: ").append(reviewText).append("\n");
+	}
+
 }
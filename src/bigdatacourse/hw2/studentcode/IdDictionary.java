@@ -0,0 +1,139 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Global dictionary of identifiers (reviewerID and asin), assigning each distinct string a dense int id
+ * in the order they are first seen. Storage keeps the ids and only translates them back to strings
+ * when a review is formatted. Ids are stable: the dictionary is saved and reloaded with the data folder,
+ * or a backend persists every new id itself through an assign listener and restores them when it opens.
+ */
+public final class IdDictionary {
+
+    private final ConcurrentHashMap<String, Integer> idsByKey = new ConcurrentHashMap<>();
+    private volatile String[] keys = new String[1024];
+    private int size;
+    private volatile ObjIntConsumer<String> assignListener;
+
+    /**
+     * @return The id of the key, assigning the next id if the key is new
+     */
+    public int id(String key) {
+        Integer id = idsByKey.get(key);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = idsByKey.get(key);
+            if (id != null) {
+                return id;
+            }
+            // The id is only handed out once the listener has persisted it
+            ObjIntConsumer<String> listener = assignListener;
+            if (listener != null) {
+                listener.accept(key, size);
+            }
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size] = key;
+            idsByKey.put(key, size);
+            return size++;
+        }
+    }
+
+    /**
+     * @return The id of the key or -1 if the key was never seen
+     */
+    public int find(String key) {
+        Integer id = idsByKey.get(key);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return The key of an id returned by id()
+     */
+    public String key(int id) {
+        return keys[id];
+    }
+
+    /**
+     * Sets the callback run for every new id, under the dictionary's lock and before any other thread can get the id,
+     * so a backend can persist the id ahead of the records that use it. The id is not assigned if the callback throws
+     */
+    public void setAssignListener(ObjIntConsumer<String> listener) {
+        this.assignListener = listener;
+    }
+
+    /**
+     * Puts back an id persisted through the assign listener, new ids are assigned after the largest restored one.
+     * Restoring an id again is harmless, restoring it with another key means the storage does not match the dictionary
+     */
+    public synchronized void restore(int id, String key) {
+        if (id < size && keys[id] != null) {
+            if (!keys[id].equals(key)) {
+                throw new IllegalStateException("id " + id + " is already assigned to another key");
+            }
+            return;
+        }
+        if (id >= keys.length) {
+            keys = Arrays.copyOf(keys, Math.max(id + 1, keys.length * 2));
+        }
+        keys[id] = key;
+        idsByKey.put(key, id);
+        size = Math.max(size, id + 1);
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Writes the keys in id order into a temporary file and renames it in place
+     */
+    public synchronized void save(Path path) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(size);
+            for (int id = 0; id < size; id++) {
+                byte[] bytes = keys[id].getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads back a saved dictionary, must be called before any id is assigned
+     */
+    public synchronized void load(Path path) throws IOException {
+        if (size != 0) {
+            throw new IllegalStateException("ids were already assigned");
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int count = in.readInt();
+            String[] loaded = new String[Math.max(1024, count)];
+            for (int id = 0; id < count; id++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                loaded[id] = new String(bytes, StandardCharsets.UTF_8);
+                idsByKey.put(loaded[id], id);
+            }
+            keys = loaded;
+            size = count;
+        }
+    }
+}
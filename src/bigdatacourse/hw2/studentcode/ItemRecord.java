@@ -0,0 +1,75 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * A single row of the items table, as held by the local (non Cassandra) backends.
+ * Empty values are kept as null, the same way the Cassandra loader leaves them unset.
+ */
+public class ItemRecord {
+
+    private final String asin;
+    private final String title;
+    private final String image;
+    private final Set<String> categories;
+    private final String description;
+
+    public ItemRecord(String asin, String title, String image, Set<String> categories, String description) {
+        this.asin = asin;
+        this.title = title;
+        this.image = image;
+        this.categories = Collections.unmodifiableSet(new TreeSet<>(categories));
+        this.description = description;
+    }
+
+    /**
+     * Extracts the item columns from a line of the items file
+     */
+    public static ItemRecord fromJSON(JSONObject item) {
+        // Categories are a set<text> in Cassandra, so they are kept sorted and without duplicates
+        Set<String> categories = new TreeSet<>();
+        JSONArray categoriesArray = item.getJSONArray("categories");
+        for (int j = 0; j < categoriesArray.length(); j++) {
+            JSONArray categoryList = categoriesArray.getJSONArray(j);
+            for (int k = 0; k < categoryList.length(); k++) {
+                categories.add(categoryList.getString(k));
+            }
+        }
+
+        return new ItemRecord(
+                item.getString("asin"),
+                emptyToNull(item.optString("title", null)),
+                emptyToNull(item.optString("imUrl", null)),
+                categories,
+                emptyToNull(item.optString("description", null)));
+    }
+
+    static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    public String getAsin() {
+        return asin;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getImage() {
+        return image;
+    }
+
+    public Set<String> getCategories() {
+        return categories;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
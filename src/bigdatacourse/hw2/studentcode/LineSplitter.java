@@ -0,0 +1,89 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+import org.json.ByteScanner;
+
+/**
+ * Splits a file into lines of undecoded bytes, for parsing with org.json.UTF8Tokener
+ * Lines end at '\n', '\r' or "\r\n" and the last line needs no terminator, as with BufferedReader.readLine
+ * Line ends are searched for eight bytes at a time by org.json.ByteScanner
+ */
+final class LineSplitter implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final InputStream in;
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private boolean skipLineFeed;
+
+    LineSplitter(InputStream in) {
+        this.in = in;
+    }
+
+    LineSplitter(String path) throws IOException {
+        this(new FileInputStream(path));
+    }
+
+    /**
+     * @return The next line without its terminator, null at the end of the file
+     */
+    byte[] next() throws IOException {
+        int scan = pos;
+        for (;;) {
+            if (skipLineFeed && pos < limit) {
+                skipLineFeed = false;
+                if (buffer[pos] == '\n') {
+                    pos++;
+                    scan = pos;
+                }
+            }
+            int end = ByteScanner.indexOfLineEnd(buffer, scan, limit);
+            if (end < limit) {
+                byte[] line = Arrays.copyOfRange(buffer, pos, end);
+                pos = end + 1;
+                skipLineFeed = buffer[end] == '\r';
+                return line;
+            }
+            scan = limit - pos;
+            if (!fill()) {
+                if (pos == limit) {
+                    return null;
+                }
+                byte[] line = Arrays.copyOfRange(buffer, pos, limit);
+                pos = limit;
+                return line;
+            }
+        }
+    }
+
+    /**
+     * Moves the unfinished line to the start of the buffer and reads more of the file after it
+     * @return false at the end of the file
+     */
+    private boolean fill() throws IOException {
+        System.arraycopy(buffer, pos, buffer, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        if (limit == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        int read = in.read(buffer, limit, buffer.length - limit);
+        if (read <= 0) {
+            return false;
+        }
+        limit += read;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,151 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Binary encoding of items and reviews for the local storage backends.
+ * Strings are written as their UTF-8 length (-1 for null) followed by the bytes.
+ */
+public final class RecordCodec {
+
+    private RecordCodec() {
+    }
+
+    public static byte[] encodeItem(ItemRecord item) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeString(out, item.getAsin());
+            writeString(out, item.getTitle());
+            writeString(out, item.getImage());
+            out.writeInt(item.getCategories().size());
+            for (String category : item.getCategories()) {
+                writeString(out, category);
+            }
+            writeString(out, item.getDescription());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static ItemRecord decodeItem(byte[] encoded) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            String asin = readString(in);
+            String title = readString(in);
+            String image = readString(in);
+            Set<String> categories = new TreeSet<>();
+            for (int i = in.readInt(); i > 0; i--) {
+                categories.add(readString(in));
+            }
+            return new ItemRecord(asin, title, image, categories, readString(in));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static byte[] encodeReview(ReviewRecord review) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeString(out, review.getReviewerID());
+            writeString(out, review.getAsin());
+            writeString(out, review.getReviewerName());
+            out.writeFloat(review.getOverall());
+            writeString(out, review.getReviewText());
+            writeString(out, review.getSummary());
+            out.writeLong(review.getUnixReviewTime());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static ReviewRecord decodeReview(byte[] encoded) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            return new ReviewRecord(readString(in), readString(in), readString(in), in.readFloat(),
+                    readString(in), readString(in), in.readLong());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Encodes a review with reviewerID and asin replaced by their dictionary ids (the first two ints)
+     */
+    public static byte[] encodeReview(ReviewRecord review, IdDictionary ids) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(ids.id(review.getReviewerID()));
+            out.writeInt(ids.id(review.getAsin()));
+            writeString(out, review.getReviewerName());
+            out.writeFloat(review.getOverall());
+            writeString(out, review.getReviewText());
+            writeString(out, review.getSummary());
+            out.writeLong(review.getUnixReviewTime());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static ReviewRecord decodeReview(byte[] encoded, IdDictionary ids) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded))) {
+            return new ReviewRecord(ids.key(in.readInt()), ids.key(in.readInt()), readString(in), in.readFloat(),
+                    readString(in), readString(in), in.readLong());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return The reviewerID id of a review encoded with ids, without decoding it
+     */
+    public static int encodedReviewerId(byte[] encoded) {
+        return ByteBuffer.wrap(encoded).getInt(0);
+    }
+
+    /**
+     * @return The asin id of a review encoded with ids, without decoding it
+     */
+    public static int encodedAsinId(byte[] encoded) {
+        return ByteBuffer.wrap(encoded).getInt(Integer.BYTES);
+    }
+
+    /**
+     * @return The overall rating of a review encoded with ids, without decoding it
+     */
+    public static float encodedOverall(byte[] encoded) {
+        ByteBuffer buffer = ByteBuffer.wrap(encoded);
+        // reviewerID id, asin id, then reviewerName (length, -1 for null, and bytes)
+        int nameLength = buffer.getInt(2 * Integer.BYTES);
+        return buffer.getFloat(3 * Integer.BYTES + Math.max(nameLength, 0));
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
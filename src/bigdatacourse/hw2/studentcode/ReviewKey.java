@@ -0,0 +1,64 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Primary key of a review (reviewerID, unixReviewTime, asin), the document key of the review search index
+ */
+public final class ReviewKey {
+
+    private final String reviewerID;
+    private final long unixReviewTime;
+    private final String asin;
+
+    public ReviewKey(String reviewerID, long unixReviewTime, String asin) {
+        this.reviewerID = reviewerID;
+        this.unixReviewTime = unixReviewTime;
+        this.asin = asin;
+    }
+
+    public String getReviewerID() {
+        return reviewerID;
+    }
+
+    public long getUnixReviewTime() {
+        return unixReviewTime;
+    }
+
+    public String getAsin() {
+        return asin;
+    }
+
+    /**
+     * Writes the key into a saved search index
+     */
+    public static void write(DataOutputStream out, ReviewKey key) throws IOException {
+        out.writeUTF(key.reviewerID);
+        out.writeLong(key.unixReviewTime);
+        out.writeUTF(key.asin);
+    }
+
+    /**
+     * Reads back a key written by write
+     */
+    public static ReviewKey read(DataInputStream in) throws IOException {
+        return new ReviewKey(in.readUTF(), in.readLong(), in.readUTF());
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof ReviewKey)) {
+            return false;
+        }
+        ReviewKey key = (ReviewKey) other;
+        return unixReviewTime == key.unixReviewTime && reviewerID.equals(key.reviewerID) && asin.equals(key.asin);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(reviewerID, unixReviewTime, asin);
+    }
+}
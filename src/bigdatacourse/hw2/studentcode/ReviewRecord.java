@@ -0,0 +1,133 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.util.Comparator;
+
+import org.json.JSONObject;
+
+/**
+ * A single review, as held by the local (non Cassandra) backends.
+ * The same record backs both the user_reviews and the item_reviews views.
+ * The summary and the review text may be left to a Text that reads them from storage the first time they are asked for,
+ * so scans that never format a review (counts, summaries, filters) do not decompress them.
+ */
+public class ReviewRecord {
+
+    /**
+     * A text that is read from storage when it is first asked for
+     */
+    public interface Text {
+        String read();
+    }
+
+    // Value of overall when the review has no rating
+    public static final float NO_RATING = -1;
+
+    // Clustering order of user_reviews: unixReviewTime DESC, asin ASC
+    public static final Comparator<ReviewRecord> USER_REVIEWS_ORDER =
+            Comparator.comparingLong(ReviewRecord::getUnixReviewTime).reversed()
+                    .thenComparing(ReviewRecord::getAsin);
+
+    // Clustering order of item_reviews: unixReviewTime DESC, reviewerID ASC
+    public static final Comparator<ReviewRecord> ITEM_REVIEWS_ORDER =
+            Comparator.comparingLong(ReviewRecord::getUnixReviewTime).reversed()
+                    .thenComparing(ReviewRecord::getReviewerID);
+
+    private final String reviewerID;
+    private final String asin;
+    private final String reviewerName;
+    private final float overall;
+    // The String, or the Text to read it from until it is asked for
+    private Object reviewText;
+    private Object summary;
+    private final long unixReviewTime;
+
+    public ReviewRecord(String reviewerID, String asin, String reviewerName, float overall,
+                        String reviewText, String summary, long unixReviewTime) {
+        this.reviewerID = reviewerID;
+        this.asin = asin;
+        this.reviewerName = reviewerName;
+        this.overall = overall;
+        this.reviewText = reviewText;
+        this.summary = summary;
+        this.unixReviewTime = unixReviewTime;
+    }
+
+    /**
+     * A review whose summary and review text are read when first asked for
+     */
+    public ReviewRecord(String reviewerID, String asin, String reviewerName, float overall,
+                        Text reviewText, Text summary, long unixReviewTime) {
+        this.reviewerID = reviewerID;
+        this.asin = asin;
+        this.reviewerName = reviewerName;
+        this.overall = overall;
+        this.reviewText = reviewText;
+        this.summary = summary;
+        this.unixReviewTime = unixReviewTime;
+    }
+
+    /**
+     * Extracts the review columns from a line of the reviews file
+     */
+    public static ReviewRecord fromJSON(JSONObject review) {
+        return new ReviewRecord(
+                review.getString("reviewerID"),
+                review.getString("asin"),
+                ItemRecord.emptyToNull(review.optString("reviewerName", null)),
+                (float) review.optDouble("overall", NO_RATING),
+                ItemRecord.emptyToNull(review.optString("reviewText", null)),
+                ItemRecord.emptyToNull(review.optString("summary", null)),
+                review.getLong("unixReviewTime"));
+    }
+
+    /**
+     * Rating as printed from user_reviews: the Cassandra loader leaves it unset (read back as 0) only when it is 0
+     */
+    public int getUserReviewsRating() {
+        return (int) overall;
+    }
+
+    /**
+     * Rating as printed from item_reviews: the Cassandra loader leaves it unset (read back as 0) when it is missing
+     */
+    public int getItemReviewsRating() {
+        return overall == NO_RATING ? 0 : (int) overall;
+    }
+
+    public String getReviewerID() {
+        return reviewerID;
+    }
+
+    public String getAsin() {
+        return asin;
+    }
+
+    public String getReviewerName() {
+        return reviewerName;
+    }
+
+    public float getOverall() {
+        return overall;
+    }
+
+    public String getReviewText() {
+        Object text = reviewText;
+        if (text instanceof Text) {
+            // Strings are immutable, a thread that races here reads the text once more but never sees it half set
+            text = reviewText = ((Text) text).read();
+        }
+        return (String) text;
+    }
+
+    public String getSummary() {
+        Object text = summary;
+        if (text instanceof Text) {
+            text = summary = ((Text) text).read();
+        }
+        return (String) text;
+    }
+
+    public long getUnixReviewTime() {
+        return unixReviewTime;
+    }
+}
@@ -0,0 +1,176 @@
+package bigdatacourse.hw2.studentcode;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Running aggregate of a group of reviews (an item's or a reviewer's):
+ * number of reviews, sum of ratings, rating histogram and the time range of the reviews.
+ * The local backends keep one per partition up to date as reviews are stored, a review written again with the
+ * same primary key only changes its rating (see replace); HW2StudentAnswer aggregates the partitions a load touched
+ * once the load is done.
+ */
+public class ReviewStats {
+
+    // Ratings are 1 to 5 stars, anything else is counted but left out of the histogram
+    public static final int MIN_RATING = 1;
+    public static final int MAX_RATING = 5;
+
+    // Bytes of an encoded aggregate: reviews, sumOverall, the histogram, firstReviewTime, lastReviewTime
+    public static final int ENCODED_BYTES = Integer.BYTES + Double.BYTES + MAX_RATING * Integer.BYTES + 2 * Long.BYTES;
+
+    private int reviews;
+    private double sumOverall;
+    private final int[] ratings = new int[MAX_RATING + 1];
+    private long firstReviewTime = Long.MAX_VALUE;
+    private long lastReviewTime = Long.MIN_VALUE;
+
+    /**
+     * Adds a single review to the aggregate, safe to call from several loader threads
+     */
+    public synchronized void add(float overall, long unixReviewTime) {
+        reviews++;
+        int rating = (int) overall;
+        if (isRating(rating)) {
+            sumOverall += overall;
+            ratings[rating]++;
+        }
+        firstReviewTime = Math.min(firstReviewTime, unixReviewTime);
+        lastReviewTime = Math.max(lastReviewTime, unixReviewTime);
+    }
+
+    /**
+     * Changes the rating of a review already counted, for a review replaced by a later write with the same primary key.
+     * The primary key holds the review time, so the time range does not change
+     */
+    public synchronized void replace(float previousOverall, float overall) {
+        int previousRating = (int) previousOverall;
+        if (isRating(previousRating)) {
+            sumOverall -= previousOverall;
+            ratings[previousRating]--;
+        }
+        int rating = (int) overall;
+        if (isRating(rating)) {
+            sumOverall += overall;
+            ratings[rating]++;
+        }
+    }
+
+    /**
+     * Adds another aggregate, such as the reviews of a load, to this one
+     * @return This aggregate
+     */
+    public ReviewStats merge(ReviewStats other) {
+        // Encoding copies the other aggregate under its own lock, so two aggregates are never locked together
+        ByteBuffer added = ByteBuffer.wrap(other.encode());
+        synchronized (this) {
+            reviews += added.getInt();
+            sumOverall += added.getDouble();
+            for (int rating = MIN_RATING; rating <= MAX_RATING; rating++) {
+                ratings[rating] += added.getInt();
+            }
+            firstReviewTime = Math.min(firstReviewTime, added.getLong());
+            lastReviewTime = Math.max(lastReviewTime, added.getLong());
+        }
+        return this;
+    }
+
+    /**
+     * @return The aggregate in ENCODED_BYTES bytes, read back with decode
+     */
+    public synchronized byte[] encode() {
+        ByteBuffer encoded = ByteBuffer.allocate(ENCODED_BYTES).putInt(reviews).putDouble(sumOverall);
+        for (int rating = MIN_RATING; rating <= MAX_RATING; rating++) {
+            encoded.putInt(ratings[rating]);
+        }
+        return encoded.putLong(firstReviewTime).putLong(lastReviewTime).array();
+    }
+
+    /**
+     * Reads an aggregate written by encode, from the position of the buffer
+     */
+    public static ReviewStats decode(ByteBuffer encoded) {
+        ReviewStats stats = new ReviewStats();
+        stats.reviews = encoded.getInt();
+        stats.sumOverall = encoded.getDouble();
+        for (int rating = MIN_RATING; rating <= MAX_RATING; rating++) {
+            stats.ratings[rating] = encoded.getInt();
+        }
+        stats.firstReviewTime = encoded.getLong();
+        stats.lastReviewTime = encoded.getLong();
+        return stats;
+    }
+
+    /**
+     * @return Whether the rating is one of the 1 to 5 stars (unrated reviews have none)
+     */
+    public static boolean isRating(int rating) {
+        return rating >= MIN_RATING && rating <= MAX_RATING;
+    }
+
+    /**
+     * Validates the rating of a filtered review query
+     */
+    public static void checkRating(int rating) {
+        if (!isRating(rating)) {
+            throw new IllegalArgumentException("rating must be between " + MIN_RATING + " and " + MAX_RATING + ": " + rating);
+        }
+    }
+
+    public synchronized int getReviews() {
+        return reviews;
+    }
+
+    public synchronized double getSumOverall() {
+        return sumOverall;
+    }
+
+    /**
+     * @return Number of reviews per rating, for every rating from MIN_RATING to MAX_RATING
+     */
+    public synchronized Map<Integer, Integer> getRatings() {
+        Map<Integer, Integer> histogram = new TreeMap<>();
+        for (int rating = MIN_RATING; rating <= MAX_RATING; rating++) {
+            histogram.put(rating, ratings[rating]);
+        }
+        return histogram;
+    }
+
+    public synchronized long getFirstReviewTime() {
+        return firstReviewTime;
+    }
+
+    public synchronized long getLastReviewTime() {
+        return lastReviewTime;
+    }
+
+    /**
+     * Formats an aggregate read back from storage
+     * @param keyName Name of the grouping key (asin or reviewerID)
+     * @param key Value of the grouping key
+     * @return A single line describing the aggregate
+     */
+    public static String format(String keyName, String key, int reviews, double sumOverall,
+                                Map<Integer, Integer> ratings, long firstReviewTime, long lastReviewTime) {
+        int rated = 0;
+        for (int count : ratings.values()) {
+            rated += count;
+        }
+        return keyName + ": " + key +
+                ", reviews: " + reviews +
+                ", average rating: " + (rated == 0 ? HW2StudentAnswer.NOT_AVAILABLE_VALUE : String.format(Locale.ROOT, "%.2f", sumOverall / rated)) +
+                ", ratings: " + new TreeMap<>(ratings) +
+                ", first review: " + Instant.ofEpochSecond(firstReviewTime) +
+                ", last review: " + Instant.ofEpochSecond(lastReviewTime) + "\n";
+    }
+
+    /**
+     * Formats this aggregate
+     */
+    public synchronized String format(String keyName, String key) {
+        return format(keyName, key, reviews, sumOverall, getRatings(), firstReviewTime, lastReviewTime);
+    }
+}
@@ -0,0 +1,151 @@
+package bigdatacourse.hw2.studentcode.compress;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only store of long texts compressed in blocks of BLOCK_TEXTS texts.
+ * The first SAMPLE_TEXTS texts are kept as they are and used to train a preset dictionary, from then on
+ * every full block is deflated with it. A text is referred to by the number returned by add, and is only
+ * inflated (with the rest of its block) when get is called; a Reader keeps the blocks a scan inflated
+ * so that their other texts are read without inflating them again.
+ */
+public final class CompressedTextStore {
+
+    public static final long NO_TEXT = -1;
+
+    private static final int BLOCK_TEXTS = 32;
+    private static final int SAMPLE_TEXTS = 1024;
+
+    // Full blocks, either String[] (not compressed yet) or byte[] (compressed)
+    private final List<Object> blocks = new ArrayList<>();
+    private String[] current = new String[BLOCK_TEXTS];
+    private int currentSize;
+    private volatile byte[] dictionary;
+    private boolean trained;
+
+    /**
+     * @return The reference of the text, NO_TEXT for null
+     */
+    public long add(String text) {
+        if (text == null) {
+            return NO_TEXT;
+        }
+
+        String[] full = null;
+        int fullBlock = 0;
+        long reference;
+        synchronized (this) {
+            reference = (long) blocks.size() * BLOCK_TEXTS + currentSize;
+            current[currentSize++] = text;
+            if (currentSize == BLOCK_TEXTS) {
+                full = current;
+                fullBlock = blocks.size();
+                blocks.add(full);
+                current = new String[BLOCK_TEXTS];
+                currentSize = 0;
+                if (!trained && blocks.size() * BLOCK_TEXTS >= SAMPLE_TEXTS) {
+                    train();
+                    full = null;
+                }
+            }
+        }
+
+        // Compress outside the lock so other loader threads keep adding
+        if (full != null && trained()) {
+            byte[] compressed = TextBlocks.deflate(TextBlocks.encode(Arrays.asList(full)), dictionary);
+            synchronized (this) {
+                blocks.set(fullBlock, compressed);
+            }
+        }
+        return reference;
+    }
+
+    private synchronized boolean trained() {
+        return trained;
+    }
+
+    /**
+     * Trains the dictionary on the blocks kept so far and compresses them, called under the lock
+     */
+    private void train() {
+        List<String> sample = new ArrayList<>();
+        for (Object block : blocks) {
+            sample.addAll(Arrays.asList((String[]) block));
+        }
+        dictionary = TextDictionary.train(sample);
+        for (int i = 0; i < blocks.size(); i++) {
+            blocks.set(i, TextBlocks.deflate(TextBlocks.encode(Arrays.asList((String[]) blocks.get(i))), dictionary));
+        }
+        trained = true;
+    }
+
+    /**
+     * @return The text of the reference, inflating its block if it is compressed
+     */
+    public String get(long reference) {
+        if (reference == NO_TEXT) {
+            return null;
+        }
+        return text(block((int) (reference / BLOCK_TEXTS)), (int) (reference % BLOCK_TEXTS));
+    }
+
+    /**
+     * @return A reader for the texts of one scan
+     */
+    public Reader reader() {
+        return new Reader();
+    }
+
+    /**
+     * Reads texts for a single scan, keeping the last CACHED_BLOCKS blocks it inflated so that the texts of a block
+     * that a scan asks for one after the other inflate it once. Not thread safe, every scan takes its own
+     */
+    public final class Reader {
+
+        private static final int CACHED_BLOCKS = 16;
+
+        private final Map<Integer, Object> cached = new LinkedHashMap<Integer, Object>(CACHED_BLOCKS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Object> eldest) {
+                return size() > CACHED_BLOCKS;
+            }
+        };
+
+        private Reader() {
+        }
+
+        /**
+         * @return The text of the reference, inflating its block unless this reader still holds it
+         */
+        public String get(long reference) {
+            if (reference == NO_TEXT) {
+                return null;
+            }
+            Object block = cached.computeIfAbsent((int) (reference / BLOCK_TEXTS), CompressedTextStore.this::block);
+            return text(block, (int) (reference % BLOCK_TEXTS));
+        }
+    }
+
+    /**
+     * @return The texts of the block, String[] as added or its raw inflated encoding
+     */
+    private Object block(int block) {
+        Object stored;
+        synchronized (this) {
+            stored = block < blocks.size() ? blocks.get(block) : current;
+        }
+        if (stored instanceof String[]) {
+            return stored;
+        }
+        return TextBlocks.inflate(ByteBuffer.wrap((byte[]) stored), dictionary);
+    }
+
+    private static String text(Object block, int index) {
+        return block instanceof String[] ? ((String[]) block)[index] : TextBlocks.get((byte[]) block, index);
+    }
+}
@@ -0,0 +1,114 @@
+package bigdatacourse.hw2.studentcode.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encoding and compression of blocks of texts.
+ * A raw block is the concatenation of its texts, each as a varint of (UTF-8 length + 1, 0 for null)
+ * followed by the bytes. Blocks are compressed with raw deflate, optionally primed with a preset
+ * dictionary (see TextDictionary) so that even small blocks compress well.
+ */
+public final class TextBlocks {
+
+    private TextBlocks() {
+    }
+
+    public static byte[] encode(List<String> texts) {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(256 * texts.size());
+        for (String text : texts) {
+            byte[] bytes = text == null ? null : text.getBytes(StandardCharsets.UTF_8);
+            int length = bytes == null ? 0 : bytes.length + 1;
+            while ((length & ~0x7f) != 0) {
+                raw.write((length & 0x7f) | 0x80);
+                length >>>= 7;
+            }
+            raw.write(length);
+            if (bytes != null) {
+                raw.write(bytes, 0, bytes.length);
+            }
+        }
+        return raw.toByteArray();
+    }
+
+    /**
+     * @return The index-th text of a raw block
+     */
+    public static String get(byte[] raw, int index) {
+        int position = 0;
+        for (;;) {
+            int length = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = raw[position++];
+                length |= (b & 0x7f) << shift;
+                if (b >= 0) {
+                    break;
+                }
+            }
+            if (index-- == 0) {
+                return length == 0 ? null : new String(raw, position, length - 1, StandardCharsets.UTF_8);
+            }
+            position += Math.max(0, length - 1);
+        }
+    }
+
+    /**
+     * @param dictionary Preset dictionary, or null
+     */
+    public static byte[] deflate(byte[] raw, byte[] dictionary) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(raw.length / 2 + 16);
+            byte[] buffer = new byte[8 * 1024];
+            while (!deflater.finished()) {
+                compressed.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return compressed.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param compressed The compressed block, read in place (it can be a view of a mapped file)
+     * @param dictionary The dictionary the block was compressed with, or null
+     * @return The raw block
+     */
+    public static byte[] inflate(ByteBuffer compressed, byte[] dictionary) {
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(compressed);
+            if (dictionary != null) {
+                inflater.setDictionary(dictionary);
+            }
+            byte[] raw = new byte[Math.max(64, compressed.remaining() * 4)];
+            int size = 0;
+            while (!inflater.finished()) {
+                if (size == raw.length) {
+                    raw = Arrays.copyOf(raw, raw.length * 2);
+                }
+                int inflated = inflater.inflate(raw, size, raw.length - size);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new DataFormatException("truncated block");
+                }
+                size += inflated;
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IllegalStateException("corrupt text block", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
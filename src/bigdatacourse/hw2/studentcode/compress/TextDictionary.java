@@ -0,0 +1,73 @@
+package bigdatacourse.hw2.studentcode.compress;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trains a preset deflate dictionary from a sample of texts.
+ * The dictionary is made of the words that would save the most bytes (occurrences x length),
+ * each with its leading space. Deflate finds matches closer to the end of the dictionary with
+ * shorter distances, so the most valuable words are placed last.
+ */
+public final class TextDictionary {
+
+    // Deflate can only reference the last 32KB
+    public static final int MAX_SIZE = 32 * 1024;
+
+    private TextDictionary() {
+    }
+
+    /**
+     * @return The dictionary, or null if the sample holds nothing worth sharing
+     */
+    public static byte[] train(Iterable<String> sample) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (String text : sample) {
+            if (text == null) {
+                continue;
+            }
+            for (String word : text.split(" ")) {
+                if (word.length() > 2) {
+                    counts.merge(" " + word, 1, Integer::sum);
+                }
+            }
+        }
+
+        // A word seen once saves nothing
+        List<Map.Entry<String, Integer>> words = new ArrayList<>();
+        for (Map.Entry<String, Integer> word : counts.entrySet()) {
+            if (word.getValue() > 1) {
+                words.add(word);
+            }
+        }
+        words.sort((a, b) -> Long.compare(score(b), score(a)));
+
+        List<byte[]> selected = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> word : words) {
+            byte[] bytes = word.getKey().getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length > MAX_SIZE) {
+                continue;
+            }
+            selected.add(bytes);
+            size += bytes.length;
+        }
+        if (selected.isEmpty()) {
+            return null;
+        }
+
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            dictionary.write(selected.get(i), 0, selected.get(i).length);
+        }
+        return dictionary.toByteArray();
+    }
+
+    private static long score(Map.Entry<String, Integer> word) {
+        return (long) (word.getValue() - 1) * word.getKey().length();
+    }
+}
@@ -0,0 +1,88 @@
+package bigdatacourse.hw2.studentcode.lsm;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Bloom filter over byte sequences, used by segments to skip partitions they do not hold.
+ * The k probe positions are derived from a single 64-bit hash (double hashing).
+ */
+final class BloomFilter {
+
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int HASHES = 7;
+
+    private final long[] bits;
+    private final int hashes;
+
+    BloomFilter(long expectedEntries) {
+        long numBits = Math.max(64, expectedEntries * BITS_PER_ENTRY);
+        this.bits = new long[(int) Math.min(Integer.MAX_VALUE - 8, (numBits + 63) / 64)];
+        this.hashes = HASHES;
+    }
+
+    private BloomFilter(long[] bits, int hashes) {
+        this.bits = bits;
+        this.hashes = hashes;
+    }
+
+    void add(byte[] data, int offset, int length) {
+        long hash = hash(data, offset, length);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long numBits = (long) bits.length * 64;
+        for (int i = 1; i <= hashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            bits[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    boolean mightContain(byte[] data, int offset, int length) {
+        long hash = hash(data, offset, length);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long numBits = (long) bits.length * 64;
+        for (int i = 1; i <= hashes; i++) {
+            long bit = ((h1 + (long) i * h2) & Long.MAX_VALUE) % numBits;
+            if ((bits[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    void writeTo(DataOutput out) throws IOException {
+        out.writeInt(hashes);
+        out.writeInt(bits.length);
+        for (long word : bits) {
+            out.writeLong(word);
+        }
+    }
+
+    static BloomFilter readFrom(DataInput in) throws IOException {
+        int hashes = in.readInt();
+        long[] bits = new long[in.readInt()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = in.readLong();
+        }
+        return new BloomFilter(bits, hashes);
+    }
+
+    /**
+     * 64-bit FNV-1a followed by the murmur3 finalizer to spread the bits
+     */
+    static long hash(byte[] data, int offset, int length) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= data[i] & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
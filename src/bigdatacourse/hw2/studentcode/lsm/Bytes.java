@@ -0,0 +1,98 @@
+package bigdatacourse.hw2.studentcode.lsm;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Helpers for the byte[] keys and the varint framing shared by the log and the segments.
+ * Keys are compared as unsigned bytes, and the partition of a key is everything up to and
+ * including its first 0x00 separator.
+ */
+final class Bytes {
+
+    static final Comparator<byte[]> ORDER = Arrays::compareUnsigned;
+
+    static final byte SEPARATOR = 0;
+
+    private Bytes() {
+    }
+
+    /**
+     * @return Length of the partition component of the key (the whole key if it has no separator)
+     */
+    static int partitionLength(byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] == SEPARATOR) {
+                return i + 1;
+            }
+        }
+        return key.length;
+    }
+
+    /**
+     * @return The smallest key greater than every key starting with prefix
+     */
+    static byte[] prefixEnd(byte[] prefix) {
+        byte[] end = Arrays.copyOf(prefix, prefix.length);
+        for (int i = end.length - 1; i >= 0; i--) {
+            if (end[i] != (byte) 0xff) {
+                end[i]++;
+                return Arrays.copyOf(end, i + 1);
+            }
+        }
+        return null;
+    }
+
+    static boolean startsWith(byte[] key, byte[] prefix) {
+        return key.length >= prefix.length && Arrays.equals(key, 0, prefix.length, prefix, 0, prefix.length);
+    }
+
+    static int varIntSize(int value) {
+        int size = 1;
+        while ((value & ~0x7f) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static void putVarInt(ByteBuffer buffer, int value) {
+        while ((value & ~0x7f) != 0) {
+            buffer.put((byte) ((value & 0x7f) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static int getVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * @return Size of an encoded key/value entry
+     */
+    static int entrySize(byte[] key, byte[] value) {
+        return varIntSize(key.length) + key.length + varIntSize(value.length) + value.length;
+    }
+
+    static void putEntry(ByteBuffer buffer, byte[] key, byte[] value) {
+        putVarInt(buffer, key.length);
+        buffer.put(key);
+        putVarInt(buffer, value.length);
+        buffer.put(value);
+    }
+
+    static byte[] getBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[getVarInt(buffer)];
+        buffer.get(bytes);
+        return bytes;
+    }
+}
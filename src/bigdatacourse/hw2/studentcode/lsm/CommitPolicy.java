@@ -0,0 +1,38 @@
+package bigdatacourse.hw2.studentcode.lsm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * When the write-ahead logs of a store are forced to disk, trading write latency for throughput.
+ * A single force covers every append made since the previous one, whatever thread made it (group commit),
+ * so the cost of forcing is shared by all the writes of a group:
+ * - groupCommit: put returns once its write is on disk. The thread that forces first waits up to maxDelay,
+ *   until maxBytes are appended or until every thread writing has joined, for more writes to join its group.
+ * - periodic: put returns right away, the log is forced by the first put after maxDelay or maxBytes,
+ *   or by the store's timer when no put comes, so a crash loses at most about that much.
+ * - ON_ROTATION: the log is only forced when its memtable is rotated out or the store is closed.
+ */
+public final class CommitPolicy {
+
+    public static final CommitPolicy ON_ROTATION = new CommitPolicy(Long.MAX_VALUE, Long.MAX_VALUE, false);
+
+    public static final CommitPolicy DEFAULT = periodic(50, 1L << 20);
+
+    final long maxDelayNanos;
+    final long maxBytes;
+    final boolean waitForSync;
+
+    private CommitPolicy(long maxDelayNanos, long maxBytes, boolean waitForSync) {
+        this.maxDelayNanos = maxDelayNanos;
+        this.maxBytes = maxBytes;
+        this.waitForSync = waitForSync;
+    }
+
+    public static CommitPolicy groupCommit(long maxDelayMillis, long maxBytes) {
+        return new CommitPolicy(TimeUnit.MILLISECONDS.toNanos(maxDelayMillis), maxBytes, true);
+    }
+
+    public static CommitPolicy periodic(long maxDelayMillis, long maxBytes) {
+        return new CommitPolicy(TimeUnit.MILLISECONDS.toNanos(maxDelayMillis), maxBytes, false);
+    }
+}
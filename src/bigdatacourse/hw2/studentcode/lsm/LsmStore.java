@@ -0,0 +1,601 @@
+package bigdatacourse.hw2.studentcode.lsm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Log-structured, sorted key-value store for a single table, kept in its own directory.
+ * Writes go to the write-ahead log, forced to disk in groups according to a CommitPolicy, and to the active memtable.
+ * With a periodic policy a timer also forces a log that stopped receiving writes, and sync forces everything on demand.
+ * A full memtable is rotated out and flushed in the background into an immutable segment file (sorted blocks, sparse index and Bloom filter).
+ * Compaction is size-tiered and runs on its own thread: once COMPACTION_TRIGGER adjacent segments have similar sizes they are
+ * merged into one of the next tier, so every entry is rewritten about once per tier rather than on every compaction.
+ * Reads merge the memtables and the segments, newest first, so the latest write of a key wins. Readers hold a reference on the
+ * segments they read, and a segment replaced by a compaction is closed once its last reader is done.
+ *
+ * Keys are compared as unsigned bytes; the bytes up to the first 0x00 are the partition of the key,
+ * which is what the Bloom filters index so that partition scans skip segments that do not hold it.
+ */
+public class LsmStore implements Closeable {
+
+    public static final long DEFAULT_MEMTABLE_BYTES = 64L << 20;
+
+    // Number of adjacent segments of a tier that triggers a compaction, and most segments merged at once
+    private static final int COMPACTION_TRIGGER = 4;
+    private static final int MAX_COMPACTION_INPUTS = 32;
+
+    // Segments are in the same tier when the largest is at most TIER_RATIO times the smallest;
+    // anything under MIN_TIER_BYTES counts as MIN_TIER_BYTES so the small segments form a single tier
+    private static final int TIER_RATIO = 2;
+    private static final long MIN_TIER_BYTES = 1L << 20;
+
+    // Writers wait for the flush of the memtable they rotated beyond this many pending flushes
+    private static final int MAX_PENDING_FLUSHES = 2;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".sst";
+    private static final String WAL_PREFIX = "wal-";
+    private static final String WAL_SUFFIX = ".log";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final byte[] NO_KEY = new byte[0];
+
+    // Forces the logs that went idle with writes waiting for their periodic sync, shared by the stores
+    private static final ScheduledExecutorService LOG_TIMER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "lsm-log-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Immutable view of the store, replaced as a whole whenever a memtable or a segment comes or goes
+     */
+    private static final class State {
+        final Memtable active;
+        final List<Memtable> flushing;  // newest first
+        final List<Segment> segments;   // newest first
+
+        State(Memtable active, List<Memtable> flushing, List<Segment> segments) {
+            this.active = active;
+            this.flushing = Collections.unmodifiableList(flushing);
+            this.segments = Collections.unmodifiableList(segments);
+        }
+    }
+
+    private final Path directory;
+    private final long memtableBytes;
+    private final CommitPolicy commitPolicy;
+    private final AtomicLong nextSequence;
+    private final ReentrantReadWriteLock rotationLock = new ReentrantReadWriteLock();
+    private final ExecutorService background;
+    private final ExecutorService compactor;
+    // Segments replaced by a compaction that readers still hold
+    private final List<Segment> retired = new ArrayList<>();
+    private final ScheduledFuture<?> logTimer;
+    private volatile State state;
+
+    private LsmStore(Path directory, long memtableBytes, CommitPolicy commitPolicy, long nextSequence,
+                     List<Segment> segments) throws IOException {
+        this.directory = directory;
+        this.memtableBytes = memtableBytes;
+        this.commitPolicy = commitPolicy;
+        this.nextSequence = new AtomicLong(nextSequence);
+        this.background = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lsm-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "lsm-compaction-" + directory.getFileName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.state = new State(newMemtable(), new ArrayList<>(), segments);
+        this.logTimer = commitPolicy.waitForSync || commitPolicy.maxDelayNanos == Long.MAX_VALUE ? null
+                : LOG_TIMER.scheduleWithFixedDelay(this::syncIdleLog, commitPolicy.maxDelayNanos,
+                        commitPolicy.maxDelayNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Opens (or creates) the store in the directory, flushing whatever was left in the logs by a previous run
+     * @param memtableBytes Size of the memtable that triggers a flush
+     */
+    public static LsmStore open(Path directory, long memtableBytes) throws IOException {
+        return open(directory, memtableBytes, CommitPolicy.DEFAULT);
+    }
+
+    /**
+     * Opens (or creates) the store in the directory, flushing whatever was left in the logs by a previous run
+     * @param memtableBytes Size of the memtable that triggers a flush
+     * @param commitPolicy When the write-ahead logs are forced to disk
+     */
+    public static LsmStore open(Path directory, long memtableBytes, CommitPolicy commitPolicy) throws IOException {
+        Files.createDirectories(directory);
+
+        TreeMap<Long, Path> segmentFiles = new TreeMap<>();
+        TreeMap<Long, Path> walFiles = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(TMP_SUFFIX)) {
+                    Files.delete(file);
+                } else if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    segmentFiles.put(sequenceOf(name, SEGMENT_PREFIX, SEGMENT_SUFFIX), file);
+                } else if (name.startsWith(WAL_PREFIX) && name.endsWith(WAL_SUFFIX)) {
+                    walFiles.put(sequenceOf(name, WAL_PREFIX, WAL_SUFFIX), file);
+                }
+            }
+        }
+
+        // Logs whose memtable never made it to a segment are replayed and flushed right away.
+        // Every log becomes its own segment with the log's sequence, so they are replayed in parallel
+        List<Future<Path>> replays = new ArrayList<>();
+        ExecutorService replay = Executors.newFixedThreadPool(Math.max(1, Math.min(walFiles.size(),
+                Runtime.getRuntime().availableProcessors())));
+        try {
+            for (Map.Entry<Long, Path> wal : walFiles.entrySet()) {
+                long sequence = wal.getKey();
+                if (segmentFiles.containsKey(sequence)) {
+                    replays.add(null);
+                    continue;
+                }
+                replays.add(replay.submit(() -> {
+                    Memtable memtable = new Memtable(sequence, null);
+                    WriteAheadLog.replay(wal.getValue(), memtable::apply);
+                    return memtable.getEntries().isEmpty() ? null : writeSegment(directory, sequence,
+                            memtable.getEntries().entrySet().iterator(), memtable.getEntries().size());
+                }));
+            }
+            int i = 0;
+            for (Map.Entry<Long, Path> wal : walFiles.entrySet()) {
+                Future<Path> replayed = replays.get(i++);
+                Path segment = replayed == null ? null : replayed.get();
+                if (segment != null) {
+                    segmentFiles.put(wal.getKey(), segment);
+                }
+                Files.delete(wal.getValue());
+            }
+        } catch (InterruptedException e) {
+            // The logs that were not replayed yet are kept for the next open
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted replaying the logs");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        } finally {
+            replay.shutdown();
+        }
+
+        List<Segment> segments = new ArrayList<>();
+        for (Map.Entry<Long, Path> segment : segmentFiles.descendingMap().entrySet()) {
+            segments.add(new Segment(segment.getKey(), segment.getValue()));
+        }
+
+        long nextSequence = Math.max(
+                segmentFiles.isEmpty() ? 0 : segmentFiles.lastKey(),
+                walFiles.isEmpty() ? 0 : walFiles.lastKey()) + 1;
+        return new LsmStore(directory, memtableBytes, commitPolicy, nextSequence, segments);
+    }
+
+    /**
+     * Writes (or overwrites) a key
+     */
+    public void put(byte[] key, byte[] value) throws IOException {
+        Memtable active;
+        rotationLock.readLock().lock();
+        try {
+            active = state.active;
+            active.put(key, value);
+        } finally {
+            rotationLock.readLock().unlock();
+        }
+
+        if (active.getBytes() >= memtableBytes) {
+            rotateIfFull(active);
+        }
+    }
+
+    /**
+     * @return The latest value of the key or null if it was never written
+     */
+    public byte[] get(byte[] key) throws IOException {
+        State current = acquire();
+        try {
+            byte[] value = current.active.getEntries().get(key);
+            if (value != null) {
+                return value;
+            }
+            for (Memtable memtable : current.flushing) {
+                value = memtable.getEntries().get(key);
+                if (value != null) {
+                    return value;
+                }
+            }
+            for (Segment segment : current.segments) {
+                value = segment.get(key);
+                if (value != null) {
+                    return value;
+                }
+            }
+            return null;
+        } finally {
+            release(current.segments);
+        }
+    }
+
+    /**
+     * @return The entries whose key starts with the prefix, in key order. The segments read are released once
+     * the iterator is exhausted, an iterator left unfinished keeps them open until the store is closed
+     */
+    public Iterator<Map.Entry<byte[], byte[]>> scanPrefix(byte[] prefix) {
+        return scan(prefix, Bytes.prefixEnd(prefix), prefix);
+    }
+
+    /**
+     * @return The entries with from <= key < to, in key order, for a range within the partition of from;
+     * like scanPrefix, the iterator is meant to be exhausted
+     */
+    public Iterator<Map.Entry<byte[], byte[]>> scanRange(byte[] from, byte[] to) {
+        return scan(from, to, Arrays.copyOf(from, Bytes.partitionLength(from)));
+    }
+
+    /**
+     * @return Every entry of the store, in key order; like scanPrefix, the iterator is meant to be exhausted
+     */
+    public Iterator<Map.Entry<byte[], byte[]>> scanAll() {
+        return scan(NO_KEY, null, null);
+    }
+
+    /**
+     * @param partition The partition that holds the whole range, so that segments can be skipped by their Bloom filter,
+     * or null
+     */
+    private Iterator<Map.Entry<byte[], byte[]>> scan(byte[] from, byte[] to, byte[] partition) {
+        State current = acquire();
+
+        List<Iterator<Map.Entry<byte[], byte[]>>> sources = new ArrayList<>();
+        List<Segment> read = new ArrayList<>();
+        sources.add(range(current.active.getEntries(), from, to));
+        for (Memtable memtable : current.flushing) {
+            sources.add(range(memtable.getEntries(), from, to));
+        }
+        for (Segment segment : current.segments) {
+            if (partition == null || segment.mightContainPartition(partition)) {
+                sources.add(segment.scan(from, to));
+                read.add(segment);
+            } else {
+                segment.release();
+            }
+        }
+        if (read.isEmpty()) {
+            return sources.size() == 1 ? sources.get(0) : new MergingIterator(sources);
+        }
+
+        Iterator<Map.Entry<byte[], byte[]>> entries = new MergingIterator(sources);
+        return new Iterator<Map.Entry<byte[], byte[]>>() {
+            private boolean released;
+
+            @Override
+            public boolean hasNext() {
+                if (entries.hasNext()) {
+                    return true;
+                }
+                if (!released) {
+                    released = true;
+                    release(read);
+                }
+                return false;
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                return entries.next();
+            }
+        };
+    }
+
+    /**
+     * @return The current state, with a reference retained on each of its segments (see release)
+     */
+    private State acquire() {
+        for (;;) {
+            State current = state;
+            int retained = 0;
+            while (retained < current.segments.size() && current.segments.get(retained).retain()) {
+                retained++;
+            }
+            if (retained == current.segments.size()) {
+                return current;
+            }
+            release(current.segments.subList(0, retained));
+            // A compaction swaps the state before it releases its inputs, otherwise the segments were released by close
+            if (state == current) {
+                throw new IllegalStateException("store is closed: " + directory);
+            }
+        }
+    }
+
+    private static void release(List<Segment> segments) {
+        for (Segment segment : segments) {
+            segment.release();
+        }
+    }
+
+    /**
+     * Forces every write made so far to disk, whatever the commit policy
+     */
+    public void sync() throws IOException {
+        State current = state;
+        current.active.getWal().sync();
+        // Rotated memtables have their log forced when they are flushed, which may not have happened yet
+        for (Memtable memtable : current.flushing) {
+            memtable.getWal().sync();
+        }
+    }
+
+    /**
+     * Runs on the log timer, forces the active log if its oldest unsynced write is past the policy's delay
+     */
+    private void syncIdleLog() {
+        try {
+            state.active.getWal().syncIfDue();
+        } catch (IOException e) {
+            // The next append or tick tries again
+            e.printStackTrace();
+        }
+    }
+
+    private static Iterator<Map.Entry<byte[], byte[]>> range(NavigableMap<byte[], byte[]> entries, byte[] from, byte[] to) {
+        return (to == null ? entries.tailMap(from, true) : entries.subMap(from, true, to, false)).entrySet().iterator();
+    }
+
+    /**
+     * Flushes the memtable and waits for the background work and compactions, the store is then fully on disk in segments
+     */
+    @Override
+    public void close() throws IOException {
+        if (logTimer != null) {
+            logTimer.cancel(false);
+        }
+        Future<?> flush = null;
+        rotationLock.writeLock().lock();
+        try {
+            if (!state.active.getEntries().isEmpty()) {
+                flush = rotate();
+            }
+        } finally {
+            rotationLock.writeLock().unlock();
+        }
+        await(flush);
+
+        // Flushes schedule compactions, so the flushes are finished first
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.HOURS);
+            compactor.shutdown();
+            compactor.awaitTermination(1, TimeUnit.HOURS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        State current = state;
+        current.active.getWal().close();
+        Files.deleteIfExists(current.active.getWal().getPath());
+        release(current.segments);
+        synchronized (this) {
+            // Segments of iterators that were never finished
+            for (Segment segment : retired) {
+                segment.close();
+            }
+            retired.clear();
+        }
+    }
+
+    private void rotateIfFull(Memtable full) throws IOException {
+        Future<?> flush;
+        int pending;
+        rotationLock.writeLock().lock();
+        try {
+            // Another writer may have rotated it already
+            if (state.active != full) {
+                return;
+            }
+            flush = rotate();
+            pending = state.flushing.size();
+        } finally {
+            rotationLock.writeLock().unlock();
+        }
+
+        // Back pressure, loading can not outrun the flushes by more than a few memtables
+        if (pending > MAX_PENDING_FLUSHES) {
+            await(flush);
+        }
+    }
+
+    /**
+     * Swaps in a fresh memtable and schedules the flush of the current one, called under the rotation write lock
+     */
+    private Future<?> rotate() throws IOException {
+        Memtable frozen = state.active;
+        Memtable fresh = newMemtable();
+        synchronized (this) {
+            List<Memtable> flushing = new ArrayList<>(state.flushing);
+            flushing.add(0, frozen);
+            state = new State(fresh, flushing, state.segments);
+        }
+        return background.submit(() -> {
+            try {
+                flush(frozen);
+            } catch (IOException e) {
+                // The memtable stays readable and its log is replayed on the next open
+                e.printStackTrace();
+                return;
+            }
+            compactor.execute(() -> {
+                try {
+                    compactIfNeeded();
+                } catch (IOException e) {
+                    // The inputs stay in place, the next flush tries again
+                    e.printStackTrace();
+                }
+            });
+        });
+    }
+
+    private void flush(Memtable memtable) throws IOException {
+        memtable.getWal().close();
+        Path path = writeSegment(directory, memtable.getSequence(), memtable.getEntries().entrySet().iterator(),
+                memtable.getEntries().size());
+        Segment segment = new Segment(memtable.getSequence(), path);
+
+        synchronized (this) {
+            List<Memtable> flushing = new ArrayList<>(state.flushing);
+            flushing.remove(memtable);
+            List<Segment> segments = new ArrayList<>(state.segments);
+            segments.add(0, segment);
+            state = new State(state.active, flushing, segments);
+        }
+        Files.delete(memtable.getWal().getPath());
+    }
+
+    /**
+     * Merges the tiers that have filled up, one at a time, runs on the compaction thread
+     */
+    private void compactIfNeeded() throws IOException {
+        List<Segment> inputs;
+        while (!(inputs = nextCompaction(state.segments)).isEmpty()) {
+            compact(inputs);
+        }
+    }
+
+    /**
+     * @return The newest run of at least COMPACTION_TRIGGER adjacent segments of the same tier (at most
+     * MAX_COMPACTION_INPUTS of them), or nothing. Only adjacent segments are merged, so the output can take
+     * their place in the newest first order
+     */
+    private static List<Segment> nextCompaction(List<Segment> segments) {
+        for (int start = 0; start + COMPACTION_TRIGGER <= segments.size(); start++) {
+            long smallest = tierBytes(segments.get(start));
+            long largest = smallest;
+            int end = start + 1;
+            while (end < segments.size() && end - start < MAX_COMPACTION_INPUTS) {
+                long bytes = tierBytes(segments.get(end));
+                if (Math.max(largest, bytes) > TIER_RATIO * Math.min(smallest, bytes)) {
+                    break;
+                }
+                smallest = Math.min(smallest, bytes);
+                largest = Math.max(largest, bytes);
+                end++;
+            }
+            if (end - start >= COMPACTION_TRIGGER) {
+                return new ArrayList<>(segments.subList(start, end));
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private static long tierBytes(Segment segment) {
+        return Math.max(segment.getBytes(), MIN_TIER_BYTES);
+    }
+
+    /**
+     * Merges adjacent segments into one that takes their place
+     */
+    private void compact(List<Segment> inputs) throws IOException {
+        // The output takes the sequence of the newest input, so it stays older than the segments before the run
+        // and newer than the ones after it
+        long sequence = inputs.get(0).getSequence();
+        long expectedEntries = 0;
+        List<Iterator<Map.Entry<byte[], byte[]>>> sources = new ArrayList<>();
+        for (Segment segment : inputs) {
+            sources.add(segment.scan(NO_KEY, null));
+            expectedEntries += segment.getEntries();
+        }
+        Path path = writeSegment(directory, sequence, new MergingIterator(sources), expectedEntries);
+        Segment output = new Segment(sequence, path);
+
+        synchronized (this) {
+            // Only flushes ran meanwhile, they add segments ahead of the run
+            List<Segment> segments = new ArrayList<>(state.segments);
+            int position = segments.indexOf(inputs.get(0));
+            segments.removeAll(inputs);
+            segments.add(position, output);
+            state = new State(state.active, state.flushing, segments);
+
+            retired.removeIf(Segment::isReleased);
+            retired.addAll(inputs);
+        }
+        // The newest input's file was replaced by the output, the others are deleted; readers that still hold
+        // an input keep its file open, and its space, until they release it
+        for (Segment segment : inputs) {
+            if (segment.getSequence() != sequence) {
+                Files.delete(segment.getPath());
+            }
+            segment.release();
+        }
+    }
+
+    /**
+     * Writes a segment into a temporary file, forces it and renames it in place
+     */
+    private static Path writeSegment(Path directory, long sequence, Iterator<Map.Entry<byte[], byte[]>> entries,
+                                     long expectedEntries) throws IOException {
+        Path path = directory.resolve(SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX);
+        Path tmp = directory.resolve(SEGMENT_PREFIX + sequence + SEGMENT_SUFFIX + TMP_SUFFIX);
+        try (SegmentWriter writer = new SegmentWriter(tmp, expectedEntries)) {
+            while (entries.hasNext()) {
+                Map.Entry<byte[], byte[]> entry = entries.next();
+                writer.add(entry.getKey(), entry.getValue());
+            }
+        }
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        return Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Memtable newMemtable() throws IOException {
+        long sequence = nextSequence.getAndIncrement();
+        return new Memtable(sequence, new WriteAheadLog(directory.resolve(WAL_PREFIX + sequence + WAL_SUFFIX), commitPolicy));
+    }
+
+    private static long sequenceOf(String name, String prefix, String suffix) {
+        return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        if (future == null) {
+            return;
+        }
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package bigdatacourse.hw2.studentcode.lsm;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sorted in-memory buffer of the latest writes, backed by its own write-ahead log.
+ * Once rotated out it becomes immutable and is flushed into a segment with the same sequence number.
+ */
+final class Memtable {
+
+    private final long sequence;
+    private final WriteAheadLog wal;
+    private final ConcurrentSkipListMap<byte[], byte[]> entries = new ConcurrentSkipListMap<>(Bytes.ORDER);
+    private final AtomicLong bytes = new AtomicLong();
+
+    Memtable(long sequence, WriteAheadLog wal) {
+        this.sequence = sequence;
+        this.wal = wal;
+    }
+
+    void put(byte[] key, byte[] value) throws IOException {
+        wal.append(key, value);
+        apply(key, value);
+    }
+
+    /**
+     * Adds an entry without logging it, used when replaying the log
+     */
+    void apply(byte[] key, byte[] value) {
+        entries.put(key, value);
+        bytes.addAndGet(Bytes.entrySize(key, value));
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    WriteAheadLog getWal() {
+        return wal;
+    }
+
+    ConcurrentSkipListMap<byte[], byte[]> getEntries() {
+        return entries;
+    }
+
+    long getBytes() {
+        return bytes.get();
+    }
+}
@@ -0,0 +1,70 @@
+package bigdatacourse.hw2.studentcode.lsm;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges sorted sources into a single sorted sequence.
+ * Sources are given newest first; when several hold the same key only the newest value is returned.
+ */
+final class MergingIterator implements Iterator<Map.Entry<byte[], byte[]>> {
+
+    private static final class Source {
+        final int priority;
+        final Iterator<Map.Entry<byte[], byte[]>> entries;
+        Map.Entry<byte[], byte[]> head;
+
+        Source(int priority, Iterator<Map.Entry<byte[], byte[]>> entries) {
+            this.priority = priority;
+            this.entries = entries;
+            this.head = entries.next();
+        }
+
+        boolean advance() {
+            head = entries.hasNext() ? entries.next() : null;
+            return head != null;
+        }
+    }
+
+    private final PriorityQueue<Source> queue = new PriorityQueue<>((a, b) -> {
+        int order = Bytes.ORDER.compare(a.head.getKey(), b.head.getKey());
+        return order != 0 ? order : Integer.compare(a.priority, b.priority);
+    });
+
+    MergingIterator(List<Iterator<Map.Entry<byte[], byte[]>>> sources) {
+        for (int i = 0; i < sources.size(); i++) {
+            if (sources.get(i).hasNext()) {
+                queue.add(new Source(i, sources.get(i)));
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !queue.isEmpty();
+    }
+
+    @Override
+    public Map.Entry<byte[], byte[]> next() {
+        Source newest = queue.poll();
+        if (newest == null) {
+            throw new NoSuchElementException();
+        }
+        Map.Entry<byte[], byte[]> entry = newest.head;
+
+        // Drop the older versions of the same key
+        while (!queue.isEmpty() && Bytes.ORDER.compare(queue.peek().head.getKey(), entry.getKey()) == 0) {
+            Source older = queue.poll();
+            if (older.advance()) {
+                queue.add(older);
+            }
+        }
+        if (newest.advance()) {
+            queue.add(newest);
+        }
+        return entry;
+    }
+}
@@ -0,0 +1,248 @@
+package bigdatacourse.hw2.studentcode.lsm;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Read side of an immutable segment file written by SegmentWriter.
+ * The sparse index and the Bloom filter are kept in memory, data blocks are read on demand
+ * with positional reads, so a segment can be shared by any number of concurrent readers.
+ * The store holds a reference on a live segment and every reader retains one while it reads;
+ * the file is closed when the last reference is released.
+ */
+final class Segment implements Closeable {
+
+    private final long sequence;
+    private final Path path;
+    private final FileChannel channel;
+    private final byte[][] blockKeys;
+    private final long[] blockOffsets;
+    private final int[] blockLengths;
+    private final BloomFilter bloom;
+    private final long entries;
+    private final long bytes;
+
+    // The store's reference plus one per reader, the channel is closed when it drops to zero
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    Segment(long sequence, Path path) throws IOException {
+        this.sequence = sequence;
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.bytes = channel.size();
+
+        ByteBuffer footer = read(channel.size() - SegmentWriter.FOOTER_SIZE, SegmentWriter.FOOTER_SIZE);
+        long indexOffset = footer.getLong();
+        long bloomOffset = footer.getLong();
+        this.entries = footer.getLong();
+        if (footer.getInt() != SegmentWriter.MAGIC) {
+            channel.close();
+            throw new IOException("not a segment file: " + path);
+        }
+
+        DataInputStream index = new DataInputStream(new ByteArrayInputStream(
+                read(indexOffset, (int) (bloomOffset - indexOffset)).array()));
+        int blocks = index.readInt();
+        this.blockKeys = new byte[blocks][];
+        this.blockOffsets = new long[blocks];
+        this.blockLengths = new int[blocks];
+        for (int i = 0; i < blocks; i++) {
+            blockKeys[i] = new byte[index.readInt()];
+            index.readFully(blockKeys[i]);
+            blockOffsets[i] = index.readLong();
+            blockLengths[i] = index.readInt();
+        }
+
+        int bloomSize = (int) (channel.size() - SegmentWriter.FOOTER_SIZE - bloomOffset);
+        this.bloom = BloomFilter.readFrom(new DataInputStream(new ByteArrayInputStream(read(bloomOffset, bloomSize).array())));
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getEntries() {
+        return entries;
+    }
+
+    long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Takes a reference for a reader
+     * @return False if the segment was already released by everyone, it must not be read
+     */
+    boolean retain() {
+        for (;;) {
+            int count = references.get();
+            if (count == 0) {
+                return false;
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Drops a reference, the last one closes the file
+     */
+    void release() {
+        if (references.decrementAndGet() == 0) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    boolean isReleased() {
+        return references.get() == 0;
+    }
+
+    boolean mightContainPartition(byte[] partition) {
+        return bloom.mightContain(partition, 0, partition.length);
+    }
+
+    /**
+     * @return The value of the key or null if this segment does not hold it
+     */
+    byte[] get(byte[] key) throws IOException {
+        if (!bloom.mightContain(key, 0, Bytes.partitionLength(key))) {
+            return null;
+        }
+        int blockIndex = blockFor(key);
+        if (blockIndex < 0) {
+            return null;
+        }
+        ByteBuffer block = readBlock(blockIndex);
+        while (block.hasRemaining()) {
+            byte[] entryKey = Bytes.getBytes(block);
+            int valueLength = Bytes.getVarInt(block);
+            int order = Bytes.ORDER.compare(entryKey, key);
+            if (order == 0) {
+                byte[] value = new byte[valueLength];
+                block.get(value);
+                return value;
+            }
+            if (order > 0) {
+                return null;
+            }
+            block.position(block.position() + valueLength);
+        }
+        return null;
+    }
+
+    /**
+     * @return Iterator over the entries with from <= key < to (to == null for no upper bound), in key order
+     */
+    Iterator<Map.Entry<byte[], byte[]>> scan(byte[] from, byte[] to) {
+        return new Iterator<Map.Entry<byte[], byte[]>>() {
+            private int blockIndex = Math.max(0, blockFor(from));
+            private ByteBuffer block = null;
+            private Map.Entry<byte[], byte[]> next = advance();
+
+            private Map.Entry<byte[], byte[]> advance() {
+                try {
+                    for (;;) {
+                        if (block == null || !block.hasRemaining()) {
+                            if (blockIndex >= blockKeys.length) {
+                                return null;
+                            }
+                            block = readBlock(blockIndex++);
+                        }
+                        byte[] key = Bytes.getBytes(block);
+                        byte[] value = Bytes.getBytes(block);
+                        if (to != null && Bytes.ORDER.compare(key, to) >= 0) {
+                            blockIndex = blockKeys.length;
+                            block = null;
+                            return null;
+                        }
+                        if (Bytes.ORDER.compare(key, from) >= 0) {
+                            return new AbstractMap.SimpleImmutableEntry<>(key, value);
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<byte[], byte[]> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<byte[], byte[]> entry = next;
+                next = advance();
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * @return Index of the last block whose first key is <= key, -1 if key is before the first block
+     */
+    private int blockFor(byte[] key) {
+        int low = 0;
+        int high = blockKeys.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (Bytes.ORDER.compare(blockKeys[middle], key) <= 0) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    private ByteBuffer readBlock(int blockIndex) throws IOException {
+        return read(blockOffsets[blockIndex], blockLengths[blockIndex]);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("unexpected end of segment " + path);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    @Override
+    public String toString() {
+        return path.getFileName() + " (" + entries + " entries)";
+    }
+}
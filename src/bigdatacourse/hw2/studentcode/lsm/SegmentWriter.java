@@ -0,0 +1,101 @@
+package bigdatacourse.hw2.studentcode.lsm;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes an immutable, sorted segment file. Entries must be added in key order.
+ * Layout: data blocks of encoded entries, the sparse index (first key, offset and length of every block),
+ * the Bloom filter over the partitions, and a fixed size footer pointing at the index and the filter.
+ */
+final class SegmentWriter implements Closeable {
+
+    static final int BLOCK_SIZE = 16 * 1024;
+    static final int FOOTER_SIZE = 8 + 8 + 8 + 4;
+    static final int MAGIC = 0x4c534d31; // "LSM1"
+
+    private final DataOutputStream out;
+    private final BloomFilter bloom;
+    private final List<byte[]> blockKeys = new ArrayList<>();
+    private final List<long[]> blockPositions = new ArrayList<>();
+    private ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+    private byte[] blockFirstKey;
+    private byte[] lastPartition;
+    private long offset;
+    private long entries;
+
+    SegmentWriter(Path path, long expectedEntries) throws IOException {
+        OutputStream file = Files.newOutputStream(path);
+        this.out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16));
+        this.bloom = new BloomFilter(expectedEntries);
+    }
+
+    void add(byte[] key, byte[] value) throws IOException {
+        int size = Bytes.entrySize(key, value);
+        if (block.position() > 0 && block.remaining() < size) {
+            finishBlock();
+        }
+        if (block.capacity() < size) {
+            block = ByteBuffer.allocate(size);
+        }
+        if (block.position() == 0) {
+            blockFirstKey = key;
+        }
+        Bytes.putEntry(block, key, value);
+
+        // Consecutive keys mostly share their partition, only add it to the filter once
+        int partitionLength = Bytes.partitionLength(key);
+        if (lastPartition == null || !Bytes.startsWith(key, lastPartition) || lastPartition.length != partitionLength) {
+            bloom.add(key, 0, partitionLength);
+            lastPartition = Arrays.copyOf(key, partitionLength);
+        }
+        entries++;
+    }
+
+    private void finishBlock() throws IOException {
+        blockKeys.add(blockFirstKey);
+        blockPositions.add(new long[] { offset, block.position() });
+        out.write(block.array(), 0, block.position());
+        offset += block.position();
+        block.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (block.position() > 0) {
+            finishBlock();
+        }
+
+        // The index and the filter are small, they are built in memory to know their sizes
+        ByteArrayOutputStream index = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(index);
+        indexOut.writeInt(blockKeys.size());
+        for (int i = 0; i < blockKeys.size(); i++) {
+            indexOut.writeInt(blockKeys.get(i).length);
+            indexOut.write(blockKeys.get(i));
+            indexOut.writeLong(blockPositions.get(i)[0]);
+            indexOut.writeInt((int) blockPositions.get(i)[1]);
+        }
+        index.writeTo(out);
+
+        long indexOffset = offset;
+        long bloomOffset = indexOffset + index.size();
+        bloom.writeTo(out);
+
+        out.writeLong(indexOffset);
+        out.writeLong(bloomOffset);
+        out.writeLong(entries);
+        out.writeInt(MAGIC);
+        out.close();
+    }
+}
@@ -0,0 +1,264 @@
+package bigdatacourse.hw2.studentcode.lsm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.stream.IntStream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log of the writes held by a memtable, replayed if the process stops before the memtable is flushed.
+ * Every record is framed as [payload length][CRC32C of payload][key length][key][value length][value],
+ * so a torn write at the tail is detected and ignored on replay.
+ * Appends are buffered and forced to disk in groups according to the CommitPolicy: one thread at a time
+ * takes the buffered records, writes and forces them, and every append up to that point becomes durable at once.
+ */
+final class WriteAheadLog implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int HEADER_SIZE = 8;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final CommitPolicy policy;
+
+    // Keeps the writes to the channel in log order: appenders flushing a full buffer take it under the monitor,
+    // the syncing thread takes it under the monitor too but only releases it once its batch is written
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private ByteBuffer spare = ByteBuffer.allocate(BUFFER_SIZE);
+    private long appended;      // log position after the last append
+    private long synced;        // log position known to be on disk
+    private long pending;       // bytes appended since the last batch was taken
+    private long pendingSince;  // System.nanoTime() of the first of them
+    private boolean syncing;
+
+    // Threads in append, and those of them waiting in commit: once all have joined the group there is no point waiting
+    private final AtomicInteger writers = new AtomicInteger();
+    private int committing;
+
+    WriteAheadLog(Path path, CommitPolicy policy) throws IOException {
+        this.path = path;
+        this.policy = policy;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    void append(byte[] key, byte[] value) throws IOException {
+        writers.incrementAndGet();
+        try {
+            appendAndCommit(key, value);
+        } finally {
+            writers.decrementAndGet();
+        }
+    }
+
+    private void appendAndCommit(byte[] key, byte[] value) throws IOException {
+        long end;
+        boolean due;
+        synchronized (this) {
+            int payloadSize = Bytes.entrySize(key, value);
+            if (buffer.remaining() < HEADER_SIZE + payloadSize) {
+                writeLock.lock();
+                try {
+                    flushBuffer(buffer);
+                } finally {
+                    writeLock.unlock();
+                }
+                if (buffer.capacity() < HEADER_SIZE + payloadSize) {
+                    buffer = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+                }
+            }
+
+            int start = buffer.position();
+            buffer.putInt(payloadSize);
+            buffer.putInt(0);
+            Bytes.putEntry(buffer, key, value);
+
+            CRC32C crc = new CRC32C();
+            crc.update(buffer.array(), start + HEADER_SIZE, payloadSize);
+            buffer.putInt(start + 4, (int) crc.getValue());
+
+            appended += HEADER_SIZE + payloadSize;
+            end = appended;
+            if (pending == 0) {
+                pendingSince = System.nanoTime();
+            }
+            pending += HEADER_SIZE + payloadSize;
+            if (pending >= policy.maxBytes) {
+                // A syncing thread waiting for its group to fill up can go
+                notifyAll();
+            }
+            due = !syncing && (pending >= policy.maxBytes || System.nanoTime() - pendingSince >= policy.maxDelayNanos);
+        }
+
+        if (policy.waitForSync) {
+            commit(end, true);
+        } else if (due) {
+            commit(end, false);
+        }
+    }
+
+    /**
+     * Writes the buffered records and forces them to disk
+     */
+    void sync() throws IOException {
+        long end;
+        synchronized (this) {
+            end = appended;
+        }
+        commit(end, false);
+    }
+
+    /**
+     * Syncs the records that have waited maxDelay or more, for a log that no append came to sync
+     */
+    void syncIfDue() throws IOException {
+        long end;
+        synchronized (this) {
+            if (syncing || pending == 0 || System.nanoTime() - pendingSince < policy.maxDelayNanos) {
+                return;
+            }
+            end = appended;
+        }
+        commit(end, false);
+    }
+
+    /**
+     * Returns once the log is on disk up to end: either a sync in progress covers it,
+     * or this thread syncs everything appended so far, after letting the group fill up if gather is set
+     */
+    private void commit(long end, boolean gather) throws IOException {
+        ByteBuffer batch;
+        long target;
+        synchronized (this) {
+            committing++;
+            try {
+                // Lets a thread gathering a group know that one more writer joined
+                notifyAll();
+                while (syncing && synced < end) {
+                    wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted waiting for the log to be synced");
+            } finally {
+                committing--;
+            }
+            if (synced >= end) {
+                return;
+            }
+            syncing = true;
+
+            if (gather) {
+                try {
+                    for (long remaining; pending < policy.maxBytes && committing + 1 < writers.get()
+                            && (remaining = policy.maxDelayNanos - (System.nanoTime() - pendingSince)) > 0; ) {
+                        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    // Sync what there is, the waiters of the group still have to be released
+                    Thread.currentThread().interrupt();
+                }
+            }
+
+            batch = buffer;
+            buffer = spare;
+            spare = null;
+            target = appended;
+            pending = 0;
+            writeLock.lock();
+        }
+
+        boolean done = false;
+        try {
+            try {
+                flushBuffer(batch);
+            } finally {
+                writeLock.unlock();
+            }
+            channel.force(false);
+            done = true;
+        } finally {
+            synchronized (this) {
+                batch.clear();
+                spare = batch;
+                if (done) {
+                    synced = Math.max(synced, target);
+                }
+                syncing = false;
+                notifyAll();
+            }
+        }
+    }
+
+    private void flushBuffer(ByteBuffer records) throws IOException {
+        records.flip();
+        while (records.hasRemaining()) {
+            channel.write(records);
+        }
+        records.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        sync();
+        channel.close();
+    }
+
+    /**
+     * Replays the records of a log in the order they were written, stopping at the first torn or corrupt record.
+     * Records are delimited in a first pass over their lengths, then their checksums are verified in parallel.
+     * @return The number of records replayed
+     */
+    static long replay(Path path, BiConsumer<byte[], byte[]> consumer) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer log = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            int[] offsets = new int[1024];
+            int records = 0;
+            for (int position = 0; log.limit() - position >= HEADER_SIZE; ) {
+                int payloadSize = log.getInt(position);
+                if (payloadSize < 0 || payloadSize > log.limit() - position - HEADER_SIZE) {
+                    break;
+                }
+                if (records == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, records * 2);
+                }
+                offsets[records++] = position;
+                position += HEADER_SIZE + payloadSize;
+            }
+
+            int[] frames = offsets;
+            int valid = IntStream.range(0, records).parallel()
+                    .filter(record -> !checksumMatches(log, frames[record]))
+                    .min()
+                    .orElse(records);
+
+            for (int record = 0; record < valid; record++) {
+                ByteBuffer payload = log.slice(frames[record] + HEADER_SIZE, log.getInt(frames[record]));
+                consumer.accept(Bytes.getBytes(payload), Bytes.getBytes(payload));
+            }
+            return valid;
+        }
+    }
+
+    private static boolean checksumMatches(ByteBuffer log, int offset) {
+        CRC32C crc = new CRC32C();
+        crc.update(log.slice(offset + HEADER_SIZE, log.getInt(offset)));
+        return (int) crc.getValue() == log.getInt(offset + 4);
+    }
+}
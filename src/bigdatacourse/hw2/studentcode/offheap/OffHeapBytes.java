@@ -0,0 +1,60 @@
+package bigdatacourse.hw2.studentcode.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Append-only region of length-prefixed byte records kept outside the Java heap.
+ * Records are addressed by their offset and never straddle two of the direct buffers backing the region.
+ */
+public final class OffHeapBytes {
+
+    private static final int CHUNK_BITS = 26;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private long size;
+
+    /**
+     * @return The offset of the record
+     */
+    public synchronized long append(byte[] record) {
+        int length = Integer.BYTES + record.length;
+        if (length > CHUNK_SIZE) {
+            throw new IllegalArgumentException("record of " + record.length + " bytes is too large");
+        }
+
+        // Skip to the next chunk if the record does not fit in the current one
+        long offset = size;
+        if ((offset & (CHUNK_SIZE - 1)) + length > CHUNK_SIZE) {
+            offset = ((offset >>> CHUNK_BITS) + 1) << CHUNK_BITS;
+        }
+        int chunk = (int) (offset >>> CHUNK_BITS);
+        if (chunk >= chunks.length) {
+            ByteBuffer[] grown = Arrays.copyOf(chunks, chunk + 1);
+            grown[chunk] = ByteBuffer.allocateDirect(CHUNK_SIZE);
+            chunks = grown;
+        }
+
+        ByteBuffer target = chunks[chunk].duplicate();
+        target.position((int) (offset & (CHUNK_SIZE - 1)));
+        target.putInt(record.length).put(record);
+        size = offset + length;
+        return offset;
+    }
+
+    /**
+     * @return A copy of the record at offset
+     */
+    public byte[] get(long offset) {
+        ByteBuffer source = chunks[(int) (offset >>> CHUNK_BITS)].duplicate();
+        source.position((int) (offset & (CHUNK_SIZE - 1)));
+        byte[] record = new byte[source.getInt()];
+        source.get(record);
+        return record;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+}
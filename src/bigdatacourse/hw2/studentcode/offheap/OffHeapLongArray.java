@@ -0,0 +1,65 @@
+package bigdatacourse.hw2.studentcode.offheap;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable array of longs kept outside the Java heap, in direct buffers of CHUNK_LONGS longs each.
+ * Appends must be serialized by the caller; reads of already written positions are safe from any thread.
+ */
+public final class OffHeapLongArray {
+
+    private static final int CHUNK_BITS = 20;
+    private static final int CHUNK_LONGS = 1 << CHUNK_BITS;
+
+    private volatile ByteBuffer[] chunks = new ByteBuffer[0];
+    private long size;
+
+    public OffHeapLongArray() {
+    }
+
+    /**
+     * Creates an array of the given size, filled with zeros
+     */
+    public OffHeapLongArray(long size) {
+        ensureCapacity(size);
+        this.size = size;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public void append(long value) {
+        ensureCapacity(size + 1);
+        set(size++, value);
+    }
+
+    public long get(long index) {
+        return chunks[(int) (index >>> CHUNK_BITS)].getLong((int) (index & (CHUNK_LONGS - 1)) << 3);
+    }
+
+    public void set(long index, long value) {
+        chunks[(int) (index >>> CHUNK_BITS)].putLong((int) (index & (CHUNK_LONGS - 1)) << 3, value);
+    }
+
+    /**
+     * Adds delta to the value at index and returns the previous value
+     */
+    public long getAndAdd(long index, long delta) {
+        long value = get(index);
+        set(index, value + delta);
+        return value;
+    }
+
+    private void ensureCapacity(long capacity) {
+        int needed = (int) ((capacity + CHUNK_LONGS - 1) >>> CHUNK_BITS);
+        if (needed > chunks.length) {
+            ByteBuffer[] grown = Arrays.copyOf(chunks, needed);
+            for (int i = chunks.length; i < needed; i++) {
+                grown[i] = ByteBuffer.allocateDirect(CHUNK_LONGS << 3);
+            }
+            chunks = grown;
+        }
+    }
+}
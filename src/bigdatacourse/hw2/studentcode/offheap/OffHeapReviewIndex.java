@@ -0,0 +1,223 @@
+package bigdatacourse.hw2.studentcode.offheap;
+
+/**
+ * Immutable, off-heap index from a partition (reviewerID or asin) to its reviews.
+ * A 64-bit hash of the partition key is looked up in an open-addressing table whose slots hold
+ * (hash, first entry, entry count). The entries of a partition are contiguous and sorted, as two parallel
+ * arrays: the packed (unixReviewTime, clustering key id) pair and the offset of the record in the data region.
+ * Nothing but a handful of direct buffers is allocated, however many reviews are indexed.
+ *
+ * Hashes can collide, so callers check the partition key of the records they read back.
+ */
+public final class OffHeapReviewIndex {
+
+    // Slot layout: hash, first entry, entry count (0 for an empty slot)
+    private static final int SLOT_LONGS = 3;
+
+    private final OffHeapLongArray slots;
+    private final long mask;
+    private final OffHeapLongArray clustering;
+    private final OffHeapLongArray records;
+
+    private OffHeapReviewIndex(OffHeapLongArray slots, long capacity, OffHeapLongArray clustering, OffHeapLongArray records) {
+        this.slots = slots;
+        this.mask = capacity - 1;
+        this.clustering = clustering;
+        this.records = records;
+    }
+
+    /**
+     * Packs a review time and a key id so that sorting the packed values ascending sorts by time descending,
+     * then by key id. Times are kept as unsigned 32-bit seconds (up to year 2106).
+     */
+    public static long pack(long unixReviewTime, int keyId) {
+        return (~unixReviewTime << 32) | (keyId & 0xffffffffL);
+    }
+
+    public static long unpackTime(long packed) {
+        return ~packed >>> 32;
+    }
+
+    public static int unpackKeyId(long packed) {
+        return (int) packed;
+    }
+
+    /**
+     * Builds the index from staged tuples of longs
+     * @param staging Tuples of tupleLongs longs each
+     * @param hashField Field of the tuple holding the partition hash
+     * @param clusteringField Field holding the packed (time, key id)
+     * @param recordField Field holding the record offset
+     */
+    public static OffHeapReviewIndex build(OffHeapLongArray staging, int tupleLongs,
+                                           int hashField, int clusteringField, int recordField) {
+        long tuples = staging.size() / tupleLongs;
+
+        // Pass 1: count the entries of every partition, growing the table to keep it at most half full
+        long capacity = 1024;
+        OffHeapLongArray slots = new OffHeapLongArray(capacity * SLOT_LONGS);
+        long partitions = 0;
+        for (long tuple = 0; tuple < tuples; tuple++) {
+            long hash = staging.get(tuple * tupleLongs + hashField);
+            long slot = probe(slots, capacity - 1, hash);
+            if (slots.get(slot * SLOT_LONGS + 2) == 0) {
+                slots.set(slot * SLOT_LONGS, hash);
+                partitions++;
+            }
+            slots.getAndAdd(slot * SLOT_LONGS + 2, 1);
+
+            if (partitions * 2 > capacity) {
+                slots = rehash(slots, capacity, capacity * 2);
+                capacity *= 2;
+            }
+        }
+
+        // Each partition gets a contiguous range, the first entry field is used as a fill cursor
+        long start = 0;
+        for (long slot = 0; slot < capacity; slot++) {
+            long count = slots.get(slot * SLOT_LONGS + 2);
+            if (count > 0) {
+                slots.set(slot * SLOT_LONGS + 1, start);
+                start += count;
+            }
+        }
+
+        // Pass 2: place the entries
+        OffHeapLongArray clustering = new OffHeapLongArray(tuples);
+        OffHeapLongArray records = new OffHeapLongArray(tuples);
+        for (long tuple = 0; tuple < tuples; tuple++) {
+            long slot = probe(slots, capacity - 1, staging.get(tuple * tupleLongs + hashField));
+            long entry = slots.getAndAdd(slot * SLOT_LONGS + 1, 1);
+            clustering.set(entry, staging.get(tuple * tupleLongs + clusteringField));
+            records.set(entry, staging.get(tuple * tupleLongs + recordField));
+        }
+
+        // Rewind the cursors and sort every partition
+        for (long slot = 0; slot < capacity; slot++) {
+            long count = slots.get(slot * SLOT_LONGS + 2);
+            if (count > 0) {
+                long end = slots.get(slot * SLOT_LONGS + 1);
+                slots.set(slot * SLOT_LONGS + 1, end - count);
+                sort(clustering, records, end - count, end - 1);
+            }
+        }
+
+        return new OffHeapReviewIndex(slots, capacity, clustering, records);
+    }
+
+    /**
+     * @return Slot of the hash, or the empty slot where it would go
+     */
+    private static long probe(OffHeapLongArray slots, long mask, long hash) {
+        long slot = hash & mask;
+        while (slots.get(slot * SLOT_LONGS + 2) != 0 && slots.get(slot * SLOT_LONGS) != hash) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static OffHeapLongArray rehash(OffHeapLongArray slots, long capacity, long newCapacity) {
+        OffHeapLongArray grown = new OffHeapLongArray(newCapacity * SLOT_LONGS);
+        for (long slot = 0; slot < capacity; slot++) {
+            long count = slots.get(slot * SLOT_LONGS + 2);
+            if (count > 0) {
+                long hash = slots.get(slot * SLOT_LONGS);
+                long target = probe(grown, newCapacity - 1, hash);
+                grown.set(target * SLOT_LONGS, hash);
+                grown.set(target * SLOT_LONGS + 2, count);
+            }
+        }
+        return grown;
+    }
+
+    /**
+     * Sorts entries [low, high] by packed clustering value, then by record offset descending
+     * (so the latest write of a duplicate key comes first). Quicksort with insertion sort for short ranges.
+     */
+    private static void sort(OffHeapLongArray keys, OffHeapLongArray values, long low, long high) {
+        while (high - low > 16) {
+            long pivotKey = keys.get((low + high) >>> 1);
+            long pivotValue = values.get((low + high) >>> 1);
+            long i = low;
+            long j = high;
+            while (i <= j) {
+                while (compare(keys.get(i), values.get(i), pivotKey, pivotValue) < 0) {
+                    i++;
+                }
+                while (compare(keys.get(j), values.get(j), pivotKey, pivotValue) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, values, i++, j--);
+                }
+            }
+            // Recurse into the smaller half, loop on the larger one
+            if (j - low < high - i) {
+                sort(keys, values, low, j);
+                low = i;
+            } else {
+                sort(keys, values, i, high);
+                high = j;
+            }
+        }
+        for (long i = low + 1; i <= high; i++) {
+            for (long j = i; j > low && compare(keys.get(j), values.get(j), keys.get(j - 1), values.get(j - 1)) < 0; j--) {
+                swap(keys, values, j, j - 1);
+            }
+        }
+    }
+
+    private static int compare(long key, long value, long otherKey, long otherValue) {
+        int order = Long.compareUnsigned(key, otherKey);
+        return order != 0 ? order : Long.compare(otherValue, value);
+    }
+
+    private static void swap(OffHeapLongArray keys, OffHeapLongArray values, long i, long j) {
+        long key = keys.get(i);
+        keys.set(i, keys.get(j));
+        keys.set(j, key);
+        long value = values.get(i);
+        values.set(i, values.get(j));
+        values.set(j, value);
+    }
+
+    /**
+     * @return First entry of the partition, or -1 if it is not indexed
+     */
+    public long first(long hash) {
+        long slot = probe(slots, mask, hash);
+        return slots.get(slot * SLOT_LONGS + 2) == 0 ? -1 : slots.get(slot * SLOT_LONGS + 1);
+    }
+
+    /**
+     * @return Number of entries of the partition
+     */
+    public long count(long hash) {
+        return slots.get(probe(slots, mask, hash) * SLOT_LONGS + 2);
+    }
+
+    public long clustering(long entry) {
+        return clustering.get(entry);
+    }
+
+    public long record(long entry) {
+        return records.get(entry);
+    }
+
+    /**
+     * 64-bit FNV-1a over the chars of the key, finished with the murmur3 mixer
+     */
+    public static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
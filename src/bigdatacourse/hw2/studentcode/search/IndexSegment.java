@@ -0,0 +1,78 @@
+package bigdatacourse.hw2.studentcode.search;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable part of an inverted index: sorted terms with their compressed postings (see Postings),
+ * for a contiguous range of doc ids. Segments are merged in doc id order into bigger ones,
+ * level counts how many times the docs of a segment have been merged.
+ */
+final class IndexSegment {
+
+    final int level;
+    final int docs;
+    final String[] terms;
+    final byte[][] postings;
+    final int[] docFreqs;
+    final int[] lastDocs;
+
+    private IndexSegment(int level, int docs, Map<String, Postings> sorted) {
+        this.level = level;
+        this.docs = docs;
+        this.terms = sorted.keySet().toArray(new String[0]);
+        this.postings = new byte[terms.length][];
+        this.docFreqs = new int[terms.length];
+        this.lastDocs = new int[terms.length];
+        int i = 0;
+        for (Postings termPostings : sorted.values()) {
+            postings[i] = termPostings.toByteArray();
+            docFreqs[i] = termPostings.getDocFreq();
+            lastDocs[i] = termPostings.getLastDoc();
+            i++;
+        }
+    }
+
+    /**
+     * A segment read back from a saved index (see InvertedIndex.save)
+     */
+    IndexSegment(int level, int docs, String[] terms, byte[][] postings, int[] docFreqs, int[] lastDocs) {
+        this.level = level;
+        this.docs = docs;
+        this.terms = terms;
+        this.postings = postings;
+        this.docFreqs = docFreqs;
+        this.lastDocs = lastDocs;
+    }
+
+    static IndexSegment of(Map<String, Postings> terms, int docs) {
+        return new IndexSegment(0, docs, new TreeMap<>(terms));
+    }
+
+    /**
+     * @param segments Segments in doc id order
+     */
+    static IndexSegment merge(List<IndexSegment> segments) {
+        TreeMap<String, Postings> merged = new TreeMap<>();
+        int docs = 0;
+        int level = 0;
+        for (IndexSegment segment : segments) {
+            for (int i = 0; i < segment.terms.length; i++) {
+                merged.computeIfAbsent(segment.terms[i], term -> new Postings())
+                        .append(segment.postings[i], segment.docFreqs[i], segment.lastDocs[i]);
+            }
+            docs += segment.docs;
+            level = Math.max(level, segment.level);
+        }
+        return new IndexSegment(level + 1, docs, merged);
+    }
+
+    /**
+     * @return The index of the term, or a negative number if the segment does not hold it
+     */
+    int find(String term) {
+        return Arrays.binarySearch(terms, term);
+    }
+}
@@ -0,0 +1,360 @@
+package bigdatacourse.hw2.studentcode.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-memory full-text index, built incrementally as documents are added from any number of threads.
+ * Documents get consecutive ids; the postings of the latest ones are built in a mutable buffer that is
+ * sealed into an immutable IndexSegment every SEGMENT_DOCS documents. Once MERGE_FACTOR segments of the
+ * same level pile up they are merged into one of the next level, so a search only looks at a
+ * logarithmic number of segments.
+ * Searches rank documents with BM25 and stop within a time budget, processing the rarest terms first
+ * so that a cut-short search still ranks by the most selective terms.
+ * A document is indexed once: adding a key that is already indexed again is ignored, so reloading
+ * the same documents does not inflate the term statistics nor return the same key twice.
+ * An index can be saved into a file and loaded back, with all its postings in a single segment.
+ * @param <T> The document key, returned with the hits
+ */
+public final class InvertedIndex<T> {
+
+    static final int SEGMENT_DOCS = 1 << 16;
+    static final int MERGE_FACTOR = 8;
+
+    // BM25 parameters
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    // Postings decoded between two checks of the deadline
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    /**
+     * A document of a search result
+     */
+    public static final class Hit<T> {
+        private final T doc;
+        private final float score;
+
+        Hit(T doc, float score) {
+            this.doc = doc;
+            this.score = score;
+        }
+
+        public T getDoc() {
+            return doc;
+        }
+
+        public float getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * Writes a document key into a saved index
+     */
+    public interface DocWriter<T> {
+        void write(DataOutputStream out, T doc) throws IOException;
+    }
+
+    /**
+     * Reads back a document key written by a DocWriter
+     */
+    public interface DocReader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    // Everything below is guarded by the index monitor, segments is replaced as a whole
+    private final List<T> docs = new ArrayList<>();
+    private final HashSet<T> indexed = new HashSet<>();
+    private int[] lengths = new int[1024];
+    private long totalLength;
+    private HashMap<String, Postings> building = new HashMap<>();
+    private int buildingDocs;
+    private List<IndexSegment> segments = Collections.emptyList();  // oldest first
+
+    // Only one merge at a time, it runs outside the monitor
+    private final ReentrantLock mergeLock = new ReentrantLock();
+
+    /**
+     * Indexes the terms of the fields of a document, unless a document with the same key is already indexed
+     */
+    public void add(T doc, String... fields) {
+        synchronized (this) {
+            if (indexed.contains(doc)) {
+                return;
+            }
+        }
+
+        // Tokenizing is most of the work, done before taking the monitor
+        HashMap<String, Integer> termFreqs = new HashMap<>();
+        int length = 0;
+        for (String field : fields) {
+            for (String term : Tokenizer.tokenize(field)) {
+                termFreqs.merge(term, 1, Integer::sum);
+                length++;
+            }
+        }
+
+        boolean sealed = false;
+        synchronized (this) {
+            // Another thread may have added the same key while this one was tokenizing
+            if (!indexed.add(doc)) {
+                return;
+            }
+            int docId = docs.size();
+            docs.add(doc);
+            if (docId == lengths.length) {
+                lengths = Arrays.copyOf(lengths, docId * 2);
+            }
+            lengths[docId] = length;
+            totalLength += length;
+
+            for (Map.Entry<String, Integer> termFreq : termFreqs.entrySet()) {
+                building.computeIfAbsent(termFreq.getKey(), term -> new Postings()).add(docId, termFreq.getValue());
+            }
+            if (++buildingDocs == SEGMENT_DOCS) {
+                List<IndexSegment> appended = new ArrayList<>(segments);
+                appended.add(IndexSegment.of(building, buildingDocs));
+                segments = appended;
+                building = new HashMap<>();
+                buildingDocs = 0;
+                sealed = true;
+            }
+        }
+
+        if (sealed) {
+            mergeIfNeeded();
+        }
+    }
+
+    /**
+     * Merges the newest MERGE_FACTOR segments while they are all of the same level
+     */
+    private void mergeIfNeeded() {
+        if (!mergeLock.tryLock()) {
+            // The running merge checks again when it is done
+            return;
+        }
+        try {
+            for (;;) {
+                List<IndexSegment> current;
+                synchronized (this) {
+                    current = segments;
+                }
+                int end = current.size();
+                int start = end - MERGE_FACTOR;
+                if (start < 0 || current.get(start).level != current.get(end - 1).level) {
+                    return;
+                }
+
+                IndexSegment merged = IndexSegment.merge(current.subList(start, end));
+                synchronized (this) {
+                    // Segments sealed meanwhile were appended after the merged ones
+                    List<IndexSegment> replaced = new ArrayList<>(segments.subList(0, start));
+                    replaced.add(merged);
+                    replaced.addAll(segments.subList(end, segments.size()));
+                    segments = replaced;
+                }
+            }
+        } finally {
+            mergeLock.unlock();
+        }
+    }
+
+    public synchronized int size() {
+        return docs.size();
+    }
+
+    /**
+     * Writes the documents indexed so far into a temporary file and renames it in place:
+     * the doc keys, their lengths, and the postings of every segment merged into one
+     */
+    public void save(Path path, DocWriter<T> docWriter) throws IOException {
+        List<T> savedDocs;
+        int[] savedLengths;
+        long savedLength;
+        List<IndexSegment> saved;
+        synchronized (this) {
+            savedDocs = new ArrayList<>(docs);
+            savedLengths = lengths;
+            savedLength = totalLength;
+            saved = new ArrayList<>(segments);
+            if (buildingDocs > 0) {
+                saved.add(IndexSegment.of(building, buildingDocs));
+            }
+        }
+        IndexSegment merged = saved.size() == 1 ? saved.get(0) : IndexSegment.merge(saved);
+
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(savedDocs.size());
+            for (int doc = 0; doc < savedDocs.size(); doc++) {
+                docWriter.write(out, savedDocs.get(doc));
+                out.writeInt(savedLengths[doc]);
+            }
+            out.writeLong(savedLength);
+            out.writeInt(merged.level);
+            out.writeInt(merged.terms.length);
+            for (int i = 0; i < merged.terms.length; i++) {
+                out.writeUTF(merged.terms[i]);
+                out.writeInt(merged.docFreqs[i]);
+                out.writeInt(merged.lastDocs[i]);
+                out.writeInt(merged.postings[i].length);
+                out.write(merged.postings[i]);
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Reads back an index written by save, more documents can then be added to it
+     */
+    public static <T> InvertedIndex<T> load(Path path, DocReader<T> docReader) throws IOException {
+        InvertedIndex<T> index = new InvertedIndex<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            int docCount = in.readInt();
+            index.lengths = new int[Math.max(1024, docCount)];
+            for (int doc = 0; doc < docCount; doc++) {
+                T key = docReader.read(in);
+                index.docs.add(key);
+                index.indexed.add(key);
+                index.lengths[doc] = in.readInt();
+            }
+            index.totalLength = in.readLong();
+            int level = in.readInt();
+            int termCount = in.readInt();
+            String[] terms = new String[termCount];
+            byte[][] postings = new byte[termCount][];
+            int[] docFreqs = new int[termCount];
+            int[] lastDocs = new int[termCount];
+            for (int i = 0; i < termCount; i++) {
+                terms[i] = in.readUTF();
+                docFreqs[i] = in.readInt();
+                lastDocs[i] = in.readInt();
+                postings[i] = new byte[in.readInt()];
+                in.readFully(postings[i]);
+            }
+            if (docCount > 0) {
+                index.segments = Collections.singletonList(new IndexSegment(level, docCount, terms, postings, docFreqs, lastDocs));
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param limit Maximum number of hits
+     * @param timeBudgetNanos Time after which the search stops and ranks what it has scored so far
+     * @return The best matching documents, best first
+     */
+    public List<Hit<T>> search(String query, int limit, long timeBudgetNanos) {
+        long deadline = System.nanoTime() + timeBudgetNanos;
+        List<String> terms = new ArrayList<>(new LinkedHashSet<>(Tokenizer.tokenize(query)));
+        if (terms.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        // A consistent view: the sealed segments and a copy of the postings being built for the query terms
+        List<IndexSegment> searched;
+        int[] docLengths;
+        int docCount;
+        long docsLength;
+        List<List<byte[]>> termPostings = new ArrayList<>();
+        int[] docFreqs = new int[terms.size()];
+        synchronized (this) {
+            searched = segments;
+            docLengths = lengths;
+            docCount = docs.size();
+            docsLength = totalLength;
+            for (int t = 0; t < terms.size(); t++) {
+                List<byte[]> lists = new ArrayList<>();
+                for (IndexSegment segment : searched) {
+                    int i = segment.find(terms.get(t));
+                    if (i >= 0) {
+                        lists.add(segment.postings[i]);
+                        docFreqs[t] += segment.docFreqs[i];
+                    }
+                }
+                Postings buffered = building.get(terms.get(t));
+                if (buffered != null) {
+                    lists.add(buffered.toByteArray());
+                    docFreqs[t] += buffered.getDocFreq();
+                }
+                termPostings.add(lists);
+            }
+        }
+        if (docCount == 0) {
+            return Collections.emptyList();
+        }
+
+        // Term at a time, rarest first
+        Integer[] order = new Integer[terms.size()];
+        for (int t = 0; t < order.length; t++) {
+            order[t] = t;
+        }
+        Arrays.sort(order, Comparator.comparingInt(t -> docFreqs[t]));
+
+        float averageLength = Math.max(1f, (float) docsLength / docCount);
+        HashMap<Integer, Float> scores = new HashMap<>();
+        int[] value = new int[1];
+        int decoded = 0;
+        search:
+        for (int t : order) {
+            float idf = (float) Math.log(1 + (docCount - docFreqs[t] + 0.5) / (docFreqs[t] + 0.5));
+            for (byte[] postings : termPostings.get(t)) {
+                int doc = 0;
+                for (int position = 0; position < postings.length; ) {
+                    position = Postings.getVarInt(postings, position, value);
+                    doc += value[0];
+                    position = Postings.getVarInt(postings, position, value);
+                    int termFreq = value[0];
+
+                    float norm = K1 * (1 - B + B * docLengths[doc] / averageLength);
+                    scores.merge(doc, idf * termFreq * (K1 + 1) / (termFreq + norm), Float::sum);
+
+                    if (++decoded % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() > deadline) {
+                        break search;
+                    }
+                }
+            }
+        }
+
+        // Top hits, ties broken by the older document
+        Comparator<Map.Entry<Integer, Float>> ranking = Map.Entry.<Integer, Float>comparingByValue()
+                .thenComparing(Map.Entry.<Integer, Float>comparingByKey().reversed());
+        PriorityQueue<Map.Entry<Integer, Float>> top = new PriorityQueue<>(ranking);
+        for (Map.Entry<Integer, Float> score : scores.entrySet()) {
+            top.add(score);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+        List<Map.Entry<Integer, Float>> best = new ArrayList<>(top);
+        best.sort(ranking.reversed());
+
+        List<Hit<T>> hits = new ArrayList<>(best.size());
+        synchronized (this) {
+            for (Map.Entry<Integer, Float> score : best) {
+                hits.add(new Hit<>(docs.get(score.getKey()), score.getValue()));
+            }
+        }
+        return hits;
+    }
+}
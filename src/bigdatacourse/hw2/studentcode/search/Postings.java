@@ -0,0 +1,81 @@
+package bigdatacourse.hw2.studentcode.search;
+
+import java.util.Arrays;
+
+/**
+ * Postings list of a term being built: (doc id delta, term frequency) varint pairs, doc ids increasing.
+ * The first delta is taken from doc 0, so lists of consecutive segments concatenate by rewriting
+ * their first delta only.
+ */
+final class Postings {
+
+    private byte[] bytes = new byte[8];
+    private int size;
+    private int docFreq;
+    private int lastDoc;
+
+    void add(int doc, int termFreq) {
+        ensure(10);
+        size = putVarInt(bytes, size, doc - lastDoc);
+        size = putVarInt(bytes, size, termFreq);
+        lastDoc = doc;
+        docFreq++;
+    }
+
+    /**
+     * Appends the list of a later segment, whose docs all come after the docs of this list
+     */
+    void append(byte[] postings, int otherDocFreq, int otherLastDoc) {
+        int[] firstDoc = new int[1];
+        int position = getVarInt(postings, 0, firstDoc);
+        ensure(5 + postings.length - position);
+        size = putVarInt(bytes, size, firstDoc[0] - lastDoc);
+        System.arraycopy(postings, position, bytes, size, postings.length - position);
+        size += postings.length - position;
+        lastDoc = otherLastDoc;
+        docFreq += otherDocFreq;
+    }
+
+    byte[] toByteArray() {
+        return Arrays.copyOf(bytes, size);
+    }
+
+    int getDocFreq() {
+        return docFreq;
+    }
+
+    int getLastDoc() {
+        return lastDoc;
+    }
+
+    private void ensure(int extra) {
+        if (size + extra > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+        }
+    }
+
+    static int putVarInt(byte[] bytes, int position, int value) {
+        while ((value & ~0x7f) != 0) {
+            bytes[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        bytes[position++] = (byte) value;
+        return position;
+    }
+
+    /**
+     * Reads a varint into value[0]
+     * @return The position after it
+     */
+    static int getVarInt(byte[] bytes, int position, int[] value) {
+        int result = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = bytes[position++];
+            result |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                value[0] = result;
+                return position;
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package bigdatacourse.hw2.studentcode.search;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits text into search terms: maximal runs of letters and digits, lower-cased.
+ * Single characters are dropped and overly long runs (URLs, garbage) are cut to MAX_TERM_LENGTH.
+ */
+public final class Tokenizer {
+
+    static final int MIN_TERM_LENGTH = 2;
+    static final int MAX_TERM_LENGTH = 32;
+
+    private Tokenizer() {
+    }
+
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+
+        StringBuilder term = new StringBuilder(MAX_TERM_LENGTH);
+        int length = 0;
+        for (int i = 0; i <= text.length(); ) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : ' ';
+            if (Character.isLetterOrDigit(codePoint)) {
+                if (length < MAX_TERM_LENGTH) {
+                    term.appendCodePoint(Character.toLowerCase(codePoint));
+                }
+                length++;
+            } else {
+                if (length >= MIN_TERM_LENGTH) {
+                    terms.add(term.toString());
+                }
+                term.setLength(0);
+                length = 0;
+            }
+            i += i < text.length() ? Character.charCount(codePoint) : 1;
+        }
+        return terms;
+    }
+}
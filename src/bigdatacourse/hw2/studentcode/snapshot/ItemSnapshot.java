@@ -0,0 +1,67 @@
+package bigdatacourse.hw2.studentcode.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.stream.IntStream;
+
+import bigdatacourse.hw2.studentcode.ItemRecord;
+import bigdatacourse.hw2.studentcode.RecordCodec;
+
+/**
+ * Memory-mapped, read-only items snapshot written by SnapshotWriter.writeItems.
+ */
+public final class ItemSnapshot implements Closeable {
+
+    private final MappedFile file;
+    private final StringTable items;
+
+    private ItemSnapshot(MappedFile file) throws IOException {
+        if (file.getInt(0) != SnapshotWriter.ITEMS_MAGIC || file.getInt(Integer.BYTES) != SnapshotWriter.VERSION) {
+            file.close();
+            throw new IOException("not an items snapshot");
+        }
+        this.file = file;
+        this.items = new StringTable(file, SnapshotWriter.ITEMS_HEADER_SIZE);
+    }
+
+    /**
+     * Maps the snapshot, nothing but the header is read
+     */
+    public static ItemSnapshot open(Path path) throws IOException {
+        return new ItemSnapshot(new MappedFile(path));
+    }
+
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * @return The item or null if the snapshot does not hold it
+     */
+    public ItemRecord get(String asin) {
+        int id = items.find(asin);
+        return id < 0 ? null : item(id);
+    }
+
+    /**
+     * @return Every item of the snapshot, decoded while iterating, in asin order
+     */
+    public Iterator<ItemRecord> items() {
+        return IntStream.range(0, items.size()).mapToObj(this::item).iterator();
+    }
+
+    private ItemRecord item(int id) {
+        ByteBuffer value = items.value(id);
+        byte[] encoded = new byte[value.remaining()];
+        value.get(encoded);
+        return RecordCodec.decodeItem(encoded);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,79 @@
+package bigdatacourse.hw2.studentcode.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only memory mapping of a whole file, larger than the 2GB limit of a single MappedByteBuffer.
+ * The file is mapped in 1GB chunks, each extended by MAX_READ bytes into the next one, so any read of
+ * up to MAX_READ bytes falls entirely inside the chunk it starts in.
+ * Nothing is read eagerly: pages are brought in (and evicted) by the OS page cache.
+ */
+final class MappedFile implements Closeable {
+
+    private static final int CHUNK_BITS = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_BITS;
+
+    // Largest single read, text blocks are written smaller than this
+    static final int MAX_READ = 64 << 20;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final long size;
+
+    MappedFile(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        this.chunks = new MappedByteBuffer[(int) ((size + CHUNK_SIZE - 1) >>> CHUNK_BITS)];
+        for (int i = 0; i < chunks.length; i++) {
+            long start = (long) i << CHUNK_BITS;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, CHUNK_SIZE + MAX_READ));
+        }
+    }
+
+    long size() {
+        return size;
+    }
+
+    private ByteBuffer chunk(long position) {
+        return chunks[(int) (position >>> CHUNK_BITS)];
+    }
+
+    private static int offset(long position) {
+        return (int) (position & (CHUNK_SIZE - 1));
+    }
+
+    byte getByte(long position) {
+        return chunk(position).get(offset(position));
+    }
+
+    int getInt(long position) {
+        return chunk(position).getInt(offset(position));
+    }
+
+    long getLong(long position) {
+        return chunk(position).getLong(offset(position));
+    }
+
+    float getFloat(long position) {
+        return chunk(position).getFloat(offset(position));
+    }
+
+    /**
+     * @return A view (no copy) of length bytes starting at position, length must not exceed MAX_READ
+     */
+    ByteBuffer slice(long position, int length) {
+        return chunk(position).slice(offset(position), length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mappings are released by the GC, closing the channel does not unmap them
+        channel.close();
+    }
+}
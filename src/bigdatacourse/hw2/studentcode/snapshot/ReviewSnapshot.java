@@ -0,0 +1,289 @@
+package bigdatacourse.hw2.studentcode.snapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import bigdatacourse.hw2.studentcode.ReviewRecord;
+import bigdatacourse.hw2.studentcode.ReviewStats;
+import bigdatacourse.hw2.studentcode.compress.TextBlocks;
+
+/**
+ * Memory-mapped, read-only reviews snapshot written by SnapshotWriter.writeReviews.
+ * Opening only maps the file; lookups binary search the mapped dictionaries and read the columns in place.
+ * Texts are inflated one block at a time, with the dictionary stored in the file, only when the summary or the text of
+ * a review is asked for; each view reads the copy of the texts stored in its own order, so a partition spans few blocks.
+ */
+public final class ReviewSnapshot implements Closeable {
+
+    // Section of a range that is not read through a rating index
+    private static final int NO_INDEX = -1;
+
+    private final MappedFile file;
+    private final int rows;
+    private final long[] sections = new long[SnapshotWriter.SECTIONS];
+    private final StringTable reviewers;
+    private final StringTable asins;
+    private final StringTable names;
+    private final byte[] dictionary;
+
+    private ReviewSnapshot(MappedFile file) throws IOException {
+        if (file.getInt(0) != SnapshotWriter.REVIEWS_MAGIC || file.getInt(Integer.BYTES) != SnapshotWriter.VERSION) {
+            file.close();
+            throw new IOException("not a reviews snapshot");
+        }
+        this.file = file;
+        this.rows = file.getInt(2 * Integer.BYTES);
+        for (int i = 0; i < sections.length; i++) {
+            sections[i] = file.getLong(3 * Integer.BYTES + (long) i * Long.BYTES);
+        }
+        this.reviewers = new StringTable(file, sections[SnapshotWriter.REVIEWERS]);
+        this.asins = new StringTable(file, sections[SnapshotWriter.ASINS]);
+        this.names = new StringTable(file, sections[SnapshotWriter.NAMES]);
+        int dictionaryLength = file.getInt(sections[SnapshotWriter.TEXT_DICTIONARY]);
+        if (dictionaryLength < 0) {
+            this.dictionary = null;
+        } else {
+            this.dictionary = new byte[dictionaryLength];
+            file.slice(sections[SnapshotWriter.TEXT_DICTIONARY] + Integer.BYTES, dictionaryLength).get(this.dictionary);
+        }
+    }
+
+    /**
+     * Maps the snapshot, nothing but the header is read
+     */
+    public static ReviewSnapshot open(Path path) throws IOException {
+        return new ReviewSnapshot(new MappedFile(path));
+    }
+
+    public int size() {
+        return rows;
+    }
+
+    /**
+     * @return Every review of the snapshot, in user_reviews order
+     */
+    public Iterator<ReviewRecord> reviews() {
+        return new Rows(0, rows, false, NO_INDEX);
+    }
+
+    /**
+     * @return The reviewer's reviews in user_reviews clustering order
+     */
+    public Iterator<ReviewRecord> userReviews(String reviewerID) {
+        int id = reviewers.find(reviewerID);
+        if (id < 0) {
+            return Collections.emptyIterator();
+        }
+        return new Rows(partitionStart(SnapshotWriter.USER_PARTITIONS, id), partitionStart(SnapshotWriter.USER_PARTITIONS, id + 1),
+                false, NO_INDEX);
+    }
+
+    /**
+     * @return The item's reviews in item_reviews clustering order
+     */
+    public Iterator<ReviewRecord> itemReviews(String asin) {
+        int id = asins.find(asin);
+        if (id < 0) {
+            return Collections.emptyIterator();
+        }
+        return new Rows(partitionStart(SnapshotWriter.ITEM_PARTITIONS, id), partitionStart(SnapshotWriter.ITEM_PARTITIONS, id + 1),
+                true, NO_INDEX);
+    }
+
+    /**
+     * @return The reviewer's reviews with the rating written between fromTime and toTime (inclusive),
+     * in user_reviews clustering order, read from the rating index
+     */
+    public Iterator<ReviewRecord> userReviews(String reviewerID, int rating, long fromTime, long toTime) {
+        int id = reviewers.find(reviewerID);
+        return id < 0 ? Collections.emptyIterator()
+                : ratingRange(SnapshotWriter.USER_RATING_PARTITIONS, SnapshotWriter.USER_RATING_INDEX, false, id, rating, fromTime, toTime);
+    }
+
+    /**
+     * @return The item's reviews with the rating written between fromTime and toTime (inclusive),
+     * in item_reviews clustering order, read from the rating index
+     */
+    public Iterator<ReviewRecord> itemReviews(String asin, int rating, long fromTime, long toTime) {
+        int id = asins.find(asin);
+        return id < 0 ? Collections.emptyIterator()
+                : ratingRange(SnapshotWriter.ITEM_RATING_PARTITIONS, SnapshotWriter.ITEM_RATING_INDEX, true, id, rating, fromTime, toTime);
+    }
+
+    private Iterator<ReviewRecord> ratingRange(int partitions, int index, boolean itemOrder, int id, int rating,
+                                               long fromTime, long toTime) {
+        int bucket = id * SnapshotWriter.RATINGS + rating - ReviewStats.MIN_RATING;
+        int start = intColumn(partitions, bucket);
+        int end = intColumn(partitions, bucket + 1);
+        if (fromTime > toTime) {
+            return Collections.emptyIterator();
+        }
+        // Entries are newest first: from the first one at or before toTime to the first one before fromTime
+        int first = firstAtOrBefore(index, itemOrder, start, end, toTime);
+        int last = fromTime == Long.MIN_VALUE ? end : firstAtOrBefore(index, itemOrder, first, end, fromTime - 1);
+        return new Rows(first, last, itemOrder, index);
+    }
+
+    /**
+     * @return The first index entry in [start, end) whose review was written at or before time (end if none)
+     */
+    private int firstAtOrBefore(int index, boolean itemOrder, int start, int end, long time) {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            int entry = intColumn(index, middle);
+            int row = itemOrder ? intColumn(SnapshotWriter.ITEM_ORDER, entry) : entry;
+            if (longColumn(SnapshotWriter.TIME_COLUMN, row) > time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return The number of reviews of the reviewer, read from the partition directory
+     */
+    public int countUserReviews(String reviewerID) {
+        int id = reviewers.find(reviewerID);
+        return id < 0 ? 0 : partitionStart(SnapshotWriter.USER_PARTITIONS, id + 1) - partitionStart(SnapshotWriter.USER_PARTITIONS, id);
+    }
+
+    /**
+     * @return The number of reviews of the item, read from the partition directory
+     */
+    public int countItemReviews(String asin) {
+        int id = asins.find(asin);
+        return id < 0 ? 0 : partitionStart(SnapshotWriter.ITEM_PARTITIONS, id + 1) - partitionStart(SnapshotWriter.ITEM_PARTITIONS, id);
+    }
+
+    /**
+     * @return The summary of the reviewer's reviews, null if there are none
+     */
+    public ReviewStats userReviewStats(String reviewerID) {
+        int id = reviewers.find(reviewerID);
+        return id < 0 ? null : stats(SnapshotWriter.USER_STATS, id);
+    }
+
+    /**
+     * @return The summary of the item's reviews, null if it has none
+     */
+    public ReviewStats itemReviewStats(String asin) {
+        int id = asins.find(asin);
+        return id < 0 ? null : stats(SnapshotWriter.ITEM_STATS, id);
+    }
+
+    private ReviewStats stats(int section, int id) {
+        return ReviewStats.decode(file.slice(sections[section] + (long) id * ReviewStats.ENCODED_BYTES, ReviewStats.ENCODED_BYTES));
+    }
+
+    /**
+     * @return The first row of the partition in a partition directory, the row count for the id past the last one
+     */
+    private int partitionStart(int section, int id) {
+        return intColumn(section, id);
+    }
+
+    private long longColumn(int section, int row) {
+        return file.getLong(sections[section] + (long) row * Long.BYTES);
+    }
+
+    private int intColumn(int section, int row) {
+        return file.getInt(sections[section] + (long) row * Integer.BYTES);
+    }
+
+    private float floatColumn(int section, int row) {
+        return file.getFloat(sections[section] + (long) row * Float.BYTES);
+    }
+
+    /**
+     * Iterates a range of rows, either directly (user order) or through the item order permutation,
+     * or a range of a rating index whose entries are positions in one of those orders.
+     * Texts are read from the blocks of the same order when a review asks for them; the last inflated block
+     * is kept, so a scan that formats its reviews inflates each of its blocks once.
+     */
+    private final class Rows implements Iterator<ReviewRecord> {
+
+        private final int end;
+        private final boolean itemOrder;
+        private final long textDirectory;
+        private final int index;
+        private int position;
+        private int block = -1;
+        private byte[] texts;
+
+        /**
+         * @param index Section of the rating index that the range is in, NO_INDEX for a range of the view itself
+         */
+        Rows(int start, int end, boolean itemOrder, int index) {
+            this.position = start;
+            this.end = end;
+            this.itemOrder = itemOrder;
+            this.index = index;
+            this.textDirectory = sections[itemOrder ? SnapshotWriter.ITEM_TEXT_DIRECTORY : SnapshotWriter.TEXT_DIRECTORY];
+        }
+
+        @Override
+        public boolean hasNext() {
+            return position < end;
+        }
+
+        @Override
+        public ReviewRecord next() {
+            if (position >= end) {
+                throw new NoSuchElementException();
+            }
+            // Texts are stored in the order of the view, by position
+            int entry = index == NO_INDEX ? position : intColumn(index, position);
+            position++;
+            int row = itemOrder ? intColumn(SnapshotWriter.ITEM_ORDER, entry) : entry;
+
+            int nameId = intColumn(SnapshotWriter.NAME_COLUMN, row);
+            return new ReviewRecord(
+                    reviewers.key(intColumn(SnapshotWriter.REVIEWER_COLUMN, row)),
+                    asins.key(intColumn(SnapshotWriter.ASIN_COLUMN, row)),
+                    nameId < 0 ? null : names.key(nameId),
+                    floatColumn(SnapshotWriter.OVERALL_COLUMN, row),
+                    () -> text(entry, 1),
+                    () -> text(entry, 0),
+                    longColumn(SnapshotWriter.TIME_COLUMN, row));
+        }
+
+        /**
+         * @return The summary (index 0) or review text (index 1) at a position of the view, inflating its block if needed
+         */
+        private String text(int entry, int index) {
+            int entryBlock = entry / SnapshotWriter.TEXT_BLOCK_ROWS;
+            if (entryBlock != block) {
+                texts = inflate(entryBlock);
+                block = entryBlock;
+            }
+            return TextBlocks.get(texts, 2 * (entry % SnapshotWriter.TEXT_BLOCK_ROWS) + index);
+        }
+
+        private byte[] inflate(int textBlock) {
+            long directory = textDirectory + Integer.BYTES;
+            long start = file.getLong(directory + (long) textBlock * Long.BYTES);
+            long end = file.getLong(directory + (long) (textBlock + 1) * Long.BYTES);
+
+            // The compressed block is handed to the inflater straight from the mapping
+            try {
+                return TextBlocks.inflate(file.slice(start, (int) (end - start)), dictionary);
+            } catch (IllegalStateException e) {
+                throw new UncheckedIOException(new IOException("corrupt text block " + textBlock, e));
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
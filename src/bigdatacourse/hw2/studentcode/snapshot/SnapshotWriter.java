@@ -0,0 +1,461 @@
+package bigdatacourse.hw2.studentcode.snapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import bigdatacourse.hw2.studentcode.ItemRecord;
+import bigdatacourse.hw2.studentcode.RecordCodec;
+import bigdatacourse.hw2.studentcode.ReviewRecord;
+import bigdatacourse.hw2.studentcode.ReviewStats;
+import bigdatacourse.hw2.studentcode.compress.TextBlocks;
+import bigdatacourse.hw2.studentcode.compress.TextDictionary;
+
+/**
+ * Exports items and reviews into immutable snapshot files, read back with ItemSnapshot and ReviewSnapshot.
+ *
+ * The reviews file stores every review once, in columns, sorted in user_reviews order
+ * (reviewerID, unixReviewTime DESC, asin); item_reviews order is a permutation of the rows.
+ * Layout, after the header:
+ * - sorted reviewerID, asin and reviewerName tables (dictionaries, rows refer to them by id)
+ * - partition directories: first row of every reviewer, first position in the item order of every asin
+ * - the item order permutation
+ * - fixed width columns: unixReviewTime, reviewerID id, asin id, reviewerName id (-1 for null), overall
+ * - summary and reviewText, deflated in blocks of TEXT_BLOCK_ROWS consecutive rows, and the block directory
+ * - the preset dictionary of the text blocks, trained on the first TEXT_SAMPLE_ROWS rows
+ * - the review summary of every reviewer and of every asin, ReviewStats.ENCODED_BYTES each, in id order
+ * - summary and reviewText again, in blocks of TEXT_BLOCK_ROWS consecutive positions of the item order, and their
+ *   directory: the texts are stored twice so that a partition of either view reads a few consecutive blocks
+ * - rating indexes of both views: the positions (rows, or positions in the item order) of the rated reviews grouped by
+ *   (partition id, rating) in the order of the view, and the first entry of every (partition id, rating)
+ * Files are written to a temporary name and renamed, so readers never see a partial snapshot.
+ */
+public final class SnapshotWriter {
+
+    static final int ITEMS_MAGIC = 0x48573249;     // "HW2I"
+    static final int REVIEWS_MAGIC = 0x48573252;   // "HW2R"
+    static final int VERSION = 5;
+
+    static final int TEXT_BLOCK_ROWS = 64;
+    static final int TEXT_SAMPLE_ROWS = 1024;
+
+    // Sections of the reviews file, in the order of their positions in the header
+    static final int REVIEWERS = 0;
+    static final int ASINS = 1;
+    static final int NAMES = 2;
+    static final int USER_PARTITIONS = 3;
+    static final int ITEM_PARTITIONS = 4;
+    static final int ITEM_ORDER = 5;
+    static final int TIME_COLUMN = 6;
+    static final int REVIEWER_COLUMN = 7;
+    static final int ASIN_COLUMN = 8;
+    static final int NAME_COLUMN = 9;
+    static final int OVERALL_COLUMN = 10;
+    static final int TEXT_DIRECTORY = 11;
+    static final int TEXT_DICTIONARY = 12;
+    static final int USER_STATS = 13;
+    static final int ITEM_STATS = 14;
+    static final int ITEM_TEXT_DIRECTORY = 15;
+    static final int USER_RATING_PARTITIONS = 16;
+    static final int USER_RATING_INDEX = 17;
+    static final int ITEM_RATING_PARTITIONS = 18;
+    static final int ITEM_RATING_INDEX = 19;
+    static final int SECTIONS = 20;
+
+    // Buckets of the rating indexes per partition, one per rating
+    static final int RATINGS = ReviewStats.MAX_RATING - ReviewStats.MIN_RATING + 1;
+
+    // magic, version, rows, then the position of every section
+    static final int REVIEWS_HEADER_SIZE = 3 * Integer.BYTES + SECTIONS * Long.BYTES;
+    static final int ITEMS_HEADER_SIZE = 2 * Integer.BYTES;
+
+    private SnapshotWriter() {
+    }
+
+    /**
+     * Writes the items into a snapshot file: a string table from asin to the encoded item
+     */
+    public static void writeItems(Path path, Collection<ItemRecord> items) throws IOException {
+        TreeMap<byte[], byte[]> table = new TreeMap<>(Arrays::compareUnsigned);
+        for (ItemRecord item : items) {
+            table.put(utf8(item.getAsin()), RecordCodec.encodeItem(item));
+        }
+
+        write(path, out -> {
+            out.writeInt(ITEMS_MAGIC);
+            out.writeInt(VERSION);
+            writeStringTable(out, new ArrayList<>(table.keySet()), new ArrayList<>(table.values()));
+        }, null);
+    }
+
+    /**
+     * Writes the reviews into a columnar snapshot file
+     */
+    public static void writeReviews(Path path, Collection<ReviewRecord> reviews) throws IOException {
+        List<byte[]> reviewers = dictionary(reviews, ReviewRecord::getReviewerID);
+        List<byte[]> asins = dictionary(reviews, ReviewRecord::getAsin);
+        List<byte[]> names = dictionary(reviews, ReviewRecord::getReviewerName);
+
+        // Ids are ranks in the sorted dictionaries, so comparing ids is comparing the strings
+        int size = reviews.size();
+        int[] reviewerIds = new int[size];
+        int[] asinIds = new int[size];
+        int[] nameIds = new int[size];
+        ReviewRecord[] records = reviews.toArray(new ReviewRecord[0]);
+        byte[][] reviewersArray = reviewers.toArray(new byte[0][]);
+        byte[][] asinsArray = asins.toArray(new byte[0][]);
+        byte[][] namesArray = names.toArray(new byte[0][]);
+        for (int i = 0; i < size; i++) {
+            reviewerIds[i] = Arrays.binarySearch(reviewersArray, utf8(records[i].getReviewerID()), Arrays::compareUnsigned);
+            asinIds[i] = Arrays.binarySearch(asinsArray, utf8(records[i].getAsin()), Arrays::compareUnsigned);
+            nameIds[i] = records[i].getReviewerName() == null ? -1
+                    : Arrays.binarySearch(namesArray, utf8(records[i].getReviewerName()), Arrays::compareUnsigned);
+        }
+
+        // Rows in user_reviews order
+        Integer[] userOrder = sequence(size);
+        Arrays.sort(userOrder, Comparator.<Integer>comparingInt(i -> reviewerIds[i])
+                .thenComparing(Comparator.<Integer>comparingLong(i -> records[i].getUnixReviewTime()).reversed())
+                .thenComparingInt(i -> asinIds[i]));
+
+        // Row numbers (positions in the user order) in item_reviews order
+        int[] rowOf = new int[size];
+        for (int row = 0; row < size; row++) {
+            rowOf[userOrder[row]] = row;
+        }
+        Integer[] itemOrder = sequence(size);
+        Arrays.sort(itemOrder, Comparator.<Integer>comparingInt(i -> asinIds[i])
+                .thenComparing(Comparator.<Integer>comparingLong(i -> records[i].getUnixReviewTime()).reversed())
+                .thenComparingInt(i -> reviewerIds[i]));
+
+        long[] sections = new long[SECTIONS];
+        write(path, out -> {
+            out.writeInt(REVIEWS_MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            for (int i = 0; i < SECTIONS; i++) {
+                out.writeLong(0);
+            }
+
+            sections[REVIEWERS] = out.position();
+            writeStringTable(out, reviewers, null);
+            sections[ASINS] = out.position();
+            writeStringTable(out, asins, null);
+            sections[NAMES] = out.position();
+            writeStringTable(out, names, null);
+
+            sections[USER_PARTITIONS] = out.position();
+            writePartitions(out, reviewers.size(), size, row -> reviewerIds[userOrder[row]]);
+            sections[ITEM_PARTITIONS] = out.position();
+            writePartitions(out, asins.size(), size, position -> asinIds[itemOrder[position]]);
+
+            sections[ITEM_ORDER] = out.position();
+            for (int position = 0; position < size; position++) {
+                out.writeInt(rowOf[itemOrder[position]]);
+            }
+
+            sections[TIME_COLUMN] = out.position();
+            for (int row = 0; row < size; row++) {
+                out.writeLong(records[userOrder[row]].getUnixReviewTime());
+            }
+            sections[REVIEWER_COLUMN] = out.position();
+            for (int row = 0; row < size; row++) {
+                out.writeInt(reviewerIds[userOrder[row]]);
+            }
+            sections[ASIN_COLUMN] = out.position();
+            for (int row = 0; row < size; row++) {
+                out.writeInt(asinIds[userOrder[row]]);
+            }
+            sections[NAME_COLUMN] = out.position();
+            for (int row = 0; row < size; row++) {
+                out.writeInt(nameIds[userOrder[row]]);
+            }
+            sections[OVERALL_COLUMN] = out.position();
+            for (int row = 0; row < size; row++) {
+                out.writeFloat(records[userOrder[row]].getOverall());
+            }
+
+            // Text blocks, then their directory and dictionary
+            List<String> sample = new ArrayList<>();
+            for (int row = 0; row < Math.min(size, TEXT_SAMPLE_ROWS); row++) {
+                sample.add(records[userOrder[row]].getSummary());
+                sample.add(records[userOrder[row]].getReviewText());
+            }
+            byte[] dictionary = TextDictionary.train(sample);
+
+            long[] blockOffsets = writeTextBlocks(out, size, row -> records[userOrder[row]], dictionary);
+            sections[TEXT_DIRECTORY] = out.position();
+            writeTextDirectory(out, blockOffsets);
+
+            sections[TEXT_DICTIONARY] = out.position();
+            out.writeInt(dictionary == null ? -1 : dictionary.length);
+            if (dictionary != null) {
+                out.write(dictionary);
+            }
+
+            sections[USER_STATS] = out.position();
+            writeStats(out, reviewers.size(), size, row -> reviewerIds[userOrder[row]], row -> records[userOrder[row]]);
+            sections[ITEM_STATS] = out.position();
+            writeStats(out, asins.size(), size, position -> asinIds[itemOrder[position]], position -> records[itemOrder[position]]);
+
+            long[] itemBlockOffsets = writeTextBlocks(out, size, position -> records[itemOrder[position]], dictionary);
+            sections[ITEM_TEXT_DIRECTORY] = out.position();
+            writeTextDirectory(out, itemBlockOffsets);
+
+            int[][] userRatings = ratingIndex(reviewers.size(), size, row -> reviewerIds[userOrder[row]],
+                    row -> records[userOrder[row]]);
+            sections[USER_RATING_PARTITIONS] = out.position();
+            writeInts(out, userRatings[0]);
+            sections[USER_RATING_INDEX] = out.position();
+            writeInts(out, userRatings[1]);
+            int[][] itemRatings = ratingIndex(asins.size(), size, position -> asinIds[itemOrder[position]],
+                    position -> records[itemOrder[position]]);
+            sections[ITEM_RATING_PARTITIONS] = out.position();
+            writeInts(out, itemRatings[0]);
+            sections[ITEM_RATING_INDEX] = out.position();
+            writeInts(out, itemRatings[1]);
+        }, positions -> {
+            for (long section : sections) {
+                positions.putLong(section);
+            }
+        });
+    }
+
+    /**
+     * Writes first-entry positions of every partition (and the end) for entries sorted by partition id
+     */
+    private static void writePartitions(CountingOutput out, int partitions, int size, IntToInt partitionOf) throws IOException {
+        int entry = 0;
+        for (int partition = 0; partition < partitions; partition++) {
+            while (entry < size && partitionOf.apply(entry) < partition) {
+                entry++;
+            }
+            out.writeInt(entry);
+        }
+        out.writeInt(size);
+    }
+
+    /**
+     * Writes the summary and reviewText of the reviews, in the given order, in deflated blocks of TEXT_BLOCK_ROWS reviews
+     * @return The position of every block and the end of the last one
+     */
+    private static long[] writeTextBlocks(CountingOutput out, int size, IntFunction<ReviewRecord> reviewOf,
+                                          byte[] dictionary) throws IOException {
+        int blocks = (size + TEXT_BLOCK_ROWS - 1) / TEXT_BLOCK_ROWS;
+        long[] blockOffsets = new long[blocks + 1];
+        for (int block = 0; block < blocks; block++) {
+            blockOffsets[block] = out.position();
+            List<String> texts = new ArrayList<>(2 * TEXT_BLOCK_ROWS);
+            for (int entry = block * TEXT_BLOCK_ROWS; entry < Math.min(size, (block + 1) * TEXT_BLOCK_ROWS); entry++) {
+                ReviewRecord review = reviewOf.apply(entry);
+                texts.add(review.getSummary());
+                texts.add(review.getReviewText());
+            }
+            out.write(TextBlocks.deflate(TextBlocks.encode(texts), dictionary));
+        }
+        blockOffsets[blocks] = out.position();
+        return blockOffsets;
+    }
+
+    private static void writeTextDirectory(CountingOutput out, long[] blockOffsets) throws IOException {
+        out.writeInt(blockOffsets.length - 1);
+        for (long offset : blockOffsets) {
+            out.writeLong(offset);
+        }
+    }
+
+    /**
+     * Groups the rated entries of a view (rows, or positions in the item order) by (partition id, rating),
+     * keeping the order of the view within a group
+     * @return The first index entry of every group and the end, then the index entries
+     */
+    private static int[][] ratingIndex(int partitions, int size, IntToInt partitionOf, IntFunction<ReviewRecord> reviewOf)
+            throws IOException {
+        int[] buckets = new int[size];
+        int[] starts = new int[partitions * RATINGS + 1];
+        for (int entry = 0; entry < size; entry++) {
+            int rating = (int) reviewOf.apply(entry).getOverall();
+            buckets[entry] = ReviewStats.isRating(rating) ? partitionOf.apply(entry) * RATINGS + rating - ReviewStats.MIN_RATING : -1;
+            if (buckets[entry] >= 0) {
+                starts[buckets[entry] + 1]++;
+            }
+        }
+        for (int bucket = 1; bucket < starts.length; bucket++) {
+            starts[bucket] += starts[bucket - 1];
+        }
+
+        int[] index = new int[starts[starts.length - 1]];
+        int[] next = Arrays.copyOf(starts, starts.length - 1);
+        for (int entry = 0; entry < size; entry++) {
+            if (buckets[entry] >= 0) {
+                index[next[buckets[entry]]++] = entry;
+            }
+        }
+        return new int[][] {starts, index};
+    }
+
+    private static void writeInts(CountingOutput out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /**
+     * Writes the review summary of every partition for entries sorted by partition id
+     */
+    private static void writeStats(CountingOutput out, int partitions, int size, IntToInt partitionOf,
+                                   IntFunction<ReviewRecord> reviewOf) throws IOException {
+        int entry = 0;
+        for (int partition = 0; partition < partitions; partition++) {
+            ReviewStats stats = new ReviewStats();
+            for (; entry < size && partitionOf.apply(entry) == partition; entry++) {
+                ReviewRecord review = reviewOf.apply(entry);
+                stats.add(review.getOverall(), review.getUnixReviewTime());
+            }
+            out.write(stats.encode());
+        }
+    }
+
+    private static void writeStringTable(CountingOutput out, List<byte[]> keys, List<byte[]> values) throws IOException {
+        int count = keys.size();
+        long position = out.position() + Integer.BYTES + 2L * (count + 1) * Long.BYTES;
+
+        out.writeInt(count);
+        for (byte[] key : keys) {
+            out.writeLong(position);
+            position += key.length;
+        }
+        out.writeLong(position);
+        for (int i = 0; i < count; i++) {
+            out.writeLong(position);
+            position += values == null ? 0 : values.get(i).length;
+        }
+        out.writeLong(position);
+
+        for (byte[] key : keys) {
+            out.write(key);
+        }
+        if (values != null) {
+            for (byte[] value : values) {
+                out.write(value);
+            }
+        }
+    }
+
+    private static List<byte[]> dictionary(Collection<ReviewRecord> reviews, Function<ReviewRecord, String> column) {
+        TreeMap<byte[], Boolean> sorted = new TreeMap<>(Arrays::compareUnsigned);
+        for (ReviewRecord review : reviews) {
+            String value = column.apply(review);
+            if (value != null) {
+                sorted.put(utf8(value), Boolean.TRUE);
+            }
+        }
+        return new ArrayList<>(sorted.keySet());
+    }
+
+    private static Integer[] sequence(int size) {
+        Integer[] sequence = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            sequence[i] = i;
+        }
+        return sequence;
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private interface IntToInt {
+        int apply(int value) throws IOException;
+    }
+
+    private interface Body {
+        void write(CountingOutput out) throws IOException;
+    }
+
+    private interface Header {
+        void fill(ByteBuffer sections);
+    }
+
+    /**
+     * Writes the body into a temporary file, patches the section positions of the header if needed,
+     * forces and renames the file
+     */
+    private static void write(Path path, Body body, Header header) throws IOException {
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.createDirectories(path.toAbsolutePath().getParent());
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            CountingOutput out = new CountingOutput(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+            body.write(out);
+            out.flush();
+            if (header != null) {
+                ByteBuffer sectionsBuffer = ByteBuffer.allocate(SECTIONS * Long.BYTES);
+                header.fill(sectionsBuffer);
+                sectionsBuffer.flip();
+                channel.write(sectionsBuffer, REVIEWS_HEADER_SIZE - SECTIONS * Long.BYTES);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * DataOutputStream that knows its position beyond 2GB
+     */
+    static final class CountingOutput extends DataOutputStream {
+
+        private final Counter counter;
+
+        CountingOutput(OutputStream out) {
+            this(new Counter(out));
+        }
+
+        private CountingOutput(Counter counter) {
+            super(counter);
+            this.counter = counter;
+        }
+
+        long position() {
+            return counter.count;
+        }
+    }
+
+    private static final class Counter extends FilterOutputStream {
+        private long count;
+
+        Counter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            out.write(bytes, offset, length);
+            count += length;
+        }
+    }
+}
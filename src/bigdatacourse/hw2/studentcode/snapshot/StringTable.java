@@ -0,0 +1,81 @@
+package bigdatacourse.hw2.studentcode.snapshot;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Sorted table of strings inside a snapshot, mapping every string to its dense id (its rank)
+ * and optionally carrying a binary value per string.
+ * Layout: count (int), count + 1 key offsets (long), count + 1 value offsets (long), key bytes, value bytes.
+ * Keys are UTF-8 and sorted by unsigned bytes, which is also the CQL order of text.
+ */
+final class StringTable {
+
+    private final MappedFile file;
+    private final int count;
+    private final long keyOffsets;
+    private final long valueOffsets;
+
+    StringTable(MappedFile file, long position) {
+        this.file = file;
+        this.count = file.getInt(position);
+        this.keyOffsets = position + Integer.BYTES;
+        this.valueOffsets = keyOffsets + (long) (count + 1) * Long.BYTES;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * Binary search comparing the key with the mapped bytes in place
+     * @return The id of the key or -1 if it is not in the table
+     */
+    int find(String key) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int order = compare(middle, bytes);
+            if (order == 0) {
+                return middle;
+            }
+            if (order < 0) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(int id, byte[] key) {
+        long start = file.getLong(keyOffsets + (long) id * Long.BYTES);
+        int length = (int) (file.getLong(keyOffsets + (long) (id + 1) * Long.BYTES) - start);
+        int common = Math.min(length, key.length);
+        for (int i = 0; i < common; i++) {
+            int order = Integer.compare(file.getByte(start + i) & 0xff, key[i] & 0xff);
+            if (order != 0) {
+                return order;
+            }
+        }
+        return Integer.compare(length, key.length);
+    }
+
+    String key(int id) {
+        long start = file.getLong(keyOffsets + (long) id * Long.BYTES);
+        int length = (int) (file.getLong(keyOffsets + (long) (id + 1) * Long.BYTES) - start);
+        ByteBuffer bytes = file.slice(start, length);
+        return StandardCharsets.UTF_8.decode(bytes).toString();
+    }
+
+    /**
+     * @return A view of the value of the id (no copy)
+     */
+    ByteBuffer value(int id) {
+        long start = file.getLong(valueOffsets + (long) id * Long.BYTES);
+        int length = (int) (file.getLong(valueOffsets + (long) (id + 1) * Long.BYTES) - start);
+        return file.slice(start, length);
+    }
+}
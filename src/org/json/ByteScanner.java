@@ -0,0 +1,123 @@
+package org.json;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * The ByteScanner finds the bytes that end a run of plain text in UTF-8
+ * input: the end of a line, or the quote, backslash or control character that
+ * ends the plain part of a string. It tests eight bytes at a time in a long
+ * (SWAR), and the few bytes left at the end one at a time.
+ * <p>
+ * A byte equal to c is found by subtracting 0x01 from every byte of
+ * (word ^ c * 0x0101010101010101): only a zero byte borrows into its high bit
+ * without having had it set. A borrow can also flag the byte after a zero
+ * byte, so only the lowest flag is exact, which is the only one used.
+ * @author JSON.org
+ * @version 2014-05-03
+ */
+public final class ByteScanner {
+
+    private static final VarHandle LONGS =
+            MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private static final long LINE_FEEDS = '\n' * ONES;
+    private static final long CARRIAGE_RETURNS = '\r' * ONES;
+    private static final long BACKSLASHES = '\\' * ONES;
+    private static final long SPACES = ' ' * ONES;
+
+    private ByteScanner() {
+    }
+
+
+    /**
+     * Find the end of the line starting at from.
+     * @param bytes The input.
+     * @param from  The first byte to look at.
+     * @param to    The end of the input.
+     * @return The index of the first '\n' or '\r', or to if there is none.
+     */
+    public static int indexOfLineEnd(byte[] bytes, int from, int to) {
+        int i = from;
+        for (; i <= to - 8; i += 8) {
+            long word = (long) LONGS.get(bytes, i);
+            long found = zeros(word ^ LINE_FEEDS) | zeros(word ^ CARRIAGE_RETURNS);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i += 1) {
+            byte b = bytes[i];
+            if (b == '\n' || b == '\r') {
+                return i;
+            }
+        }
+        return to;
+    }
+
+
+    /**
+     * Find the end of the plain text of a string starting at from.
+     * @param bytes The input.
+     * @param from  The first byte to look at.
+     * @param to    The end of the input.
+     * @param quote The quoting character of the string.
+     * @return The index of the first quote, backslash or control character
+     * (below ' '), or to if there is none.
+     */
+    public static int indexOfStringEnd(byte[] bytes, int from, int to, char quote) {
+        long quotes = (quote & 0xFF) * ONES;
+        int i = from;
+        for (; i <= to - 8; i += 8) {
+            long word = (long) LONGS.get(bytes, i);
+            long found = zeros(word ^ quotes) | zeros(word ^ BACKSLASHES) | ((word - SPACES) & ~word & HIGHS);
+            if (found != 0) {
+                return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+        }
+        for (; i < to; i += 1) {
+            byte b = bytes[i];
+            if (b == quote || b == '\\' || (b >= 0 && b < ' ')) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+
+    /**
+     * @return The high bit set in the bytes of the word that are zero, the
+     * lowest one exactly.
+     */
+    private static long zeros(long word) {
+        return (word - ONES) & ~word & HIGHS;
+    }
+}
@@ -0,0 +1,230 @@
+package org.json;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * A JSONNumber parses the unquoted numbers of a JSON text straight from the
+ * characters into a long or a double, with the rules of
+ * JSONObject.stringToValue: text with a '.', 'e' or 'E' is a double, other
+ * text is a long only if it is written exactly as Long.toString would write
+ * it, and anything else (including overflow) is not a number. A parser keeps
+ * the last number it read, so one can be reused for a whole text.
+ * <p>
+ * Decimals with up to 18 significant digits and a small exponent are computed
+ * exactly with one multiplication or division, the others are handed to
+ * Double.valueOf.
+ * @author JSON.org
+ * @version 2014-05-03
+ */
+final class JSONNumber {
+
+    static final int NONE = 0;
+    static final int INT = 1;
+    static final int LONG = 2;
+    static final int DOUBLE = 3;
+
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Doubles represent every long below this exactly
+    private static final long EXACT_LIMIT = 1L << 53;
+
+    int kind;
+    long longValue;
+    double doubleValue;
+
+
+    /**
+     * Parse chars[from..to).
+     * @return The kind of number read, NONE if the text is not a number.
+     */
+    int parse(char[] chars, int from, int to) {
+        this.kind = NONE;
+        if (from >= to) {
+            return NONE;
+        }
+        char b = chars[from];
+        if ((b < '0' || b > '9') && b != '-') {
+            return NONE;
+        }
+        for (int i = from; i < to; i += 1) {
+            char c = chars[i];
+            if (c == '.' || c == 'e' || c == 'E') {
+                return this.parseDouble(chars, from, to);
+            }
+        }
+        return this.parseLong(chars, from, to);
+    }
+
+
+    /**
+     * Parse an integer, which must look as Long.toString would write it.
+     */
+    private int parseLong(char[] chars, int from, int to) {
+        boolean negative = chars[from] == '-';
+        int i = negative ? from + 1 : from;
+        if (i == to || to - i > 19) {
+            return NONE;
+        }
+        if (chars[i] == '0' && (to - i > 1 || negative)) {
+            return NONE;
+        }
+
+        // Accumulate negatively, Long.MIN_VALUE has no positive counterpart
+        long value = 0;
+        for (; i < to; i += 1) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return NONE;
+            }
+            if (value < (Long.MIN_VALUE + digit) / 10) {
+                return NONE;
+            }
+            value = value * 10 - digit;
+        }
+        if (!negative) {
+            if (value == Long.MIN_VALUE) {
+                return NONE;
+            }
+            value = -value;
+        }
+        this.longValue = value;
+        this.kind = value == (int) value ? INT : LONG;
+        return this.kind;
+    }
+
+
+    /**
+     * Parse a decimal number. Text that is not a plain decimal, or whose
+     * value cannot be computed exactly here, goes to Double.valueOf.
+     */
+    private int parseDouble(char[] chars, int from, int to) {
+        boolean negative = chars[from] == '-';
+        int i = negative ? from + 1 : from;
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+
+        for (; i < to && chars[i] >= '0' && chars[i] <= '9'; i += 1) {
+            any = true;
+            if (digits > 0 || chars[i] != '0') {
+                if (digits == 18) {
+                    return this.parseDoubleSlowly(chars, from, to);
+                }
+                mantissa = mantissa * 10 + (chars[i] - '0');
+                digits += 1;
+            }
+        }
+        if (i < to && chars[i] == '.') {
+            for (i += 1; i < to && chars[i] >= '0' && chars[i] <= '9'; i += 1) {
+                any = true;
+                if (digits > 0 || chars[i] != '0') {
+                    if (digits == 18) {
+                        return this.parseDoubleSlowly(chars, from, to);
+                    }
+                    mantissa = mantissa * 10 + (chars[i] - '0');
+                    digits += 1;
+                }
+                exponent -= 1;
+            }
+        }
+        if (!any) {
+            return this.parseDoubleSlowly(chars, from, to);
+        }
+        if (i < to && (chars[i] == 'e' || chars[i] == 'E')) {
+            i += 1;
+            boolean negativeExponent = false;
+            if (i < to && (chars[i] == '+' || chars[i] == '-')) {
+                negativeExponent = chars[i] == '-';
+                i += 1;
+            }
+            int start = i;
+            int written = 0;
+            for (; i < to && chars[i] >= '0' && chars[i] <= '9'; i += 1) {
+                written = written * 10 + (chars[i] - '0');
+                if (written > 100000) {
+                    return this.parseDoubleSlowly(chars, from, to);
+                }
+            }
+            if (i == start) {
+                return this.parseDoubleSlowly(chars, from, to);
+            }
+            exponent += negativeExponent ? -written : written;
+        }
+        if (i != to) {
+            return this.parseDoubleSlowly(chars, from, to);
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0;
+        } else if (mantissa < EXACT_LIMIT && exponent >= -22 && exponent <= 22) {
+            value = exponent < 0
+                    ? mantissa / POWERS_OF_TEN[-exponent]
+                    : mantissa * POWERS_OF_TEN[exponent];
+        } else {
+            return this.parseDoubleSlowly(chars, from, to);
+        }
+        this.doubleValue = negative ? -value : value;
+        this.kind = DOUBLE;
+        return DOUBLE;
+    }
+
+
+    private int parseDoubleSlowly(char[] chars, int from, int to) {
+        double value;
+        try {
+            value = Double.parseDouble(new String(chars, from, to - from));
+        } catch (NumberFormatException e) {
+            return NONE;
+        }
+        if (Double.isInfinite(value) || Double.isNaN(value)) {
+            return NONE;
+        }
+        this.doubleValue = value;
+        this.kind = DOUBLE;
+        return DOUBLE;
+    }
+
+
+    /**
+     * @return The last number read as an Integer, Long or Double.
+     */
+    Object box() {
+        switch (this.kind) {
+        case INT:
+            return Integer.valueOf((int) this.longValue);
+        case LONG:
+            return Long.valueOf(this.longValue);
+        case DOUBLE:
+            return Double.valueOf(this.doubleValue);
+        default:
+            return null;
+        }
+    }
+}
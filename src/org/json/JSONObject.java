@@ -31,12 +31,14 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.math.*;
+import java.util.AbstractSet;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Locale;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Map.Entry;
 import java.util.ResourceBundle;
 import java.util.Set;
@@ -75,6 +77,9 @@ import java.util.Set;
  *
  * produces the string <code>{"JSON": "Hello, World"}</code>.
  * <p>
+ * A JSONObject remembers the order in which its keys were first put, and its
+ * <code>keySet</code> and <code>toString</code> methods follow that order.
+ * <p>
  * The texts produced by the <code>toString</code> methods strictly conform to
  * the JSON syntax rules. The constructors are more forgiving in the texts they
  * will accept:
@@ -136,10 +141,45 @@ public class JSONObject {
         }
     }
 
+    /*
+     * Where a property's value is kept: numbers and booleans unboxed in the
+     * numbers array (a double as its bits, a boolean as 0 or 1), anything
+     * else, strings included, in the values array. A value not read yet has
+     * its source bytes in the values array and their range in the numbers
+     * array.
+     */
+    private static final byte OBJECT = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte LAZY = 5;
+
+    private static final int MIN_CAPACITY = 4;
+
+    // Objects with more properties than this look keys up in a hash index
+    private static final int LINEAR_LIMIT = 16;
+
     /**
-     * The map where the JSONObject's properties are kept.
+     * The properties in the order they were added, in parallel arrays: keys[i]
+     * is the name of property i, tags[i] tells whether its value is in
+     * numbers[i] or values[i]. Only the first size entries are used. Small
+     * objects are searched from the start and have no index; a larger one has
+     * an open addressing table from the hash of a key to its position plus
+     * one, 0 for an empty bucket.
      */
-    private final Map<String, Object> map;
+    private String[] keys;
+    private byte[] tags;
+    private long[] numbers;
+    private Object[] values;
+    private int size;
+    private int[] index;
+
+    /**
+     * The shape this object was read with, whose keys and index it shares,
+     * or null if they are its own.
+     */
+    private JSONShape shape;
 
     /**
      * It is sometimes more convenient and less ambiguous to have a
@@ -153,7 +193,6 @@ public class JSONObject {
      * Construct an empty JSONObject.
      */
     public JSONObject() {
-        this.map = new HashMap<String, Object>();
     }
 
     /**
@@ -191,8 +230,45 @@ public class JSONObject {
      */
     public JSONObject(JSONTokener x) throws JSONException {
         this();
+        this.read(x, null);
+    }
+
+    /**
+     * Construct a JSONObject from UTF-8 text, reading only the keys and the
+     * numbers, booleans and nulls at its top level if lazy. A string, object
+     * or array value is skipped, checking only that its strings end and its
+     * brackets balance, and read from the source the first time it is
+     * asked for. Other syntax errors in it are only thrown then, and are never
+     * found if it is not. Reading a value changes the JSONObject, so a lazy
+     * one cannot be shared by threads.
+     *
+     * @param x
+     *            A UTF8Tokener containing the source text, which must not
+     *            change while the JSONObject is in use.
+     * @param lazy
+     *            Whether to skip the values.
+     * @throws JSONException
+     *             If there is a syntax error in the source text or a
+     *             duplicated key.
+     */
+    public JSONObject(UTF8Tokener x, boolean lazy) throws JSONException {
+        this();
+        this.read(x, lazy ? x : null);
+    }
+
+    /**
+     * Read the properties of an object.
+     *
+     * @param x
+     *            The source.
+     * @param lazy
+     *            The same source to skip values with, or null to read them.
+     */
+    private void read(JSONTokener x, UTF8Tokener lazy) throws JSONException {
         char c;
         String key;
+        JSONShape shape = JSONShape.EMPTY;
+        JSONShape first = null;
 
         if (x.nextClean() != '{') {
             throw x.syntaxError("A JSONObject text must begin with '{'");
@@ -203,10 +279,10 @@ public class JSONObject {
             case 0:
                 throw x.syntaxError("A JSONObject text must end with '}'");
             case '}':
+                this.finish(first);
                 return;
             default:
-                x.back();
-                key = x.nextValue().toString();
+                key = x.nextKey(c, shape != null ? shape.expectedKey() : null);
             }
 
 // The key is followed by ':'.
@@ -215,7 +291,35 @@ public class JSONObject {
             if (c != ':') {
                 throw x.syntaxError("Expected a ':' after a key");
             }
-            this.putOnce(key, x.nextValue());
+            long skipped = lazy != null ? lazy.skipValue() : -1;
+            Object value = skipped < 0 ? x.nextValueOrNumber() : null;
+
+// While the keys follow a known shape they need not be looked up.
+
+            if (shape != null) {
+                shape = shape.add(key);
+                if (shape != null && first == null) {
+                    first = shape;
+                }
+            }
+            int slot;
+            if (shape != null) {
+                slot = this.addShaped(shape, first.capacity);
+            } else if (this.slot(key) >= 0) {
+                throw new JSONException("Duplicate key \"" + key + "\"");
+            } else {
+                slot = this.addSlot(key);
+            }
+            if (skipped >= 0) {
+                this.tags[slot] = LAZY;
+                this.numbers[slot] = skipped;
+                this.values[slot] = lazy.bytes();
+            } else if (value instanceof JSONNumber) {
+                this.setNumber(slot, (JSONNumber) value);
+            } else {
+                testValidity(value);
+                this.setAt(slot, value);
+            }
 
 // Pairs are separated by ','.
 
@@ -223,11 +327,13 @@ public class JSONObject {
             case ';':
             case ',':
                 if (x.nextClean() == '}') {
+                    this.finish(first);
                     return;
                 }
                 x.back();
                 break;
             case '}':
+                this.finish(first);
                 return;
             default:
                 throw x.syntaxError("Expected a ',' or '}'");
@@ -244,14 +350,13 @@ public class JSONObject {
      * @throws JSONException
      */
     public JSONObject(Map<String, Object> map) {
-        this.map = new HashMap<String, Object>();
         if (map != null) {
             Iterator<Entry<String, Object>> i = map.entrySet().iterator();
             while (i.hasNext()) {
                 Entry<String, Object> entry = i.next();
                 Object value = entry.getValue();
                 if (value != null) {
-                    this.map.put(entry.getKey(), wrap(value));
+                    this.set(entry.getKey(), wrap(value));
                 }
             }
         }
@@ -515,6 +620,10 @@ public class JSONObject {
      *             "false".
      */
     public boolean getBoolean(String key) throws JSONException {
+        int slot = key == null ? -1 : this.slot(key);
+        if (slot >= 0 && this.tags[slot] == BOOLEAN) {
+            return this.numbers[slot] != 0;
+        }
         Object object = this.get(key);
         if (object.equals(Boolean.FALSE)
                 || (object instanceof String && ((String) object)
@@ -580,6 +689,16 @@ public class JSONObject {
      *             object and cannot be converted to a number.
      */
     public double getDouble(String key) throws JSONException {
+        int slot = key == null ? -1 : this.slot(key);
+        if (slot >= 0) {
+            switch (this.tags[slot]) {
+            case INT:
+            case LONG:
+                return this.numbers[slot];
+            case DOUBLE:
+                return Double.longBitsToDouble(this.numbers[slot]);
+            }
+        }
         Object object = this.get(key);
         try {
             return object instanceof Number ? ((Number) object).doubleValue()
@@ -601,6 +720,16 @@ public class JSONObject {
      *             to an integer.
      */
     public int getInt(String key) throws JSONException {
+        int slot = key == null ? -1 : this.slot(key);
+        if (slot >= 0) {
+            switch (this.tags[slot]) {
+            case INT:
+            case LONG:
+                return (int) this.numbers[slot];
+            case DOUBLE:
+                return (int) Double.longBitsToDouble(this.numbers[slot]);
+            }
+        }
         Object object = this.get(key);
         try {
             return object instanceof Number ? ((Number) object).intValue()
@@ -658,6 +787,16 @@ public class JSONObject {
      *             to a long.
      */
     public long getLong(String key) throws JSONException {
+        int slot = key == null ? -1 : this.slot(key);
+        if (slot >= 0) {
+            switch (this.tags[slot]) {
+            case INT:
+            case LONG:
+                return this.numbers[slot];
+            case DOUBLE:
+                return (long) Double.longBitsToDouble(this.numbers[slot]);
+            }
+        }
         Object object = this.get(key);
         try {
             return object instanceof Number ? ((Number) object).longValue()
@@ -735,7 +874,7 @@ public class JSONObject {
      * @return true if the key exists in the JSONObject.
      */
     public boolean has(String key) {
-        return this.map.containsKey(key);
+        return key != null && this.slot(key) >= 0;
     }
 
     /**
@@ -795,12 +934,12 @@ public class JSONObject {
     }
 
     /**
-     * Get a set of keys of the JSONObject.
+     * Get a set of keys of the JSONObject, in the order they were added.
      *
      * @return A keySet.
      */
     public Set<String> keySet() {
-        return this.map.keySet();
+        return new KeySet();
     }
 
     /**
@@ -809,7 +948,7 @@ public class JSONObject {
      * @return The number of keys in the JSONObject.
      */
     public int length() {
-        return this.map.size();
+        return this.size;
     }
 
     /**
@@ -866,7 +1005,11 @@ public class JSONObject {
      * @return An object which is the value, or null if there is no value.
      */
     public Object opt(String key) {
-        return key == null ? null : this.map.get(key);
+        if (key == null) {
+            return null;
+        }
+        int slot = this.slot(key);
+        return slot < 0 ? null : this.valueAt(slot);
     }
 
     /**
@@ -936,6 +1079,9 @@ public class JSONObject {
      * @return The truth.
      */
     public boolean optBoolean(String key, boolean defaultValue) {
+        if (this.opt(key) == null) {
+            return defaultValue;
+        }
         try {
             return this.getBoolean(key);
         } catch (Exception e) {
@@ -1006,6 +1152,9 @@ public class JSONObject {
      * @return An object which is the value.
      */
     public double optDouble(String key, double defaultValue) {
+        if (this.opt(key) == null) {
+            return defaultValue;
+        }
         try {
             return this.getDouble(key);
         } catch (Exception e) {
@@ -1038,6 +1187,9 @@ public class JSONObject {
      * @return An object which is the value.
      */
     public int optInt(String key, int defaultValue) {
+        if (this.opt(key) == null) {
+            return defaultValue;
+        }
         try {
             return this.getInt(key);
         } catch (Exception e) {
@@ -1096,6 +1248,9 @@ public class JSONObject {
      * @return An object which is the value.
      */
     public long optLong(String key, long defaultValue) {
+        if (this.opt(key) == null) {
+            return defaultValue;
+        }
         try {
             return this.getLong(key);
         } catch (Exception e) {
@@ -1168,7 +1323,7 @@ public class JSONObject {
 
                         Object result = method.invoke(bean, (Object[]) null);
                         if (result != null) {
-                            this.map.put(key, wrap(result));
+                            this.set(key, wrap(result));
                         }
                     }
                 }
@@ -1189,7 +1344,7 @@ public class JSONObject {
      *             If the key is null.
      */
     public JSONObject put(String key, boolean value) throws JSONException {
-        this.put(key, value ? Boolean.TRUE : Boolean.FALSE);
+        this.setNumber(key, BOOLEAN, value ? 1 : 0);
         return this;
     }
 
@@ -1221,7 +1376,10 @@ public class JSONObject {
      *             If the key is null or if the number is invalid.
      */
     public JSONObject put(String key, double value) throws JSONException {
-        this.put(key, Double.valueOf(value));
+        if (Double.isInfinite(value) || Double.isNaN(value)) {
+            throw new JSONException("JSON does not allow non-finite numbers.");
+        }
+        this.setNumber(key, DOUBLE, Double.doubleToRawLongBits(value));
         return this;
     }
 
@@ -1237,7 +1395,7 @@ public class JSONObject {
      *             If the key is null.
      */
     public JSONObject put(String key, int value) throws JSONException {
-        this.put(key, Integer.valueOf(value));
+        this.setNumber(key, INT, value);
         return this;
     }
 
@@ -1253,7 +1411,7 @@ public class JSONObject {
      *             If the key is null.
      */
     public JSONObject put(String key, long value) throws JSONException {
-        this.put(key, Long.valueOf(value));
+        this.setNumber(key, LONG, value);
         return this;
     }
 
@@ -1293,7 +1451,7 @@ public class JSONObject {
         }
         if (value != null) {
             testValidity(value);
-            this.map.put(key, value);
+            this.set(key, value);
         } else {
             this.remove(key);
         }
@@ -1432,7 +1590,13 @@ public class JSONObject {
      *         no value.
      */
     public Object remove(String key) {
-        return this.map.remove(key);
+        int slot = key == null ? -1 : this.slot(key);
+        if (slot < 0) {
+            return null;
+        }
+        Object value = this.valueAt(slot);
+        this.removeSlot(slot);
+        return value;
     }
 
     /**
@@ -1484,7 +1648,6 @@ public class JSONObject {
      * @return A simple JSON value.
      */
     public static Object stringToValue(String string) {
-        Double d;
         if (string.equals("")) {
             return string;
         }
@@ -1505,29 +1668,68 @@ public class JSONObject {
 
         char b = string.charAt(0);
         if ((b >= '0' && b <= '9') || b == '-') {
-            try {
-                if (string.indexOf('.') > -1 || string.indexOf('e') > -1
-                        || string.indexOf('E') > -1) {
-                    d = Double.valueOf(string);
-                    if (!d.isInfinite() && !d.isNaN()) {
-                        return d;
-                    }
-                } else {
-                    Long myLong = Long.valueOf(string);
-                    if (string.equals(myLong.toString())) {
-                        if (myLong == myLong.intValue()) {
-                            return myLong.intValue();
-                        } else {
-                            return myLong;
-                        }
-                    }
-                }
-            } catch (Exception ignore) {
+            JSONNumber number = new JSONNumber();
+            if (number.parse(string.toCharArray(), 0, string.length()) != JSONNumber.NONE) {
+                return number.box();
             }
         }
         return string;
     }
 
+    /**
+     * Convert the trimmed text chars[from..to) into a number, boolean, or
+     * null, as stringToValue does. Numbers are read straight from the
+     * characters, a String is only made for text that stays a string.
+     *
+     * @param chars
+     *            The characters of the text.
+     * @param number
+     *            The parser to read numbers with.
+     * @return A simple JSON value, or the parser holding the number read.
+     */
+    static Object stringToValueOrNumber(char[] chars, int from, int to, JSONNumber number) {
+        switch (to - from) {
+        case 0:
+            return "";
+        case 4:
+            if (equalsIgnoreCase(chars, from, "true")) {
+                return Boolean.TRUE;
+            }
+            if (equalsIgnoreCase(chars, from, "null")) {
+                return JSONObject.NULL;
+            }
+            break;
+        case 5:
+            if (equalsIgnoreCase(chars, from, "false")) {
+                return Boolean.FALSE;
+            }
+            break;
+        }
+        if (number.parse(chars, from, to) != JSONNumber.NONE) {
+            return number;
+        }
+        return new String(chars, from, to - from);
+    }
+
+    /**
+     * Compare characters to a word as String.equalsIgnoreCase does.
+     */
+    private static boolean equalsIgnoreCase(char[] chars, int from, String word) {
+        for (int i = 0; i < word.length(); i += 1) {
+            char c = chars[from + i];
+            char w = word.charAt(i);
+            if (c == w) {
+                continue;
+            }
+            char upperC = Character.toUpperCase(c);
+            char upperW = Character.toUpperCase(w);
+            if (upperC != upperW && Character.toLowerCase(upperC) != Character.toLowerCase(upperW)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Throw an exception if the object is a NaN or infinite number.
      *
@@ -1812,21 +2014,18 @@ public class JSONObject {
         try {
             boolean commanate = false;
             final int length = this.length();
-            Iterator<String> keys = this.keys();
             writer.write('{');
 
             if (length == 1) {
-                Object key = keys.next();
-                writer.write(quote(key.toString()));
+                writer.write(quote(this.keys[0]));
                 writer.write(':');
                 if (indentFactor > 0) {
                     writer.write(' ');
                 }
-                writeValue(writer, this.map.get(key), indentFactor, indent);
+                writeValue(writer, this.valueAt(0), indentFactor, indent);
             } else if (length != 0) {
                 final int newindent = indent + indentFactor;
-                while (keys.hasNext()) {
-                    Object key = keys.next();
+                for (int slot = 0; slot < length; slot += 1) {
                     if (commanate) {
                         writer.write(',');
                     }
@@ -1834,12 +2033,12 @@ public class JSONObject {
                         writer.write('\n');
                     }
                     indent(writer, newindent);
-                    writer.write(quote(key.toString()));
+                    writer.write(quote(this.keys[slot]));
                     writer.write(':');
                     if (indentFactor > 0) {
                         writer.write(' ');
                     }
-                    writeValue(writer, this.map.get(key), indentFactor, newindent);
+                    writeValue(writer, this.valueAt(slot), indentFactor, newindent);
                     commanate = true;
                 }
                 if (indentFactor > 0) {
@@ -1853,4 +2052,362 @@ public class JSONObject {
             throw new JSONException(exception);
         }
     }
+
+    /**
+     * Find the position of a property.
+     *
+     * @param key
+     *            A key string, not null.
+     * @return The position of the property, or -1 if there is none.
+     */
+    private int slot(String key) {
+        if (this.index == null) {
+            for (int slot = 0; slot < this.size; slot += 1) {
+                if (key.equals(this.keys[slot])) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+        int mask = this.index.length - 1;
+        for (int bucket = hash(key) & mask; ; bucket = (bucket + 1) & mask) {
+            int slot = this.index[bucket] - 1;
+            if (slot < 0) {
+                return -1;
+            }
+            if (key.equals(this.keys[slot])) {
+                return slot;
+            }
+        }
+    }
+
+    private static int hash(String key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Add a property that is not there yet, with no value.
+     *
+     * @return The position of the new property.
+     */
+    private int addSlot(String key) {
+        this.unshare();
+        if (this.values == null) {
+            this.keys = new String[MIN_CAPACITY];
+            this.tags = new byte[MIN_CAPACITY];
+            this.numbers = new long[MIN_CAPACITY];
+            this.values = new Object[MIN_CAPACITY];
+        } else if (this.size == this.values.length) {
+            int capacity = Math.max(MIN_CAPACITY, this.size * 2);
+            this.keys = Arrays.copyOf(this.keys, capacity);
+            this.grow(capacity);
+            if (this.index != null) {
+                this.reindex();
+            }
+        }
+        int slot = this.size;
+        this.keys[slot] = key;
+        this.size += 1;
+        if (this.index != null) {
+            this.indexSlot(slot);
+        } else if (this.size > LINEAR_LIMIT) {
+            this.reindex();
+        }
+        return slot;
+    }
+
+    private void grow(int capacity) {
+        this.tags = Arrays.copyOf(this.tags, capacity);
+        this.numbers = Arrays.copyOf(this.numbers, capacity);
+        this.values = Arrays.copyOf(this.values, capacity);
+    }
+
+    /**
+     * Add a property while reading an object whose keys so far follow a
+     * shape, taking the shape's keys in place of its own.
+     *
+     * @param shape
+     *            The shape with the new key last.
+     * @param capacity
+     *            The room to make for properties, if there is none yet.
+     * @return The position of the new property.
+     */
+    private int addShaped(JSONShape shape, int capacity) {
+        int slot = this.size;
+        if (this.values == null) {
+            capacity = Math.max(MIN_CAPACITY, capacity);
+            this.tags = new byte[capacity];
+            this.numbers = new long[capacity];
+            this.values = new Object[capacity];
+        } else if (slot == this.values.length) {
+            this.grow(slot * 2);
+        }
+        this.keys = shape.keys;
+        this.shape = shape;
+        this.size = slot + 1;
+        return slot;
+    }
+
+    /**
+     * Finish reading an object: remember its size for the next one with the
+     * same first key and give back the spare room.
+     *
+     * @param first
+     *            The shape of its first key, or null.
+     */
+    private void finish(JSONShape first) {
+        if (first != null && first.capacity < this.size) {
+            first.capacity = this.size;
+        }
+        this.trim();
+        if (this.shape != null && this.size > LINEAR_LIMIT) {
+            this.index = this.shape.index();
+        }
+    }
+
+    /**
+     * Take copies of the keys and index shared with a shape, before they are
+     * changed.
+     */
+    private void unshare() {
+        if (this.shape != null) {
+            this.shape = null;
+            this.keys = Arrays.copyOf(this.keys, this.values.length);
+            if (this.index != null) {
+                this.index = null;
+                this.reindex();
+            }
+        }
+    }
+
+    /**
+     * Rebuild the index for the current capacity.
+     */
+    private void reindex() {
+        this.index = index(this.keys, this.size, this.values.length);
+    }
+
+    /**
+     * Build a hash index of keys, with at least two buckets per property.
+     *
+     * @param keys
+     *            The keys.
+     * @param size
+     *            The number of keys to index.
+     * @param capacity
+     *            The number of properties the index must have room for.
+     * @return The index, from the hash of a key to its position plus one.
+     */
+    static int[] index(String[] keys, int size, int capacity) {
+        int[] index = new int[Integer.highestOneBit(capacity * 2 - 1) << 1];
+        for (int slot = 0; slot < size; slot += 1) {
+            indexSlot(index, keys, slot);
+        }
+        return index;
+    }
+
+    private void indexSlot(int slot) {
+        indexSlot(this.index, this.keys, slot);
+    }
+
+    private static void indexSlot(int[] index, String[] keys, int slot) {
+        int mask = index.length - 1;
+        int bucket = hash(keys[slot]) & mask;
+        while (index[bucket] != 0) {
+            bucket = (bucket + 1) & mask;
+        }
+        index[bucket] = slot + 1;
+    }
+
+    /**
+     * Remove the property at a position. The properties after it move down
+     * one place, so the order is kept.
+     */
+    private void removeSlot(int slot) {
+        this.unshare();
+        int last = this.size - 1;
+        int moved = last - slot;
+        System.arraycopy(this.keys, slot + 1, this.keys, slot, moved);
+        System.arraycopy(this.tags, slot + 1, this.tags, slot, moved);
+        System.arraycopy(this.numbers, slot + 1, this.numbers, slot, moved);
+        System.arraycopy(this.values, slot + 1, this.values, slot, moved);
+        this.keys[last] = null;
+        this.values[last] = null;
+        this.size = last;
+        if (this.index != null) {
+            if (this.size > LINEAR_LIMIT) {
+                this.reindex();
+            } else {
+                this.index = null;
+            }
+        }
+    }
+
+    /**
+     * Shrink the arrays to the number of properties, once an object has been
+     * read and is unlikely to grow.
+     */
+    private void trim() {
+        if (this.size == 0) {
+            this.keys = null;
+            this.tags = null;
+            this.numbers = null;
+            this.values = null;
+        } else if (this.size < this.values.length) {
+            if (this.shape == null) {
+                this.keys = Arrays.copyOf(this.keys, this.size);
+            }
+            this.grow(this.size);
+        }
+    }
+
+    /**
+     * @return The value of the property at a position, numbers and booleans
+     *         boxed. A value not read yet is read now.
+     */
+    private Object valueAt(int slot) {
+        switch (this.tags[slot]) {
+        case INT:
+            return Integer.valueOf((int) this.numbers[slot]);
+        case LONG:
+            return Long.valueOf(this.numbers[slot]);
+        case DOUBLE:
+            return Double.valueOf(Double.longBitsToDouble(this.numbers[slot]));
+        case BOOLEAN:
+            return this.numbers[slot] != 0 ? Boolean.TRUE : Boolean.FALSE;
+        case LAZY:
+            Object value = UTF8Tokener.value((byte[]) this.values[slot], this.numbers[slot]);
+            this.setAt(slot, value);
+            return value;
+        default:
+            return this.values[slot];
+        }
+    }
+
+    /**
+     * Set a property, unboxing Integer, Long, Double and Boolean values.
+     */
+    private void set(String key, Object value) {
+        int slot = this.slot(key);
+        if (slot < 0) {
+            slot = this.addSlot(key);
+        }
+        this.setAt(slot, value);
+    }
+
+    /**
+     * Set the property at a position, unboxing Integer, Long, Double and
+     * Boolean values.
+     */
+    private void setAt(int slot, Object value) {
+        if (value instanceof Integer) {
+            this.tags[slot] = INT;
+            this.numbers[slot] = ((Integer) value).intValue();
+        } else if (value instanceof Long) {
+            this.tags[slot] = LONG;
+            this.numbers[slot] = ((Long) value).longValue();
+        } else if (value instanceof Double) {
+            this.tags[slot] = DOUBLE;
+            this.numbers[slot] = Double.doubleToRawLongBits(((Double) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            this.tags[slot] = BOOLEAN;
+            this.numbers[slot] = ((Boolean) value).booleanValue() ? 1 : 0;
+        } else {
+            this.tags[slot] = OBJECT;
+            this.values[slot] = value;
+            return;
+        }
+        this.values[slot] = null;
+    }
+
+    private void setNumber(String key, byte tag, long number) {
+        if (key == null) {
+            throw new NullPointerException("Null key.");
+        }
+        int slot = this.slot(key);
+        if (slot < 0) {
+            slot = this.addSlot(key);
+        }
+        this.tags[slot] = tag;
+        this.numbers[slot] = number;
+        this.values[slot] = null;
+    }
+
+    /**
+     * Set the property at a position to the last number a parser read.
+     */
+    private void setNumber(int slot, JSONNumber number) {
+        switch (number.kind) {
+        case JSONNumber.INT:
+            this.tags[slot] = INT;
+            this.numbers[slot] = number.longValue;
+            break;
+        case JSONNumber.LONG:
+            this.tags[slot] = LONG;
+            this.numbers[slot] = number.longValue;
+            break;
+        default:
+            this.tags[slot] = DOUBLE;
+            this.numbers[slot] = Double.doubleToRawLongBits(number.doubleValue);
+        }
+    }
+
+    /**
+     * The keys of this JSONObject, removing a key removes its property.
+     */
+    private final class KeySet extends AbstractSet<String> {
+
+        @Override
+        public Iterator<String> iterator() {
+            return new Iterator<String>() {
+                private int next;
+                private boolean removable;
+
+                @Override
+                public boolean hasNext() {
+                    return this.next < JSONObject.this.size;
+                }
+
+                @Override
+                public String next() {
+                    if (this.next >= JSONObject.this.size) {
+                        throw new NoSuchElementException();
+                    }
+                    this.removable = true;
+                    return JSONObject.this.keys[this.next++];
+                }
+
+                @Override
+                public void remove() {
+                    if (!this.removable) {
+                        throw new IllegalStateException();
+                    }
+                    this.removable = false;
+                    // The next property moves into the hole, visit it next
+                    this.next -= 1;
+                    JSONObject.this.removeSlot(this.next);
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return JSONObject.this.size;
+        }
+
+        @Override
+        public boolean contains(Object key) {
+            return key instanceof String && JSONObject.this.has((String) key);
+        }
+
+        @Override
+        public boolean remove(Object key) {
+            if (!this.contains(key)) {
+                return false;
+            }
+            JSONObject.this.remove((String) key);
+            return true;
+        }
+    }
 }
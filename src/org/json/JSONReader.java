@@ -0,0 +1,427 @@
+package org.json;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * JSONReader reads JSON text one event at a time, without building
+ * JSONObjects or JSONArrays: the start and end of each object and array, each
+ * key, and each string, number, boolean or null value. It takes the same
+ * lenient syntax as the JSONObject and JSONArray constructors, and keeps
+ * nothing of the text but the kind of each object and array it is inside, so
+ * a document of any length, like one huge array or a file of one object per
+ * line, is read in constant memory when the tokener reads from a Reader.
+ * After the end of one value the reader goes on to the next, if the text has
+ * more.
+ * <p>
+ * Events are pulled with <code>next</code>, and the key or value of the
+ * event is then got with <code>getString</code>, <code>getLong</code> and the
+ * like, until the next event. For example, <pre>
+ * JSONReader reader = new JSONReader(new JSONTokener(myReader));
+ * int event;
+ * while ((event = reader.next()) != JSONReader.END) {
+ *     if (event == JSONReader.KEY &amp;&amp; reader.getString().equals("asin")) {
+ *         reader.next();
+ *         statement = statement.setString("asin", reader.getString());
+ *     }
+ * }</pre>
+ * or pushed to a <code>Handler</code> with <code>read</code>.
+ * @author JSON.org
+ * @version 2014-05-03
+ */
+public class JSONReader {
+
+    /** The end of the text. */
+    public static final int END = 0;
+    /** The start of an object, '{'. */
+    public static final int START_OBJECT = 1;
+    /** The end of an object, '}'. */
+    public static final int END_OBJECT = 2;
+    /** The start of an array, '['. */
+    public static final int START_ARRAY = 3;
+    /** The end of an array, ']'. */
+    public static final int END_ARRAY = 4;
+    /** A key of an object, its value is the next event. */
+    public static final int KEY = 5;
+    /** A quoted string, or unquoted text that is not a number or literal. */
+    public static final int VALUE_STRING = 6;
+    /** A number. */
+    public static final int VALUE_NUMBER = 7;
+    /** true or false. */
+    public static final int VALUE_BOOLEAN = 8;
+    /** null, or a missing element of an array. */
+    public static final int VALUE_NULL = 9;
+
+    /**
+     * Receives the events of a JSONReader.
+     */
+    public interface Handler {
+
+        /**
+         * Take an event.
+         * @param event  The event, one of the event constants other than END.
+         * @param reader The reader, to get the key or value of the event from.
+         * @throws JSONException To stop reading.
+         */
+        void handle(int event, JSONReader reader) throws JSONException;
+    }
+
+    /**
+     * What the reader expects next. Values:
+     * 'a' (a ',' or ']' after an element),
+     * 'd' (done),
+     * 'e' (an element),
+     * 'f' (the first element or ']'),
+     * 'k' (a key or '}'),
+     * 'o' (a ',' or '}' after a value),
+     * 'v' (the value of a key, or the next value of the text).
+     */
+    private char mode;
+
+    /**
+     * The kinds of the objects ('o') and arrays ('a') the reader is in.
+     */
+    private char[] stack;
+
+    /**
+     * The stack top index. A value of 0 indicates that the stack is empty.
+     */
+    private int top;
+
+    private final JSONTokener x;
+
+    private int event;
+    private Object value;
+    private JSONNumber number;
+
+    /**
+     * Make a JSONReader.
+     * @param x The source of the text.
+     */
+    public JSONReader(JSONTokener x) {
+        this.x = x;
+        this.mode = 'v';
+        this.stack = new char[16];
+        this.top = 0;
+    }
+
+
+    /**
+     * Read the next event.
+     * @return The event, END at the end of the text.
+     * @throws JSONException If there is a syntax error.
+     */
+    public int next() throws JSONException {
+        char c;
+        this.value = null;
+        this.number = null;
+        for (;;) {
+            switch (this.mode) {
+            case 'd':
+                return this.event = END;
+            case 'v':
+                if (this.top == 0) {
+                    if (this.x.nextClean() == 0) {
+                        this.mode = 'd';
+                        return this.event = END;
+                    }
+                    this.x.back();
+                }
+                return this.event = this.value();
+            case 'f':
+                if (this.x.nextClean() == ']') {
+                    return this.event = this.pop(END_ARRAY);
+                }
+                this.x.back();
+                this.mode = 'e';
+                continue;
+            case 'e':
+                if (this.x.nextClean() == ',') {
+                    this.x.back();
+                    this.value = JSONObject.NULL;
+                    this.mode = 'a';
+                    return this.event = VALUE_NULL;
+                }
+                this.x.back();
+                return this.event = this.value();
+            case 'a':
+                switch (this.x.nextClean()) {
+                case ',':
+                    if (this.x.nextClean() == ']') {
+                        return this.event = this.pop(END_ARRAY);
+                    }
+                    this.x.back();
+                    this.mode = 'e';
+                    continue;
+                case ']':
+                    return this.event = this.pop(END_ARRAY);
+                default:
+                    throw this.x.syntaxError("Expected a ',' or ']'");
+                }
+            case 'k':
+                c = this.x.nextClean();
+                switch (c) {
+                case 0:
+                    throw this.x.syntaxError("A JSONObject text must end with '}'");
+                case '}':
+                    return this.event = this.pop(END_OBJECT);
+                default:
+                    this.value = this.x.nextKey(c, null);
+                }
+                if (this.x.nextClean() != ':') {
+                    throw this.x.syntaxError("Expected a ':' after a key");
+                }
+                this.mode = 'v';
+                return this.event = KEY;
+            case 'o':
+                switch (this.x.nextClean()) {
+                case ';':
+                case ',':
+                    if (this.x.nextClean() == '}') {
+                        return this.event = this.pop(END_OBJECT);
+                    }
+                    this.x.back();
+                    this.mode = 'k';
+                    continue;
+                case '}':
+                    return this.event = this.pop(END_OBJECT);
+                default:
+                    throw this.x.syntaxError("Expected a ',' or '}'");
+                }
+            default:
+                throw new JSONException("Bad mode " + this.mode);
+            }
+        }
+    }
+
+
+    /**
+     * Read a value, or the start of one.
+     */
+    private int value() throws JSONException {
+        char c = this.x.nextClean();
+        switch (c) {
+        case '{':
+            this.push('o');
+            this.mode = 'k';
+            return START_OBJECT;
+        case '[':
+            this.push('a');
+            this.mode = 'f';
+            return START_ARRAY;
+        case '"':
+        case '\'':
+            this.value = this.x.nextString(c);
+            this.ended();
+            return VALUE_STRING;
+        }
+        this.x.back();
+        Object value = this.x.nextValueOrNumber();
+        this.ended();
+        if (value instanceof JSONNumber) {
+            this.number = (JSONNumber) value;
+            return VALUE_NUMBER;
+        }
+        this.value = value;
+        if (value instanceof Number) {
+            return VALUE_NUMBER;
+        }
+        if (value instanceof Boolean) {
+            return VALUE_BOOLEAN;
+        }
+        return value == JSONObject.NULL ? VALUE_NULL : VALUE_STRING;
+    }
+
+
+    private void push(char kind) {
+        if (this.top == this.stack.length) {
+            char[] stack = new char[this.top * 2];
+            System.arraycopy(this.stack, 0, stack, 0, this.top);
+            this.stack = stack;
+        }
+        this.stack[this.top] = kind;
+        this.top += 1;
+    }
+
+
+    private int pop(int event) {
+        this.top -= 1;
+        this.ended();
+        return event;
+    }
+
+
+    /**
+     * Set the mode after the end of a value.
+     */
+    private void ended() {
+        if (this.top == 0) {
+            this.mode = 'v';
+        } else {
+            this.mode = this.stack[this.top - 1] == 'a' ? 'a' : 'o';
+        }
+    }
+
+
+    /**
+     * Read the rest of the text, handing every event to a handler.
+     * @param handler The handler.
+     * @throws JSONException If there is a syntax error, or the handler
+     *  throws one.
+     */
+    public void read(Handler handler) throws JSONException {
+        int event;
+        while ((event = this.next()) != END) {
+            handler.handle(event, this);
+        }
+    }
+
+
+    /**
+     * Skip the rest of the object or array the last event started, up to its
+     * END_OBJECT or END_ARRAY, or the value of the last KEY. Otherwise do
+     * nothing.
+     * @throws JSONException If there is a syntax error.
+     */
+    public void skipValue() throws JSONException {
+        if (this.event == KEY) {
+            this.next();
+        }
+        if (this.event == START_OBJECT || this.event == START_ARRAY) {
+            int depth = this.top;
+            while (this.top >= depth) {
+                if (this.next() == END) {
+                    throw this.x.syntaxError("Unterminated value");
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return The last event read.
+     */
+    public int getEvent() {
+        return this.event;
+    }
+
+    /**
+     * @return The number of objects and arrays the reader is in.
+     */
+    public int getDepth() {
+        return this.top;
+    }
+
+    /**
+     * Get the value of the last event as an object.
+     * @return The key or string, a Boolean, an Integer, Long or Double,
+     *  JSONObject.NULL, or null for an event without a value.
+     */
+    public Object getValue() {
+        return this.number != null ? this.number.box() : this.value;
+    }
+
+    /**
+     * Get the key of a KEY event or the text of a VALUE_STRING event.
+     * @return A string.
+     * @throws JSONException If the last event has no string.
+     */
+    public String getString() throws JSONException {
+        if (this.value instanceof String) {
+            return (String) this.value;
+        }
+        throw new JSONException("Not a string.");
+    }
+
+    /**
+     * Get the value of a VALUE_BOOLEAN event.
+     * @return The truth.
+     * @throws JSONException If the last event is not a boolean.
+     */
+    public boolean getBoolean() throws JSONException {
+        if (this.value instanceof Boolean) {
+            return ((Boolean) this.value).booleanValue();
+        }
+        throw new JSONException("Not a boolean.");
+    }
+
+    /**
+     * Get the value of a VALUE_NUMBER event as a double.
+     * @return The number.
+     * @throws JSONException If the last event is not a number.
+     */
+    public double getDouble() throws JSONException {
+        if (this.number != null) {
+            return this.number.kind == JSONNumber.DOUBLE
+                    ? this.number.doubleValue
+                    : this.number.longValue;
+        }
+        return this.getNumber().doubleValue();
+    }
+
+    /**
+     * Get the value of a VALUE_NUMBER event as an int.
+     * @return The number.
+     * @throws JSONException If the last event is not a number.
+     */
+    public int getInt() throws JSONException {
+        if (this.number != null) {
+            return this.number.kind == JSONNumber.DOUBLE
+                    ? (int) this.number.doubleValue
+                    : (int) this.number.longValue;
+        }
+        return this.getNumber().intValue();
+    }
+
+    /**
+     * Get the value of a VALUE_NUMBER event as a long.
+     * @return The number.
+     * @throws JSONException If the last event is not a number.
+     */
+    public long getLong() throws JSONException {
+        if (this.number != null) {
+            return this.number.kind == JSONNumber.DOUBLE
+                    ? (long) this.number.doubleValue
+                    : this.number.longValue;
+        }
+        return this.getNumber().longValue();
+    }
+
+    private Number getNumber() throws JSONException {
+        if (this.value instanceof Number) {
+            return (Number) this.value;
+        }
+        throw new JSONException("Not a number.");
+    }
+
+    /**
+     * Make a printable string of this JSONReader.
+     *
+     * @return The position in the text.
+     */
+    @Override
+    public String toString() {
+        return this.x.toString();
+    }
+}
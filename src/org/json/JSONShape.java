@@ -0,0 +1,164 @@
+package org.json;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A JSONShape is a sequence of keys shared by the objects that were read with
+ * exactly those keys in that order, like the records of a file that all have
+ * the same fields. Shapes form a tree from the empty shape, each one adding a
+ * key to its parent, and are never removed. A JSONObject read with a known
+ * shape uses its key array (and hash index, for a large object) rather than
+ * its own, and copies them only if it is changed.
+ * <p>
+ * The tree is shared by all threads and limited in size, so that objects with
+ * keys that are data rather than field names stop adding shapes.
+ * @author JSON.org
+ * @version 2014-05-03
+ */
+final class JSONShape {
+
+    private static final int MAX_CHILDREN = 32;
+    private static final int MAX_KEYS = 64;
+    private static final int MAX_SHAPES = 1 << 14;
+
+    private static final JSONShape[] NO_CHILDREN = new JSONShape[0];
+
+    static final JSONShape EMPTY = new JSONShape(new String[0]);
+
+    private static final AtomicInteger shapes = new AtomicInteger();
+
+    /**
+     * The keys of the shape, the last one added last.
+     */
+    final String[] keys;
+
+    /**
+     * The last key if it can be matched against the source text character
+     * for character (ASCII, no quotes, backslashes or control characters),
+     * otherwise null.
+     */
+    final String plainKey;
+
+    /**
+     * The most properties an object that started with this shape has had,
+     * a guess at the room to make for the next one.
+     */
+    int capacity;
+
+    private volatile JSONShape[] children = NO_CHILDREN;
+    private volatile int[] index;
+
+
+    private JSONShape(String[] keys) {
+        this.keys = keys;
+        this.plainKey = keys.length > 0 && isPlain(keys[keys.length - 1])
+                ? keys[keys.length - 1]
+                : null;
+    }
+
+
+    /**
+     * @return The key most likely to come next, if it is plain, or null.
+     */
+    String expectedKey() {
+        JSONShape[] children = this.children;
+        return children.length > 0 ? children[0].plainKey : null;
+    }
+
+
+    /**
+     * Get the shape with one more key.
+     * @param key The next key.
+     * @return The shape, or null if the key is already in this shape or the
+     *         tree cannot grow any more.
+     */
+    JSONShape add(String key) {
+        JSONShape[] children = this.children;
+        for (int i = 0; i < children.length; i += 1) {
+            String last = children[i].keys[this.keys.length];
+            if (last == key || last.equals(key)) {
+                return children[i];
+            }
+        }
+        return this.addChild(key);
+    }
+
+
+    private synchronized JSONShape addChild(String key) {
+        JSONShape[] children = this.children;
+        for (int i = 0; i < children.length; i += 1) {
+            if (children[i].keys[this.keys.length].equals(key)) {
+                return children[i];
+            }
+        }
+        if (children.length == MAX_CHILDREN || this.keys.length == MAX_KEYS) {
+            return null;
+        }
+        for (int i = 0; i < this.keys.length; i += 1) {
+            if (this.keys[i].equals(key)) {
+                return null;
+            }
+        }
+        if (shapes.incrementAndGet() > MAX_SHAPES) {
+            shapes.decrementAndGet();
+            return null;
+        }
+        String[] keys = new String[this.keys.length + 1];
+        System.arraycopy(this.keys, 0, keys, 0, this.keys.length);
+        keys[this.keys.length] = key;
+        JSONShape child = new JSONShape(keys);
+        children = new JSONShape[children.length + 1];
+        System.arraycopy(this.children, 0, children, 0, this.children.length);
+        children[this.children.length] = child;
+        this.children = children;
+        return child;
+    }
+
+
+    /**
+     * @return The hash index of the keys, for an object with no spare room.
+     */
+    int[] index() {
+        int[] index = this.index;
+        if (index == null) {
+            index = JSONObject.index(this.keys, this.keys.length, this.keys.length);
+            this.index = index;
+        }
+        return index;
+    }
+
+
+    private static boolean isPlain(String key) {
+        for (int i = 0; i < key.length(); i += 1) {
+            char c = key.charAt(i);
+            if (c < ' ' || c >= 0x80 || c == '"' || c == '\'' || c == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+}
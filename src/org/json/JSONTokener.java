@@ -1,11 +1,10 @@
 package org.json;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
-import java.io.StringReader;
+import java.util.Arrays;
 
 /*
 Copyright (c) 2002 JSON.org
@@ -35,19 +34,56 @@ SOFTWARE.
  * A JSONTokener takes a source string and extracts characters and tokens from
  * it. It is used by the JSONObject and JSONArray constructors to parse
  * JSON source strings.
+ * <p>
+ * The source is read through a window of characters that is refilled from the
+ * Reader in bulk, so reading a character is an array access. A string source is
+ * the window itself. Positions (index, line and character) are only worked out
+ * from the window when a message needs them.
  * @author JSON.org
  * @version 2014-05-03
  */
 public class JSONTokener {
 
-    private long    character;
-    private boolean eof;
-    private long    index;
-    private long    line;
-    private char    previous;
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * The window: buffer[0..pos) has been read, buffer[pos..limit) is next.
+     * Refills keep the last character read, so that back() always works.
+     */
+    private char[]  buffer;
+    private int     pos;
+    private int     limit;
     private Reader  reader;
+    private boolean eof;
     private boolean usePrevious;
 
+    /**
+     * Number of end of source characters next() returned and no back() took
+     * back, they count in the index like any other character.
+     */
+    private long    endReads;
+
+    /**
+     * Position in the window skipTo may return to, if any. Refills keep the
+     * window from there on.
+     */
+    private int     mark = Integer.MAX_VALUE;
+
+    /**
+     * The source position of buffer[0]: characters dropped from the window,
+     * and the line, character and previous character next() would have
+     * counted when reaching it.
+     */
+    private long    dropped;
+    private long    baseLine = 1;
+    private long    baseCharacter = 1;
+    private char    basePrevious;
+
+    /**
+     * Reads the numbers of unquoted values, made on the first one.
+     */
+    private JSONNumber number;
+
 
     /**
      * Construct a JSONTokener from a Reader.
@@ -55,15 +91,8 @@ public class JSONTokener {
      * @param reader     A reader.
      */
     public JSONTokener(Reader reader) {
-        this.reader = reader.markSupported()
-            ? reader
-            : new BufferedReader(reader);
-        this.eof = false;
-        this.usePrevious = false;
-        this.previous = 0;
-        this.index = 0;
-        this.character = 1;
-        this.line = 1;
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
     }
 
 
@@ -82,7 +111,8 @@ public class JSONTokener {
      * @param s     A source string.
      */
     public JSONTokener(String s) {
-        this(new StringReader(s));
+        this.buffer = s.toCharArray();
+        this.limit = this.buffer.length;
     }
 
 
@@ -92,11 +122,14 @@ public class JSONTokener {
      * the next number or identifier.
      */
     public void back() throws JSONException {
-        if (this.usePrevious || this.index <= 0) {
+        if (this.usePrevious || this.index() <= 0) {
             throw new JSONException("Stepping back two steps is not supported");
         }
-        this.index -= 1;
-        this.character -= 1;
+        if (this.endReads > 0) {
+            this.endReads -= 1;
+        } else {
+            this.pos -= 1;
+        }
         this.usePrevious = true;
         this.eof = false;
     }
@@ -147,34 +180,91 @@ public class JSONTokener {
      * @return The next character, or 0 if past the end of the source string.
      */
     public char next() throws JSONException {
-        int c;
         if (this.usePrevious) {
+            // Read again, without touching eof
             this.usePrevious = false;
-            c = this.previous;
-        } else {
-            try {
-                c = this.reader.read();
-            } catch (IOException exception) {
-                throw new JSONException(exception);
+            if (this.pos == this.limit) {
+                this.endReads += 1;
+                return 0;
             }
+            return this.buffer[this.pos++];
+        }
+        if (this.pos == this.limit && !this.fill()) {
+            this.endReads += 1;
+            this.eof = true;
+            return 0;
+        }
+        char c = this.buffer[this.pos++];
+        if (c == 0) {
+            this.eof = true;
+        }
+        return c;
+    }
 
-            if (c <= 0) { // End of stream
-                this.eof = true;
-                c = 0;
+
+    /**
+     * Read the next chunk of the source into the window.
+     *
+     * @return false if there is nothing left to read.
+     */
+    private boolean fill() throws JSONException {
+        if (this.reader == null) {
+            return false;
+        }
+
+        // Keep the last character read, and the mark with the character before it
+        int keep = Math.max(0, Math.min(this.mark, this.pos) - 1);
+        this.count(keep);
+        System.arraycopy(this.buffer, keep, this.buffer, 0, this.limit - keep);
+        this.dropped += keep;
+        this.pos -= keep;
+        this.limit -= keep;
+        if (this.mark != Integer.MAX_VALUE) {
+            this.mark -= keep;
+        }
+        if (this.limit == this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, this.buffer.length * 2);
+        }
+
+        try {
+            int read = this.reader.read(this.buffer, this.limit, this.buffer.length - this.limit);
+            if (read <= 0) {
+                return false;
             }
+            this.limit += read;
+            return true;
+        } catch (IOException exception) {
+            throw new JSONException(exception);
         }
-        this.index += 1;
-        if (this.previous == '\r') {
-            this.line += 1;
-            this.character = c == '\n' ? 0 : 1;
-        } else if (c == '\n') {
-            this.line += 1;
-            this.character = 0;
-        } else {
-            this.character += 1;
+    }
+
+
+    /**
+     * Move the base position over the first n characters of the window, as
+     * next() used to count them.
+     */
+    private void count(int n) {
+        for (int i = 0; i < n; i += 1) {
+            char c = this.buffer[i];
+            if (this.basePrevious == '\r') {
+                this.baseLine += 1;
+                this.baseCharacter = c == '\n' ? 0 : 1;
+            } else if (c == '\n') {
+                this.baseLine += 1;
+                this.baseCharacter = 0;
+            } else {
+                this.baseCharacter += 1;
+            }
+            this.basePrevious = c;
         }
-        this.previous = (char) c;
-        return this.previous;
+    }
+
+
+    /**
+     * @return The number of characters read so far.
+     */
+    private long index() {
+        return this.dropped + this.pos + this.endReads;
     }
 
 
@@ -209,6 +299,20 @@ public class JSONTokener {
              return "";
          }
 
+         // Straight from the window when it holds them all
+         if (this.limit - this.pos >= n && !this.eof && !this.usePrevious) {
+             int start = this.pos;
+             for (int i = start; i < start + n; i += 1) {
+                 if (this.buffer[i] == 0) {
+                     this.pos = i + 1;
+                     this.eof = true;
+                     throw this.syntaxError("Substring bounds error");
+                 }
+             }
+             this.pos += n;
+             return new String(this.buffer, start, n);
+         }
+
          char[] chars = new char[n];
          int pos = 0;
 
@@ -230,13 +334,59 @@ public class JSONTokener {
      */
     public char nextClean() throws JSONException {
         for (;;) {
-            char c = this.next();
-            if (c == 0 || c > ' ') {
+            if (this.pos == this.limit || this.endReads > 0 || this.usePrevious) {
+                char c = this.next();
+                if (c == 0 || c > ' ') {
+                    return c;
+                }
+                continue;
+            }
+            char c = this.buffer[this.pos++];
+            if (c > ' ') {
                 return c;
             }
+            if (c == 0) {
+                this.eof = true;
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Get the key of an object property. A quoted key that is exactly the
+     * expected one is not copied out of the source, the expected String is
+     * returned instead.
+     * @param c         The first character of the key, already read.
+     * @param expected  The likely key, or null. It must have no characters
+     *      that need escapes or could end the string.
+     * @return The key.
+     * @throws JSONException If syntax error.
+     */
+    String nextKey(char c, String expected) throws JSONException {
+        if (c != '"' && c != '\'') {
+            this.back();
+            return this.nextValue().toString();
+        }
+        if (expected != null && !this.usePrevious) {
+            int length = expected.length();
+            int at = this.pos + length;
+            if (at < this.limit && this.buffer[at] == c
+                    && matches(expected, this.buffer, this.pos)) {
+                this.pos = at + 1;
+                return expected;
+            }
         }
+        return this.nextString(c);
     }
 
+    private static boolean matches(String key, char[] chars, int from) {
+        for (int i = 0; i < key.length(); i += 1) {
+            if (chars[from + i] != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
 
     /**
      * Return the characters up to the next close quote character.
@@ -251,7 +401,30 @@ public class JSONTokener {
      */
     public String nextString(char quote) throws JSONException {
         char c;
-        StringBuilder sb = new StringBuilder();
+        StringBuilder sb;
+
+        // A string without escapes is taken from the window as it is
+        if (!this.usePrevious) {
+            int from = this.pos;
+            int at = from;
+            while (at < this.limit) {
+                c = this.buffer[at];
+                if (c == quote) {
+                    this.pos = at + 1;
+                    return new String(this.buffer, from, at - from);
+                }
+                if (c == '\\' || c == 0 || c == '\n' || c == '\r') {
+                    break;
+                }
+                at += 1;
+            }
+            sb = new StringBuilder(at - from + 16);
+            sb.append(this.buffer, from, at - from);
+            this.pos = at;
+        } else {
+            sb = new StringBuilder();
+        }
+
         for (;;) {
             c = this.next();
             switch (c) {
@@ -352,6 +525,20 @@ public class JSONTokener {
      * @return An object.
      */
     public Object nextValue() throws JSONException {
+        Object value = this.nextValueOrNumber();
+        return value instanceof JSONNumber ? ((JSONNumber) value).box() : value;
+    }
+
+
+    /**
+     * Get the next value, leaving a number unboxed: it is returned as the
+     * tokener's JSONNumber, which holds it until the next value is read. This
+     * lets JSONObject keep numbers as primitives.
+     * @throws JSONException If syntax error.
+     *
+     * @return An object, or a JSONNumber.
+     */
+    Object nextValueOrNumber() throws JSONException {
         char c = this.nextClean();
         String string;
 
@@ -376,8 +563,37 @@ public class JSONTokener {
          * formatting character.
          */
 
+        if (c >= ' ' && !isDelimiter(c) && this.endReads == 0) {
+            // Straight from the window when it holds the whole text
+            int from = this.pos - 1;
+            int at = this.pos;
+            while (at < this.limit && this.buffer[at] >= ' ' && !isDelimiter(this.buffer[at])) {
+                at += 1;
+            }
+            if (at < this.limit || this.reader == null) {
+                // Read up to the delimiter and stepped back, as next() and back() would have
+                this.pos = at;
+                this.usePrevious = true;
+                this.eof = false;
+
+                while (from < at && this.buffer[from] <= ' ') {
+                    from += 1;
+                }
+                while (at > from && this.buffer[at - 1] <= ' ') {
+                    at -= 1;
+                }
+                if (from == at) {
+                    throw this.syntaxError("Missing value");
+                }
+                if (this.number == null) {
+                    this.number = new JSONNumber();
+                }
+                return JSONObject.stringToValueOrNumber(this.buffer, from, at, this.number);
+            }
+        }
+
         StringBuilder sb = new StringBuilder();
-        while (c >= ' ' && ",:]}/\\\"[{;=#".indexOf(c) < 0) {
+        while (c >= ' ' && !isDelimiter(c)) {
             sb.append(c);
             c = this.next();
         }
@@ -390,6 +606,10 @@ public class JSONTokener {
         return JSONObject.stringToValue(string);
     }
 
+    private static boolean isDelimiter(char c) {
+        return ",:]}/\\\"[{;=#".indexOf(c) >= 0;
+    }
+
 
     /**
      * Skip characters until the next character is the requested character.
@@ -400,23 +620,19 @@ public class JSONTokener {
      */
     public char skipTo(char to) throws JSONException {
         char c;
+        long startEndReads = this.endReads;
+        this.mark = this.pos;
         try {
-            long startIndex = this.index;
-            long startCharacter = this.character;
-            long startLine = this.line;
-            this.reader.mark(1000000);
             do {
                 c = this.next();
                 if (c == 0) {
-                    this.reader.reset();
-                    this.index = startIndex;
-                    this.character = startCharacter;
-                    this.line = startLine;
+                    this.pos = this.mark;
+                    this.endReads = startEndReads;
                     return c;
                 }
             } while (c != to);
-        } catch (IOException exception) {
-            throw new JSONException(exception);
+        } finally {
+            this.mark = Integer.MAX_VALUE;
         }
         this.back();
         return c;
@@ -440,7 +656,23 @@ public class JSONTokener {
      * @return " at {index} [character {character} line {line}]"
      */
     public String toString() {
-        return " at " + this.index + " [character " + this.character + " line " +
-            this.line + "]";
+        long line = this.baseLine;
+        long character = this.baseCharacter;
+        char previous = this.basePrevious;
+        for (int i = 0; i < this.pos; i += 1) {
+            char c = this.buffer[i];
+            if (previous == '\r') {
+                line += 1;
+                character = c == '\n' ? 0 : 1;
+            } else if (c == '\n') {
+                line += 1;
+                character = 0;
+            } else {
+                character += 1;
+            }
+            previous = c;
+        }
+        return " at " + this.index() + " [character " + (character + this.endReads) + " line " +
+            line + "]";
     }
 }
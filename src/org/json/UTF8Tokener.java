@@ -0,0 +1,675 @@
+package org.json;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/*
+Copyright (c) 2002 JSON.org
+
+Permission is hereby granted, free of charge, to any person obtaining a copy
+of this software and associated documentation files (the "Software"), to deal
+in the Software without restriction, including without limitation the rights
+to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+copies of the Software, and to permit persons to whom the Software is
+furnished to do so, subject to the following conditions:
+
+The above copyright notice and this permission notice shall be included in all
+copies or substantial portions of the Software.
+
+The Software shall be used for Good, not Evil.
+
+THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+SOFTWARE.
+*/
+
+/**
+ * The UTF8Tokener extends the JSONTokener to read UTF-8 encoded bytes without
+ * decoding the whole source into characters first. Whitespace, structural
+ * characters and unquoted values are read as ASCII bytes, and only the
+ * contents of strings are decoded. The end of the plain part of a string is
+ * found by the ByteScanner, eight bytes at a time. It accepts the same text as the
+ * JSONTokener, so the JSONObject and JSONArray constructors build the same
+ * trees from it.
+ * <p>
+ * Malformed UTF-8 is replaced by U+FFFD, the index in error messages is a
+ * byte offset.
+ * @author JSON.org
+ * @version 2014-05-03
+ */
+public class UTF8Tokener extends JSONTokener {
+
+    private static final char REPLACEMENT = '\uFFFD';
+
+    /**
+     * The source is bytes[start..limit), bytes[pos..limit) is next.
+     */
+    private final byte[] bytes;
+    private final int    start;
+    private final int    limit;
+    private int     pos;
+
+    /**
+     * The low surrogate still to be returned after the high surrogate of a
+     * four byte sequence, 0 if none.
+     */
+    private char    low;
+
+    /**
+     * The state before the last next(), which back() returns to.
+     */
+    private int     previousPos;
+    private char    previousLow;
+
+    private boolean eof;
+    private boolean usePrevious;
+    private long    endReads;
+
+    /**
+     * Scratch characters and number parser for unquoted values, made on the
+     * first one.
+     */
+    private char[]  chars;
+    private JSONNumber number;
+
+
+    /**
+     * Construct a UTF8Tokener from a byte array.
+     *
+     * @param bytes     The UTF-8 source.
+     */
+    public UTF8Tokener(byte[] bytes) {
+        this(bytes, 0, bytes.length);
+    }
+
+
+    /**
+     * Construct a UTF8Tokener from part of a byte array.
+     *
+     * @param bytes     The UTF-8 source.
+     * @param offset    The index of the first byte of the source.
+     * @param length    The number of bytes in the source.
+     */
+    public UTF8Tokener(byte[] bytes, int offset, int length) {
+        super("");
+        if (offset < 0 || length < 0 || offset > bytes.length - length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length +
+                    ", array length " + bytes.length);
+        }
+        this.bytes = bytes;
+        this.start = offset;
+        this.limit = offset + length;
+        this.pos = offset;
+        this.previousPos = offset;
+    }
+
+
+    /**
+     * Construct a UTF8Tokener from the remaining bytes of a buffer. The
+     * position of the buffer is left as it is. A buffer without an
+     * accessible array is copied.
+     *
+     * @param buffer    The UTF-8 source.
+     */
+    public UTF8Tokener(ByteBuffer buffer) {
+        this(array(buffer), buffer.hasArray() ? buffer.arrayOffset() + buffer.position() : 0,
+                buffer.remaining());
+    }
+
+    private static byte[] array(ByteBuffer buffer) {
+        if (buffer.hasArray()) {
+            return buffer.array();
+        }
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+
+    @Override
+    public void back() throws JSONException {
+        if (this.usePrevious || this.index() <= 0) {
+            throw new JSONException("Stepping back two steps is not supported");
+        }
+        if (this.endReads > 0) {
+            this.endReads -= 1;
+        } else {
+            this.pos = this.previousPos;
+            this.low = this.previousLow;
+        }
+        this.usePrevious = true;
+        this.eof = false;
+    }
+
+
+    @Override
+    public boolean end() {
+        return this.eof && !this.usePrevious;
+    }
+
+
+    @Override
+    public boolean more() throws JSONException {
+        this.next();
+        if (this.end()) {
+            return false;
+        }
+        this.back();
+        return true;
+    }
+
+
+    @Override
+    public char next() throws JSONException {
+        if (this.usePrevious) {
+            // Read again, without touching eof
+            this.usePrevious = false;
+            if (this.pos == this.limit && this.low == 0) {
+                this.endReads += 1;
+                return 0;
+            }
+            return this.read();
+        }
+        if (this.pos == this.limit && this.low == 0) {
+            this.endReads += 1;
+            this.eof = true;
+            return 0;
+        }
+        char c = this.read();
+        if (c == 0) {
+            this.eof = true;
+        }
+        return c;
+    }
+
+
+    /**
+     * Decode the next character, there must be one.
+     */
+    private char read() {
+        this.previousPos = this.pos;
+        this.previousLow = this.low;
+        if (this.low != 0) {
+            char c = this.low;
+            this.low = 0;
+            return c;
+        }
+        byte b = this.bytes[this.pos];
+        if (b >= 0) {
+            this.pos += 1;
+            return (char) b;
+        }
+        return this.decode();
+    }
+
+
+    /**
+     * Decode the multibyte sequence at pos, a malformed sequence is replaced
+     * by U+FFFD one byte at a time.
+     */
+    private char decode() {
+        int b = this.bytes[this.pos] & 0xFF;
+        int length;
+        int code;
+        int min;
+        if (b >= 0xC2 && b <= 0xDF) {
+            length = 2;
+            code = b & 0x1F;
+            min = 0x80;
+        } else if (b >= 0xE0 && b <= 0xEF) {
+            length = 3;
+            code = b & 0x0F;
+            min = 0x800;
+        } else if (b >= 0xF0 && b <= 0xF4) {
+            length = 4;
+            code = b & 0x07;
+            min = 0x10000;
+        } else {
+            this.pos += 1;
+            return REPLACEMENT;
+        }
+        if (this.limit - this.pos < length) {
+            this.pos += 1;
+            return REPLACEMENT;
+        }
+        for (int i = 1; i < length; i += 1) {
+            int next = this.bytes[this.pos + i];
+            if ((next & 0xC0) != 0x80) {
+                this.pos += 1;
+                return REPLACEMENT;
+            }
+            code = (code << 6) | (next & 0x3F);
+        }
+        if (code < min || code > Character.MAX_CODE_POINT ||
+                (code >= Character.MIN_SURROGATE && code <= Character.MAX_SURROGATE)) {
+            this.pos += 1;
+            return REPLACEMENT;
+        }
+        this.pos += length;
+        if (length == 4) {
+            this.low = Character.lowSurrogate(code);
+            return Character.highSurrogate(code);
+        }
+        return (char) code;
+    }
+
+
+    /**
+     * @return The number of bytes read so far.
+     */
+    private long index() {
+        return this.pos - this.start + this.endReads;
+    }
+
+
+    @Override
+    public char nextClean() throws JSONException {
+        for (;;) {
+            if (this.pos == this.limit || this.usePrevious || this.low != 0) {
+                char c = this.next();
+                if (c == 0 || c > ' ') {
+                    return c;
+                }
+                continue;
+            }
+            byte b = this.bytes[this.pos];
+            if (b < 0) {
+                return this.next();
+            }
+            this.previousPos = this.pos;
+            this.previousLow = 0;
+            this.pos += 1;
+            if (b > ' ') {
+                return (char) b;
+            }
+            if (b == 0) {
+                this.eof = true;
+                return 0;
+            }
+        }
+    }
+
+
+    /**
+     * Return the characters up to the next close quote character. The
+     * contents are decoded from the bytes in one go, unless they contain
+     * backslash escapes.
+     * @param quote The quoting character, either
+     *      <code>"</code>&nbsp;<small>(double quote)</small> or
+     *      <code>'</code>&nbsp;<small>(single quote)</small>.
+     * @return      A String.
+     * @throws JSONException Unterminated string.
+     */
+    @Override
+    public String nextString(char quote) throws JSONException {
+        if (this.usePrevious || this.low != 0) {
+            return super.nextString(quote);
+        }
+        int from = this.pos;
+        int at = this.plainEnd(from, quote);
+        if (at < this.limit && this.bytes[at] == quote) {
+            this.previousPos = at;
+            this.previousLow = 0;
+            this.pos = at + 1;
+            return new String(this.bytes, from, at - from, StandardCharsets.UTF_8);
+        }
+        if (at < this.limit && this.bytes[at] == '\\') {
+            return this.nextEscapedString(quote, from, at);
+        }
+        this.stop(at);
+        throw this.syntaxError("Unterminated string");
+    }
+
+
+    /**
+     * Get the key of an object property, comparing the bytes of a quoted key
+     * with the expected one before decoding them.
+     */
+    @Override
+    String nextKey(char c, String expected) throws JSONException {
+        if ((c == '"' || c == '\'') && expected != null && !this.usePrevious && this.low == 0) {
+            int at = this.pos + expected.length();
+            if (at < this.limit && this.bytes[at] == c && this.matches(expected)) {
+                this.previousPos = at;
+                this.previousLow = 0;
+                this.pos = at + 1;
+                return expected;
+            }
+        }
+        return super.nextKey(c, expected);
+    }
+
+    private boolean matches(String key) {
+        for (int i = 0; i < key.length(); i += 1) {
+            if (this.bytes[this.pos + i] != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+
+    /**
+     * Continue a string at its first backslash.
+     * @param from  The first byte of the string.
+     * @param at    The first backslash.
+     */
+    private String nextEscapedString(char quote, int from, int at) throws JSONException {
+        StringBuilder sb = new StringBuilder(at - from + 16);
+        for (;;) {
+            sb.append(new String(this.bytes, from, at - from, StandardCharsets.UTF_8));
+            this.previousPos = at;
+            this.previousLow = 0;
+            this.pos = at + 1;
+            char c = this.next();
+            switch (c) {
+            case 'b':
+                sb.append('\b');
+                break;
+            case 't':
+                sb.append('\t');
+                break;
+            case 'n':
+                sb.append('\n');
+                break;
+            case 'f':
+                sb.append('\f');
+                break;
+            case 'r':
+                sb.append('\r');
+                break;
+            case 'u':
+                sb.append((char)Integer.parseInt(this.next(4), 16));
+                break;
+            case '"':
+            case '\'':
+            case '\\':
+            case '/':
+                sb.append(c);
+                break;
+            default:
+                throw this.syntaxError("Illegal escape.");
+            }
+
+            from = this.pos;
+            at = this.plainEnd(from, quote);
+            if (at < this.limit && this.bytes[at] == quote) {
+                sb.append(new String(this.bytes, from, at - from, StandardCharsets.UTF_8));
+                this.previousPos = at;
+                this.previousLow = 0;
+                this.pos = at + 1;
+                return sb.toString();
+            }
+            if (at == this.limit || this.bytes[at] != '\\') {
+                this.stop(at);
+                throw this.syntaxError("Unterminated string");
+            }
+        }
+    }
+
+
+    /**
+     * Find the end of the plain bytes of a string: the quote, a backslash,
+     * or a character that cannot be in a string (0, '\n' or '\r').
+     * @return The index of that byte, or the end of the source.
+     */
+    private int plainEnd(int from, char quote) {
+        int at = ByteScanner.indexOfStringEnd(this.bytes, from, this.limit, quote);
+        while (at < this.limit) {
+            byte b = this.bytes[at];
+            if (b == quote || b == '\\' || b == 0 || b == '\n' || b == '\r') {
+                return at;
+            }
+            // Other control characters are taken as they are
+            at = ByteScanner.indexOfStringEnd(this.bytes, at + 1, this.limit, quote);
+        }
+        return at;
+    }
+
+
+    /**
+     * Leave the tokener as next() would, having read up to and including the
+     * character at the given position, or the end of the source.
+     */
+    private void stop(int at) {
+        this.previousLow = 0;
+        if (at == this.limit) {
+            this.previousPos = at;
+            this.pos = at;
+            this.endReads += 1;
+        } else {
+            this.previousPos = at;
+            this.pos = at + 1;
+        }
+        if (at == this.limit || this.bytes[at] == 0) {
+            this.eof = true;
+        }
+    }
+
+
+    /**
+     * Get the next value. Unquoted text is read as ASCII bytes, the first
+     * non-ASCII byte sends it through the characters.
+     * @throws JSONException If syntax error.
+     *
+     * @return An object, or a JSONNumber.
+     */
+    @Override
+    Object nextValueOrNumber() throws JSONException {
+        char c = this.nextClean();
+
+        switch (c) {
+            case '"':
+            case '\'':
+                return this.nextString(c);
+            case '{':
+                this.back();
+                return new JSONObject(this);
+            case '[':
+                this.back();
+                return new JSONArray(this);
+        }
+
+        if (c >= ' ' && c < 0x80 && !isDelimiter(c) && this.low == 0) {
+            int from = this.previousPos;
+            int at = this.pos;
+            while (at < this.limit) {
+                byte b = this.bytes[at];
+                if (b < ' ' || isDelimiter((char) b)) {
+                    break;
+                }
+                at += 1;
+            }
+            if (at == this.limit || this.bytes[at] >= 0) {
+                // Read up to the delimiter and stepped back, as the characters would have
+                this.previousPos = at - 1;
+                this.previousLow = 0;
+                this.pos = at;
+                this.usePrevious = true;
+                this.eof = false;
+
+                while (from < at && this.bytes[from] <= ' ') {
+                    from += 1;
+                }
+                while (at > from && this.bytes[at - 1] <= ' ') {
+                    at -= 1;
+                }
+                if (from == at) {
+                    throw this.syntaxError("Missing value");
+                }
+                return JSONObject.stringToValueOrNumber(this.chars(from, at), 0, at - from, this.number);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        while (c >= ' ' && !isDelimiter(c)) {
+            sb.append(c);
+            c = this.next();
+        }
+        this.back();
+
+        String string = sb.toString().trim();
+        if ("".equals(string)) {
+            throw this.syntaxError("Missing value");
+        }
+        return JSONObject.stringToValue(string);
+    }
+
+    /**
+     * Skip the next value if it is a string, an object or an array, checking
+     * only that its strings end and its brackets balance. A quote starts a
+     * string only where a value or key can start, after a bracket, ',', ';'
+     * or ':'; elsewhere it is part of unquoted text.
+     * @return The range of bytes of the value, its start in the high half and
+     *         its end in the low half, or -1 if the next value is of another
+     *         kind and was not read.
+     * @throws JSONException If a string or bracket is not closed.
+     */
+    long skipValue() throws JSONException {
+        char c = this.nextClean();
+        if (c != '"' && c != '\'' && c != '{' && c != '[') {
+            this.back();
+            return -1;
+        }
+        int from = this.previousPos;
+        int at = from;
+        int depth = 0;
+        byte last = ',';
+        do {
+            if (at == this.limit) {
+                this.stop(at);
+                throw this.syntaxError("Unterminated value");
+            }
+            byte b = this.bytes[at];
+            if ((b == '"' || b == '\'') && ",;:{[".indexOf(last) >= 0) {
+                at = this.stringEnd(at + 1, (char) b);
+            } else if (b == '{' || b == '[') {
+                depth += 1;
+            } else if (b == '}' || b == ']') {
+                depth -= 1;
+            }
+            if (b > ' ') {
+                last = b;
+            }
+            at += 1;
+        } while (depth > 0);
+        this.previousPos = at - 1;
+        this.previousLow = 0;
+        this.pos = at;
+        return ((long) from << 32) | at;
+    }
+
+    /**
+     * Find the close quote of a string, skipping escaped characters.
+     * @param from  The first byte after the open quote.
+     * @return The index of the close quote.
+     * @throws JSONException Unterminated string.
+     */
+    private int stringEnd(int from, char quote) throws JSONException {
+        int at = this.plainEnd(from, quote);
+        while (at < this.limit && this.bytes[at] == '\\') {
+            at = at + 2 < this.limit ? this.plainEnd(at + 2, quote) : this.limit;
+        }
+        if (at == this.limit || this.bytes[at] != quote) {
+            this.stop(at);
+            throw this.syntaxError("Unterminated string");
+        }
+        return at;
+    }
+
+    /**
+     * @return The source, a value skipped by skipValue is read from it by
+     *         value.
+     */
+    byte[] bytes() {
+        return this.bytes;
+    }
+
+    /**
+     * Read a value skipped by skipValue.
+     * @param bytes The source.
+     * @param range The range of the value, as skipValue returned it.
+     * @return The value.
+     * @throws JSONException If syntax error.
+     */
+    static Object value(byte[] bytes, long range) throws JSONException {
+        int from = (int) (range >>> 32);
+        int to = (int) range;
+        return new UTF8Tokener(bytes, from, to - from).nextValue();
+    }
+
+    /**
+     * @return The ASCII bytes[from..to) widened into the scratch characters.
+     */
+    private char[] chars(int from, int to) {
+        if (this.chars == null || this.chars.length < to - from) {
+            this.chars = new char[Math.max(32, to - from)];
+            if (this.number == null) {
+                this.number = new JSONNumber();
+            }
+        }
+        for (int i = from; i < to; i += 1) {
+            this.chars[i - from] = (char) this.bytes[i];
+        }
+        return this.chars;
+    }
+
+    private static boolean isDelimiter(char c) {
+        return ",:]}/\\\"[{;=#".indexOf(c) >= 0;
+    }
+
+
+    @Override
+    public char skipTo(char to) throws JSONException {
+        char c;
+        int startPos = this.pos;
+        char startLow = this.low;
+        long startEndReads = this.endReads;
+        do {
+            c = this.next();
+            if (c == 0) {
+                this.pos = startPos;
+                this.low = startLow;
+                this.endReads = startEndReads;
+                return c;
+            }
+        } while (c != to);
+        this.back();
+        return c;
+    }
+
+
+    /**
+     * Make a printable string of this UTF8Tokener.
+     *
+     * @return " at {index} [character {character} line {line}]"
+     */
+    @Override
+    public String toString() {
+        long line = 1;
+        long character = 1;
+        byte previous = 0;
+        for (int i = this.start; i < this.pos; i += 1) {
+            byte b = this.bytes[i];
+            if ((b & 0xC0) == 0x80) {
+                continue;
+            }
+            if (previous == '\r') {
+                line += 1;
+                character = b == '\n' ? 0 : 1;
+            } else if (b == '\n') {
+                line += 1;
+                character = 0;
+            } else {
+                character += 1;
+            }
+            previous = b;
+        }
+        return " at " + this.index() + " [character " + (character + this.endReads) + " line " +
+            line + "]";
+    }
+}